@@ -0,0 +1,145 @@
+package me.drton.jmavlib.log;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Base class of log readers with optional fast paths: reading to reusable update records, columnar reading and
+ * statistics of fields. Default implementations are based on {@link #readUpdate(Map)}, so subclasses override only
+ * what the format supports efficiently. Static methods of this class accept any {@link LogReader} and use the same
+ * fallbacks for readers not derived from this class.
+ * <p/>
+ * User: ton Date: 18.10.26 Time: 21:30
+ */
+public abstract class AbstractLogReader implements LogReader {
+    /**
+     * Read next update from the log to reusable update record, same as {@link #readUpdate(Map)} but without allocation
+     * of keys and values. Changed flags of the record are cleared before reading, values of fields not present in
+     * the update are kept.
+     *
+     * @param update update record
+     * @return time of update in us
+     * @throws IOException
+     * @throws FormatErrorException
+     */
+    public long readUpdate(LogUpdate update) throws IOException, FormatErrorException {
+        return readUpdateToRecord(this, update);
+    }
+
+    /**
+     * Read time series of specified fields from the whole log, implementations may skip messages without requested
+     * fields without parsing. Log is positioned to the start after reading.
+     *
+     * @param fields field names as returned by {@link #getFields()}
+     * @return map of field - column, columns of fields missing in the log are empty
+     * @throws IOException
+     * @throws FormatErrorException
+     */
+    public Map<String, LogColumn> readColumns(Collection<String> fields) throws IOException, FormatErrorException {
+        return readColumnsByUpdates(this, fields);
+    }
+
+    /**
+     * Get statistics of numeric fields calculated on scan of the log (optional), see
+     * {@link LogReaderOptions#setFieldStatistics(boolean)}.
+     *
+     * @return map of field - statistics or null if not enabled or not supported
+     */
+    public Map<String, FieldStatistics> getFieldStatistics() {
+        return null;
+    }
+
+    /**
+     * Read next update of any reader to update record, see {@link #readUpdate(LogUpdate)}.
+     */
+    public static long readUpdate(LogReader reader, LogUpdate update) throws IOException, FormatErrorException {
+        if (reader instanceof AbstractLogReader) {
+            return ((AbstractLogReader) reader).readUpdate(update);
+        }
+        return readUpdateToRecord(reader, update);
+    }
+
+    /**
+     * Read columns of any reader, see {@link #readColumns(Collection)}.
+     */
+    public static Map<String, LogColumn> readColumns(LogReader reader, Collection<String> fields)
+            throws IOException, FormatErrorException {
+        if (reader instanceof AbstractLogReader) {
+            return ((AbstractLogReader) reader).readColumns(fields);
+        }
+        return readColumnsByUpdates(reader, fields);
+    }
+
+    /**
+     * Get statistics of fields of any reader, see {@link #getFieldStatistics()}.
+     */
+    public static Map<String, FieldStatistics> getFieldStatistics(LogReader reader) {
+        if (reader instanceof AbstractLogReader) {
+            return ((AbstractLogReader) reader).getFieldStatistics();
+        }
+        return null;
+    }
+
+    private static long readUpdateToRecord(LogReader reader, LogUpdate update)
+            throws IOException, FormatErrorException {
+        Map<String, Object> values = new HashMap<String, Object>();
+        long t = reader.readUpdate(values);
+        update.clearChanged();
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            int id = update.getFieldId(entry.getKey());
+            if (id >= 0) {
+                double value = toDouble(entry.getValue());
+                if (!Double.isNaN(value)) {
+                    update.set(id, value);
+                }
+            }
+        }
+        return t;
+    }
+
+    private static Map<String, LogColumn> readColumnsByUpdates(LogReader reader, Collection<String> fields)
+            throws IOException, FormatErrorException {
+        Map<String, LogColumn> columns = new HashMap<String, LogColumn>();
+        for (String field : fields) {
+            columns.put(field, new LogColumn(field));
+        }
+        reader.seek(0);
+        Map<String, Object> values = new HashMap<String, Object>();
+        try {
+            while (true) {
+                values.clear();
+                long t = reader.readUpdate(values);
+                for (Map.Entry<String, Object> entry : values.entrySet()) {
+                    LogColumn column = columns.get(entry.getKey());
+                    if (column != null) {
+                        double value = toDouble(entry.getValue());
+                        if (!Double.isNaN(value)) {
+                            column.add(t, value);
+                        }
+                    }
+                }
+            }
+        } catch (EOFException ignored) {
+            // End of log
+        }
+        reader.seek(0);
+        return columns;
+    }
+
+    /**
+     * Convert value of field to double.
+     *
+     * @return value or NaN if not numeric
+     */
+    private static double toDouble(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        } else if (value instanceof Boolean) {
+            return (Boolean) value ? 1.0 : 0.0;
+        }
+        return Double.NaN;
+    }
+}
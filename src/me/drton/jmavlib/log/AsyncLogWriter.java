@@ -0,0 +1,253 @@
+package me.drton.jmavlib.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous writer of encoded messages. Producers put buffers to lock-free queue and never block, writer thread
+ * takes all queued buffers and writes them to the channel with one gathering write (group commit). Memory is bounded
+ * by the limit of queued bytes, messages that don't fit are dropped and counted.
+ * <p/>
+ * User: ton Date: 18.10.26 Time: 11:30
+ */
+public class AsyncLogWriter {
+    public static final long DEFAULT_MAX_QUEUED_BYTES = 16 * 1024 * 1024;
+    private static final int MAX_BATCH_BUFFERS = 1024;
+    private static final long MAX_BATCH_BYTES = 1024 * 1024;
+    private static final long PARK_NANOS = 10000000;
+    private static final long FLUSH_PARK_NANOS = 100000;
+
+    private final GatheringByteChannel channel;
+    private final long maxQueuedBytes;
+    private final ConcurrentLinkedQueue<ByteBuffer> queue = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final AtomicLong queuedMessages = new AtomicLong();
+    private final AtomicLong droppedMessages = new AtomicLong();
+    // Number of producers inside of write(), writer thread doesn't exit until they finish enqueueing
+    private final AtomicInteger activeWriters = new AtomicInteger();
+    private volatile long writtenMessages = 0;
+    private volatile long writtenBytes = 0;
+    private volatile boolean waiting = false;
+    private volatile boolean closed = false;
+    private volatile IOException error = null;
+    private final Thread thread;
+
+    /**
+     * Create writer and start writer thread.
+     *
+     * @param channel        channel to write to, closed on {@link #close()}
+     * @param maxQueuedBytes max size of messages waiting for writing
+     */
+    public AsyncLogWriter(GatheringByteChannel channel, long maxQueuedBytes) {
+        this.channel = channel;
+        this.maxQueuedBytes = maxQueuedBytes;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "AsyncLogWriter");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queue message for writing, never blocks. Buffer must not be modified after this call.
+     *
+     * @param buffer    encoded message, remaining bytes are written
+     * @param mandatory don't apply the limit of queued bytes, used for headers and formats which must not be lost
+     * @return true if message queued or false if it was dropped
+     */
+    public boolean write(ByteBuffer buffer, boolean mandatory) {
+        int size = buffer.remaining();
+        activeWriters.incrementAndGet();
+        try {
+            // Checked after registering as active writer, so writer thread can't exit before the message is queued
+            if (closed || error != null) {
+                droppedMessages.incrementAndGet();
+                return false;
+            }
+            while (true) {
+                long queued = queuedBytes.get();
+                if (!mandatory && queued + size > maxQueuedBytes) {
+                    droppedMessages.incrementAndGet();
+                    return false;
+                }
+                if (queuedBytes.compareAndSet(queued, queued + size)) {
+                    break;
+                }
+            }
+            queue.offer(buffer);
+            queuedMessages.incrementAndGet();
+        } finally {
+            activeWriters.decrementAndGet();
+        }
+        if (waiting) {
+            LockSupport.unpark(thread);
+        }
+        return true;
+    }
+
+    private void writeLoop() {
+        ByteBuffer[] batch = new ByteBuffer[MAX_BATCH_BUFFERS];
+        while (true) {
+            int n = 0;
+            long bytes = 0;
+            ByteBuffer buffer;
+            while (n < batch.length && bytes < MAX_BATCH_BYTES && (buffer = queue.poll()) != null) {
+                batch[n++] = buffer;
+                bytes += buffer.remaining();
+            }
+            if (n == 0) {
+                if (closed) {
+                    // Producers which passed the check of the flag before closing may still be enqueueing
+                    if (activeWriters.get() == 0 && queue.isEmpty()) {
+                        break;
+                    }
+                    Thread.yield();
+                    continue;
+                }
+                waiting = true;
+                // Check the queue again after setting the flag to not miss unpark
+                if (queue.isEmpty() && !closed) {
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+                waiting = false;
+                continue;
+            }
+            if (error == null) {
+                try {
+                    int first = 0;
+                    while (first < n) {
+                        if (!batch[first].hasRemaining()) {
+                            first++;
+                            continue;
+                        }
+                        channel.write(batch, first, n - first);
+                    }
+                    writtenBytes += bytes;
+                } catch (IOException e) {
+                    // Keep draining the queue to not hold memory, error is reported on flush and close
+                    error = e;
+                }
+            }
+            for (int i = 0; i < n; i++) {
+                batch[i] = null;
+            }
+            queuedBytes.addAndGet(-bytes);
+            writtenMessages += n;
+        }
+    }
+
+    /**
+     * Wait until all queued messages are written and force them to the storage device.
+     *
+     * @throws IOException if writing of any message failed
+     */
+    public void flush() throws IOException {
+        long target = queuedMessages.get();
+        while (writtenMessages < target && thread.isAlive()) {
+            if (waiting) {
+                LockSupport.unpark(thread);
+            }
+            LockSupport.parkNanos(this, FLUSH_PARK_NANOS);
+        }
+        checkError();
+        if (channel instanceof FileChannel) {
+            ((FileChannel) channel).force(false);
+        }
+    }
+
+    /**
+     * Write all queued messages, stop writer thread and close the channel.
+     *
+     * @throws IOException if writing of any message failed
+     */
+    public void close() throws IOException {
+        closed = true;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        checkError();
+    }
+
+    private void checkError() throws IOException {
+        if (error != null) {
+            throw new IOException("Log writing failed: " + error.getMessage(), error);
+        }
+    }
+
+    /**
+     * Get number of messages dropped because of queue overflow or write error.
+     */
+    public long getDroppedMessages() {
+        return droppedMessages.get();
+    }
+
+    /**
+     * Get number of messages written or discarded after write error.
+     */
+    public long getWrittenMessages() {
+        return writtenMessages;
+    }
+
+    public long getWrittenBytes() {
+        return writtenBytes;
+    }
+
+    /**
+     * Get size of messages waiting for writing.
+     */
+    public long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    /**
+     * Self-check: messages accepted by write() concurrently with close() must be written.
+     */
+    public static void main(String[] args) throws Exception {
+        for (int iteration = 0; iteration < 2000; iteration++) {
+            File file = File.createTempFile("jmavlib", ".bin");
+            file.deleteOnExit();
+            final AsyncLogWriter writer = new AsyncLogWriter(new RandomAccessFile(file, "rw").getChannel(),
+                    DEFAULT_MAX_QUEUED_BYTES);
+            final AtomicLong accepted = new AtomicLong();
+            Thread[] producers = new Thread[4];
+            for (int i = 0; i < producers.length; i++) {
+                producers[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int j = 0; j < 1000; j++) {
+                            if (writer.write(ByteBuffer.allocate(10), true)) {
+                                accepted.addAndGet(10);
+                            }
+                        }
+                    }
+                });
+                producers[i].start();
+            }
+            Thread.yield();
+            writer.close();
+            for (Thread producer : producers) {
+                producer.join();
+            }
+            if (file.length() != accepted.get()) {
+                throw new RuntimeException("Accepted " + accepted.get() + " bytes, written " + file.length());
+            }
+            file.delete();
+        }
+        System.out.println("OK");
+    }
+}
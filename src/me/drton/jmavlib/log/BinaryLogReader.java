@@ -2,23 +2,65 @@ package me.drton.jmavlib.log;
 
 import java.io.EOFException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
 
 /**
  * User: ton Date: 03.06.13 Time: 14:51
  */
-public abstract class BinaryLogReader implements LogReader {
+public abstract class BinaryLogReader extends AbstractLogReader {
+    /**
+     * Size of memory-mapped window, file is mapped by windows of this size so files larger than 2 GB can be read.
+     */
+    private static final long MAPPED_WINDOW_SIZE = 256L * 1024 * 1024;
+
     protected ByteBuffer buffer;
-    protected FileChannel channel = null;
+    protected SeekableByteChannel channel = null;
+    private final boolean mapped;
+    private long fileSize = 0;
+    private long bufferStart = 0;
 
+    /**
+     * Create reader using memory-mapped file.
+     *
+     * @param fileName log file name
+     * @throws IOException on IO error
+     */
     public BinaryLogReader(String fileName) throws IOException {
-        buffer = ByteBuffer.allocate(8192);
+        this(fileName, true);
+    }
+
+    /**
+     * Create reader, gzip-compressed log is read via {@link GZipIndexedChannel}.
+     *
+     * @param fileName log file name
+     * @param mapped   use memory-mapped file instead of reading to buffer
+     * @throws IOException on IO error
+     */
+    public BinaryLogReader(String fileName, boolean mapped) throws IOException {
+        this(GZipIndexedChannel.open(fileName, null), mapped);
+    }
+
+    /**
+     * Create reader of the channel.
+     *
+     * @param channel log channel
+     * @param mapped  use memory-mapped file instead of reading to buffer, ignored if the channel is not a file channel
+     * @throws IOException on IO error
+     */
+    protected BinaryLogReader(SeekableByteChannel channel, boolean mapped) throws IOException {
+        this.mapped = mapped && channel instanceof FileChannel;
+        this.channel = channel;
+        if (this.mapped) {
+            fileSize = channel.size();
+            buffer = ByteBuffer.allocate(0);
+        } else {
+            buffer = ByteBuffer.allocate(8192);
+        }
         buffer.order(ByteOrder.LITTLE_ENDIAN);
         buffer.flip();
-        channel = new RandomAccessFile(fileName, "r").getChannel();
     }
 
     @Override
@@ -28,6 +70,15 @@ public abstract class BinaryLogReader implements LogReader {
     }
 
     public int fillBuffer() throws IOException {
+        if (mapped) {
+            long pos = bufferStart + buffer.position();
+            int remaining = buffer.remaining();
+            if (isEndOfFile(pos + remaining)) {
+                throw new EOFException();
+            }
+            mapWindow(pos);
+            return buffer.remaining() - remaining;
+        }
         buffer.compact();
         int n = channel.read(buffer);
         buffer.flip();
@@ -38,10 +89,25 @@ public abstract class BinaryLogReader implements LogReader {
     }
 
     protected long position() throws IOException {
+        if (mapped) {
+            return bufferStart + buffer.position();
+        }
         return channel.position() - buffer.remaining();
     }
 
     protected int position(long pos) throws IOException {
+        if (mapped) {
+            if (isEndOfFile(pos)) {
+                throw new EOFException();
+            }
+            if (pos >= bufferStart && pos < bufferStart + buffer.limit()) {
+                // Inside of mapped window, just move the pointer
+                buffer.position((int) (pos - bufferStart));
+            } else {
+                mapWindow(pos);
+            }
+            return buffer.remaining();
+        }
         buffer.clear();
         channel.position(pos);
         int n = channel.read(buffer);
@@ -51,4 +117,48 @@ public abstract class BinaryLogReader implements LogReader {
         }
         return n;
     }
+
+    /**
+     * Read from specified position of the channel, position of the reader is not changed.
+     *
+     * @param dst buffer
+     * @param pos position in the log
+     * @return number of bytes read or -1 at the end of the log
+     * @throws IOException on IO error
+     */
+    protected int readAt(ByteBuffer dst, long pos) throws IOException {
+        if (channel instanceof FileChannel) {
+            return ((FileChannel) channel).read(dst, pos);
+        } else if (channel instanceof GZipIndexedChannel) {
+            return ((GZipIndexedChannel) channel).read(dst, pos);
+        }
+        long channelPos = channel.position();
+        try {
+            channel.position(pos);
+            return channel.read(dst);
+        } finally {
+            channel.position(channelPos);
+        }
+    }
+
+    /**
+     * Check if the position is at the end of mapped file, size is updated before reporting the end, so the log still
+     * being written may be read further.
+     */
+    private boolean isEndOfFile(long pos) throws IOException {
+        if (pos >= fileSize) {
+            fileSize = channel.size();
+        }
+        return pos >= fileSize;
+    }
+
+    /**
+     * Map window of the file starting from specified position, unmapping of previous window is left to GC.
+     */
+    private void mapWindow(long pos) throws IOException {
+        long size = Math.min(MAPPED_WINDOW_SIZE, fileSize - pos);
+        buffer = ((FileChannel) channel).map(FileChannel.MapMode.READ_ONLY, pos, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        bufferStart = pos;
+    }
 }
@@ -1,41 +1,150 @@
 package me.drton.jmavlib.log;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * User: ton Date: 10.06.14 Time: 12:46
  */
-public class CSVLogReader implements LogReader {
+public class CSVLogReader extends AbstractLogReader {
+    private static final long TIME_INDEX_INTERVAL = 64 * 1024;
+    private static final long MIN_CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final int CHUNKS_PER_THREAD = 4;
     private RandomAccessFile file;
+    private FileChannel channel;
+    private CSVTokenizer tokenizer;
     private String[] fields;
     private Map<String, String> fieldsFormats;
-    private String delimiter = ";";
+    private char delimiter;
+    private char decimalSeparator;
+    private int scanThreads;
     private int columnTime = 0;
+    private long dataStart = 0;
     private long sizeUpdates = -1;
     private long sizeMicroseconds = -1;
     private long startMicroseconds = -1;
+    private TimeIndex timeIndex = new TimeIndex();
+    private boolean fieldStatisticsEnabled;
+    private Map<String, FieldStatistics> fieldStatistics = null;
+    private LogUpdate boundUpdate = null;
+    private int[] updateFieldIds = null;
 
     public CSVLogReader(String fileName) throws IOException, FormatErrorException {
+        this(fileName, new LogReaderOptions());
+    }
+
+    public CSVLogReader(String fileName, LogReaderOptions options) throws IOException, FormatErrorException {
         file = new RandomAccessFile(fileName, "r");
+        channel = file.getChannel();
+        delimiter = options.getCSVDelimiter();
+        decimalSeparator = options.getCSVDecimalSeparator();
+        scanThreads = options.getScanThreads();
+        fieldStatisticsEnabled = options.isFieldStatistics();
+        tokenizer = new CSVTokenizer(channel, delimiter, decimalSeparator);
         readFormats();
+        LogIndexFile indexFile = null;
+        if (options.isUseIndexFile()) {
+            indexFile = new LogIndexFile(fileName, options.getIndexFileName(fileName));
+            if (readIndex(indexFile)) {
+                seek(0);
+                return;
+            }
+        }
         updateStatistics();
+        if (indexFile != null) {
+            writeIndex(indexFile);
+        }
+    }
+
+    /**
+     * Get format of index file, parsed lines depend on delimiter and decimal separator, so they are included.
+     */
+    private String getIndexFormat() {
+        return String.format("CSVLogReader %04x %04x", (int) delimiter, (int) decimalSeparator);
+    }
+
+    private boolean readIndex(LogIndexFile indexFile) {
+        try {
+            DataInputStream in = indexFile.openForRead(getIndexFormat());
+            if (in == null) {
+                return false;
+            }
+            try {
+                long sizeUpdates = in.readLong();
+                long startMicroseconds = in.readLong();
+                long sizeMicroseconds = in.readLong();
+                LogIndexFile.readTimeIndex(in, timeIndex);
+                Map<String, FieldStatistics> fieldStatistics = LogIndexFile.readFieldStatistics(in);
+                if (fieldStatisticsEnabled && fieldStatistics == null) {
+                    // Index was written without field statistics
+                    timeIndex.clear();
+                    return false;
+                }
+                this.sizeUpdates = sizeUpdates;
+                this.startMicroseconds = startMicroseconds;
+                this.sizeMicroseconds = sizeMicroseconds;
+                this.fieldStatistics = fieldStatisticsEnabled ? fieldStatistics : null;
+                return true;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            timeIndex.clear();
+            return false;
+        }
+    }
+
+    private void writeIndex(LogIndexFile indexFile) {
+        DataOutputStream out;
+        try {
+            out = indexFile.openForWrite(getIndexFormat());
+        } catch (IOException e) {
+            return;     // Index is optional, e.g. log directory may be read-only
+        }
+        try {
+            out.writeLong(sizeUpdates);
+            out.writeLong(startMicroseconds);
+            out.writeLong(sizeMicroseconds);
+            LogIndexFile.writeTimeIndex(out, timeIndex);
+            LogIndexFile.writeFieldStatistics(out, fieldStatistics);
+            indexFile.commit(out);
+        } catch (IOException e) {
+            indexFile.discard(out);
+        }
     }
 
     private void readFormats() throws IOException, FormatErrorException {
-        String headerLine = file.readLine();
-        if (headerLine == null) {
+        tokenizer.position(0);
+        if (!tokenizer.nextLine()) {
             throw new FormatErrorException("Empty CSV file");
         }
-        fields = headerLine.split(delimiter);
+        int n = tokenizer.getCellsCount();
+        while (n > 0 && tokenizer.isEmpty(n - 1)) {
+            n--;    // Ignore trailing delimiters
+        }
+        fields = new String[n];
         fieldsFormats = new HashMap<String, String>(fields.length);
-        for (String field : fields) {
-            fieldsFormats.put(field, "d");
+        for (int i = 0; i < n; i++) {
+            fields[i] = tokenizer.getString(i);
+            fieldsFormats.put(fields[i], "d");
         }
+        dataStart = tokenizer.position();
     }
 
     @Override
@@ -46,49 +155,212 @@ public class CSVLogReader implements LogReader {
     @Override
     public boolean seek(long seekTime) throws FormatErrorException, IOException {
         if (seekTime == 0) {
-            file.seek(0);
-            file.readLine();
+            tokenizer.position(dataStart);
             return true;
         }
+        // Start from the nearest indexed position before requested time
+        int indexIdx = timeIndex.find(seekTime);
+        tokenizer.position(indexIdx >= 0 ? timeIndex.getOffset(indexIdx) : dataStart);
         long t = 0;
-        Map<String, Object> data = new HashMap<String, Object>();
         while (t < seekTime) {
-            data.clear();
-            long ptr = file.getFilePointer();
-            try {
-                t = readUpdate(data);
-            } catch (EOFException e) {
+            if (!tokenizer.nextLine()) {
                 return false;
             }
+            t = hasTime(tokenizer) ? getTime(tokenizer) : 0;
             if (t > seekTime) {
-                file.seek(ptr);
+                tokenizer.position(tokenizer.getLineStart());
                 return true;
             }
         }
         return false;
     }
 
-    private void updateStatistics() throws IOException, FormatErrorException {
-        seek(0);
+    private boolean hasTime(CSVTokenizer tokenizer) {
+        return columnTime < tokenizer.getCellsCount() && !tokenizer.isEmpty(columnTime);
+    }
+
+    private long getTime(CSVTokenizer tokenizer) {
+        return (long) (tokenizer.getDouble(columnTime) * 1000000);
+    }
+
+    /**
+     * Handler of lines for parallel scanning of the log by chunks.
+     */
+    private interface LineHandler<R> {
+        R createResult();
+
+        void processLine(R result, CSVTokenizer tokenizer);
+    }
+
+    /**
+     * Scan the log by chunks in several threads if enabled in options. Chunks are synchronized on start of line,
+     * each line is processed in the chunk where it starts.
+     *
+     * @return results of chunks in order of the log
+     */
+    private <R> List<R> scanChunks(final LineHandler<R> handler) throws IOException, FormatErrorException {
+        long size = channel.size();
+        int chunksNum = scanThreads > 1 ?
+                (int) Math.max(1, Math.min((long) scanThreads * CHUNKS_PER_THREAD, (size - dataStart) / MIN_CHUNK_SIZE)) : 1;
+        final long[] bounds = new long[chunksNum + 1];
+        for (int i = 0; i < chunksNum; i++) {
+            bounds[i] = dataStart + (size - dataStart) * i / chunksNum;
+        }
+        bounds[chunksNum] = Long.MAX_VALUE;
+        if (chunksNum == 1) {
+            return Collections.singletonList(scanChunk(handler, tokenizer, bounds[0], bounds[1]));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(scanThreads, chunksNum));
+        try {
+            List<Future<R>> futures = new ArrayList<Future<R>>(chunksNum);
+            for (int i = 0; i < chunksNum; i++) {
+                final int idx = i;
+                futures.add(executor.submit(new Callable<R>() {
+                    @Override
+                    public R call() throws Exception {
+                        CSVTokenizer chunkTokenizer = new CSVTokenizer(channel, delimiter, decimalSeparator);
+                        return scanChunk(handler, chunkTokenizer, bounds[idx], bounds[idx + 1]);
+                    }
+                }));
+            }
+            List<R> results = new ArrayList<R>(chunksNum);
+            for (Future<R> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted");
+                } catch (ExecutionException e) {
+                    throw rethrow(e.getCause());
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private <R> R scanChunk(LineHandler<R> handler, CSVTokenizer tokenizer, long start, long limit)
+            throws IOException {
+        R result = handler.createResult();
+        if (start > dataStart) {
+            // Start from the first line after the start of the chunk
+            tokenizer.position(start - 1);
+            tokenizer.skipLine();
+        } else {
+            tokenizer.position(start);
+        }
+        while (tokenizer.nextLine() && tokenizer.getLineStart() < limit) {
+            handler.processLine(result, tokenizer);
+        }
+        return result;
+    }
+
+    private static RuntimeException rethrow(Throwable e) throws IOException, FormatErrorException {
+        if (e instanceof IOException) {
+            throw (IOException) e;
+        } else if (e instanceof FormatErrorException) {
+            throw (FormatErrorException) e;
+        } else if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        }
+        throw new RuntimeException(e);
+    }
+
+    /**
+     * Statistics of a chunk of the log.
+     */
+    private static class Statistics {
         long packetsNum = 0;
         long timeStart = -1;
         long timeEnd = -1;
-        while (true) {
-            String[] values;
-            try {
-                values = readLineValues();
-            } catch (EOFException e) {
-                break;
+        long timeMax = Long.MIN_VALUE;
+        TimeIndex timeIndex = new TimeIndex();
+        // Field statistics by column, null if disabled
+        FieldStatistics[] fieldStatistics = null;
+    }
+
+    private void updateStatistics() throws IOException, FormatErrorException {
+        List<Statistics> chunks = scanChunks(new LineHandler<Statistics>() {
+            @Override
+            public Statistics createResult() {
+                Statistics stats = new Statistics();
+                if (fieldStatisticsEnabled) {
+                    stats.fieldStatistics = new FieldStatistics[fields.length];
+                    for (int i = 0; i < fields.length; i++) {
+                        if (i != columnTime && !fields[i].isEmpty()) {
+                            stats.fieldStatistics[i] = new FieldStatistics();
+                        }
+                    }
+                }
+                return stats;
             }
 
-            if (values.length > columnTime) {
-                double v = Double.parseDouble(values[columnTime].replace(',', '.'));
-                long t = (long) (v * 1000000);
-                if (timeStart < 0) {
-                    timeStart = t;
+            @Override
+            public void processLine(Statistics stats, CSVTokenizer tokenizer) {
+                if (hasTime(tokenizer)) {
+                    long t = getTime(tokenizer);
+                    if (stats.packetsNum == 0) {
+                        stats.timeStart = t;
+                    }
+                    stats.timeEnd = t;
+                    stats.packetsNum++;
+                    if (t > stats.timeMax) {
+                        stats.timeMax = t;
+                    }
+                    long pos = tokenizer.getLineStart();
+                    if (stats.timeIndex.size() == 0 || pos - stats.timeIndex.getLastOffset() >= TIME_INDEX_INTERVAL) {
+                        stats.timeIndex.add(stats.timeMax, pos);
+                    }
+                }
+                if (stats.fieldStatistics != null) {
+                    int n = Math.min(tokenizer.getCellsCount(), fields.length);
+                    for (int i = 0; i < n; i++) {
+                        if (stats.fieldStatistics[i] != null && !tokenizer.isEmpty(i)) {
+                            stats.fieldStatistics[i].add(tokenizer.getDouble(i));
+                        }
+                    }
+                }
+            }
+        });
+        long packetsNum = 0;
+        long timeStart = -1;
+        long timeEnd = -1;
+        long timeMax = Long.MIN_VALUE;
+        timeIndex.clear();
+        for (Statistics stats : chunks) {
+            if (stats.packetsNum > 0) {
+                if (packetsNum == 0) {
+                    timeStart = stats.timeStart;
+                }
+                timeEnd = stats.timeEnd;
+            }
+            packetsNum += stats.packetsNum;
+            // Keys of the index must include timestamps of previous chunks
+            for (int i = 0; i < stats.timeIndex.size(); i++) {
+                long offset = stats.timeIndex.getOffset(i);
+                if (timeIndex.size() == 0 || offset - timeIndex.getLastOffset() >= TIME_INDEX_INTERVAL) {
+                    timeIndex.add(Math.max(timeMax, stats.timeIndex.getTime(i)), offset);
+                }
+            }
+            if (stats.timeMax > timeMax) {
+                timeMax = stats.timeMax;
+            }
+        }
+        if (fieldStatisticsEnabled) {
+            FieldStatistics[] merged = chunks.get(0).fieldStatistics;
+            for (int c = 1; c < chunks.size(); c++) {
+                for (int i = 0; i < merged.length; i++) {
+                    if (merged[i] != null) {
+                        merged[i].merge(chunks.get(c).fieldStatistics[i]);
+                    }
+                }
+            }
+            fieldStatistics = new HashMap<String, FieldStatistics>();
+            for (int i = 0; i < merged.length; i++) {
+                if (merged[i] != null && merged[i].getCount() > 0) {
+                    fieldStatistics.put(fields[i], merged[i]);
                 }
-                timeEnd = t;
-                packetsNum++;
             }
         }
         startMicroseconds = timeStart;
@@ -99,11 +371,14 @@ public class CSVLogReader implements LogReader {
 
     @Override
     public long readUpdate(Map<String, Object> update) throws IOException, FormatErrorException {
-        String[] values = readLineValues();
+        if (!tokenizer.nextLine()) {
+            throw new EOFException();
+        }
         long t = 0;
-        for (int i = 0; i < values.length; i++) {
-            if (i < fields.length && !fields[i].isEmpty()) {
-                double v = Double.parseDouble(values[i].replace(',', '.'));
+        int n = Math.min(tokenizer.getCellsCount(), fields.length);
+        for (int i = 0; i < n; i++) {
+            if (!fields[i].isEmpty() && !tokenizer.isEmpty(i)) {
+                double v = tokenizer.getDouble(i);
                 if (i == columnTime) {
                     t = (long) (v * 1000000);
                 } else {
@@ -114,12 +389,73 @@ public class CSVLogReader implements LogReader {
         return t;
     }
 
-    private String[] readLineValues() throws IOException {
-        String line = file.readLine();
-        if (line == null) {
+    @Override
+    public long readUpdate(LogUpdate update) throws IOException, FormatErrorException {
+        update.clearChanged();
+        if (update != boundUpdate) {
+            boundUpdate = update;
+            updateFieldIds = new int[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                updateFieldIds[i] = i == columnTime ? -1 : update.getFieldId(fields[i]);
+            }
+        }
+        if (!tokenizer.nextLine()) {
             throw new EOFException();
         }
-        return line.split(delimiter);
+        long t = hasTime(tokenizer) ? getTime(tokenizer) : 0;
+        int n = Math.min(tokenizer.getCellsCount(), fields.length);
+        for (int i = 0; i < n; i++) {
+            if (updateFieldIds[i] >= 0 && !tokenizer.isEmpty(i)) {
+                update.set(updateFieldIds[i], tokenizer.getDouble(i));
+            }
+        }
+        return t;
+    }
+
+    @Override
+    public Map<String, LogColumn> readColumns(Collection<String> fields) throws IOException, FormatErrorException {
+        final Map<String, LogColumn> columns = new HashMap<String, LogColumn>();
+        for (String field : fields) {
+            columns.put(field, new LogColumn(field));
+        }
+        final String[] plan = new String[this.fields.length];
+        for (int i = 0; i < this.fields.length; i++) {
+            if (i != columnTime && columns.containsKey(this.fields[i])) {
+                plan[i] = this.fields[i];
+            }
+        }
+        List<LogColumn[]> chunks = scanChunks(new LineHandler<LogColumn[]>() {
+            @Override
+            public LogColumn[] createResult() {
+                LogColumn[] chunkColumns = new LogColumn[plan.length];
+                for (int i = 0; i < plan.length; i++) {
+                    if (plan[i] != null) {
+                        chunkColumns[i] = new LogColumn(plan[i]);
+                    }
+                }
+                return chunkColumns;
+            }
+
+            @Override
+            public void processLine(LogColumn[] chunkColumns, CSVTokenizer tokenizer) {
+                long t = hasTime(tokenizer) ? getTime(tokenizer) : 0;
+                int n = Math.min(tokenizer.getCellsCount(), chunkColumns.length);
+                for (int i = 0; i < n; i++) {
+                    if (chunkColumns[i] != null && !tokenizer.isEmpty(i)) {
+                        chunkColumns[i].add(t, tokenizer.getDouble(i));
+                    }
+                }
+            }
+        });
+        for (LogColumn[] chunkColumns : chunks) {
+            for (LogColumn column : chunkColumns) {
+                if (column != null) {
+                    columns.get(column.getName()).addAll(column);
+                }
+            }
+        }
+        seek(0);
+        return columns;
     }
 
     @Override
@@ -127,6 +463,11 @@ public class CSVLogReader implements LogReader {
         return fieldsFormats;
     }
 
+    @Override
+    public Map<String, FieldStatistics> getFieldStatistics() {
+        return fieldStatistics;
+    }
+
     @Override
     public String getFormat() {
         return "CSV";
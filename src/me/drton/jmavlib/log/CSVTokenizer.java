@@ -0,0 +1,275 @@
+package me.drton.jmavlib.log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Buffered tokenizer of CSV file. File is read by blocks using positional reads, so several tokenizers may share
+ * the same channel. Lines are split to cells without creating strings, numbers are parsed directly from bytes.
+ * Lines may be terminated by "\n", "\r" or "\r\n", empty lines are skipped, quoting is not supported.
+ * <p/>
+ * User: ton Date: 18.10.26 Time: 09:40
+ */
+public class CSVTokenizer {
+    private static final Charset charset = Charset.forName("latin1");
+    private static final int BUFFER_SIZE = 65536;
+    // Powers of ten exactly representable by double
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    // Mantissa must be exactly representable by double
+    private static final long MAX_MANTISSA = 1L << 53;
+
+    private final FileChannel channel;
+    private final byte delimiter;
+    private final byte decimalSeparator;
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private long bufferPosition = 0;    // Position of the buffer in the file
+    private int bufferSize = 0;
+    private int pos = 0;
+    private boolean eof = false;
+    private long lineStart = -1;
+    private int[] cellStarts = new int[64];
+    private int[] cellEnds = new int[64];
+    private int cellsCount = 0;
+
+    /**
+     * @param channel          file channel, position of the channel is not used
+     * @param delimiter        cells delimiter
+     * @param decimalSeparator decimal separator accepted in addition to '.'
+     */
+    public CSVTokenizer(FileChannel channel, char delimiter, char decimalSeparator) {
+        this.channel = channel;
+        this.delimiter = (byte) delimiter;
+        this.decimalSeparator = (byte) decimalSeparator;
+    }
+
+    /**
+     * Get position of the next line in the file.
+     *
+     * @return position in the file
+     */
+    public long position() {
+        return bufferPosition + pos;
+    }
+
+    /**
+     * Set position of the next line in the file. Data already in the buffer is reused if possible.
+     *
+     * @param position position in the file
+     */
+    public void position(long position) {
+        if (position >= bufferPosition && position <= bufferPosition + bufferSize) {
+            pos = (int) (position - bufferPosition);
+        } else {
+            bufferPosition = position;
+            bufferSize = 0;
+            pos = 0;
+        }
+        eof = false;
+        cellsCount = 0;
+    }
+
+    /**
+     * Get position of the current line in the file.
+     *
+     * @return position in the file
+     */
+    public long getLineStart() {
+        return lineStart;
+    }
+
+    /**
+     * Read next non-empty line and split it to cells.
+     *
+     * @return false on end of file
+     * @throws IOException on IO error
+     */
+    public boolean nextLine() throws IOException {
+        while (true) {
+            int end = findLineEnd();
+            if (end == pos) {
+                if (end == bufferSize) {
+                    cellsCount = 0;
+                    return false;
+                }
+                pos++;  // Skip empty line
+                continue;
+            }
+            lineStart = bufferPosition + pos;
+            split(pos, end);
+            pos = end < bufferSize ? end + 1 : end;
+            return true;
+        }
+    }
+
+    /**
+     * Skip the rest of the line, used to synchronize on start of line after arbitrary position.
+     *
+     * @throws IOException on IO error
+     */
+    public void skipLine() throws IOException {
+        int end = findLineEnd();
+        pos = end < bufferSize ? end + 1 : end;
+        cellsCount = 0;
+    }
+
+    /**
+     * Find end of line starting at current position.
+     *
+     * @return index of line terminator in the buffer or size of the buffer on end of file
+     */
+    private int findLineEnd() throws IOException {
+        int i = pos;
+        while (true) {
+            if (i == bufferSize) {
+                int n = i - pos;
+                boolean filled = fill();
+                i = pos + n;
+                if (!filled) {
+                    return i;
+                }
+                continue;
+            }
+            byte b = buffer[i];
+            if (b == '\n' || b == '\r') {
+                return i;
+            }
+            i++;
+        }
+    }
+
+    /**
+     * Read more data to the buffer, unprocessed data is moved to the start of the buffer.
+     *
+     * @return false on end of file
+     */
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        if (pos > 0) {
+            System.arraycopy(buffer, pos, buffer, 0, bufferSize - pos);
+            bufferPosition += pos;
+            bufferSize -= pos;
+            pos = 0;
+        }
+        if (bufferSize == buffer.length) {
+            // Line is longer than the buffer
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        int n = channel.read(ByteBuffer.wrap(buffer, bufferSize, buffer.length - bufferSize),
+                bufferPosition + bufferSize);
+        if (n < 0) {
+            eof = true;
+            return false;
+        }
+        bufferSize += n;
+        return true;
+    }
+
+    private void split(int start, int end) {
+        cellsCount = 0;
+        int cellStart = start;
+        for (int i = start; i <= end; i++) {
+            if (i == end || buffer[i] == delimiter) {
+                if (cellsCount == cellStarts.length) {
+                    cellStarts = Arrays.copyOf(cellStarts, cellsCount * 2);
+                    cellEnds = Arrays.copyOf(cellEnds, cellsCount * 2);
+                }
+                cellStarts[cellsCount] = cellStart;
+                cellEnds[cellsCount] = i;
+                cellsCount++;
+                cellStart = i + 1;
+            }
+        }
+    }
+
+    public int getCellsCount() {
+        return cellsCount;
+    }
+
+    public boolean isEmpty(int idx) {
+        return cellStarts[idx] == cellEnds[idx];
+    }
+
+    public String getString(int idx) {
+        return new String(buffer, cellStarts[idx], cellEnds[idx] - cellStarts[idx], charset);
+    }
+
+    /**
+     * Parse cell as decimal number. Numbers with up to 15 significant digits and small exponent are parsed directly
+     * from bytes, other numbers are parsed by {@link Double#parseDouble(String)}, result is the same in both cases.
+     *
+     * @param idx cell index
+     * @return value
+     * @throws NumberFormatException if the cell is not a number
+     */
+    public double getDouble(int idx) {
+        int i = cellStarts[idx];
+        int end = cellEnds[idx];
+        boolean negative = false;
+        if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+            negative = buffer[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int exponent = 0;
+        boolean digits = false;
+        boolean point = false;
+        for (; i < end; i++) {
+            byte c = buffer[i];
+            if (c >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + (c - '0');
+                if (mantissa >= MAX_MANTISSA) {
+                    return parseDouble(idx);
+                }
+                if (point) {
+                    exponent--;
+                }
+                digits = true;
+            } else if ((c == '.' || c == decimalSeparator) && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (!digits) {
+            return parseDouble(idx);
+        }
+        if (i < end && (buffer[i] == 'e' || buffer[i] == 'E')) {
+            i++;
+            boolean expNegative = false;
+            if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+                expNegative = buffer[i] == '-';
+                i++;
+            }
+            int exp = 0;
+            int expStart = i;
+            for (; i < end && i - expStart < 4; i++) {
+                byte c = buffer[i];
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                exp = exp * 10 + (c - '0');
+            }
+            if (i == expStart) {
+                return parseDouble(idx);
+            }
+            exponent += expNegative ? -exp : exp;
+        }
+        if (i != end || exponent < -22 || exponent > 22) {
+            return parseDouble(idx);
+        }
+        // Both mantissa and power of ten are exact, so the result is correctly rounded
+        double v = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+        return negative ? -v : v;
+    }
+
+    private double parseDouble(int idx) {
+        return Double.parseDouble(getString(idx).replace((char) decimalSeparator, '.'));
+    }
+}
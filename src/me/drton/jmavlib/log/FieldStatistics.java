@@ -0,0 +1,339 @@
+package me.drton.jmavlib.log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Running statistics of numeric field: count, min, max, mean and variance (Welford's algorithm) and approximate
+ * quantiles. Quantiles are calculated using logarithmic histogram (DDSketch) with 1% relative accuracy, so statistics
+ * of parts of the log calculated separately can be merged. NaN values are ignored, infinite values are counted
+ * separately and excluded from mean and variance.
+ * <p/>
+ * User: ton Date: 18.10.26 Time: 15:30
+ */
+public class FieldStatistics {
+    private static final double RELATIVE_ACCURACY = 0.01;
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+    // Values with smaller magnitude are counted as zero
+    private static final double MIN_MAGNITUDE = 1e-9;
+    // Number of buckets covering all finite magnitudes, so buckets never have to be collapsed
+    private static final int MAX_BUCKETS = bucketIndex(Double.MAX_VALUE) - bucketIndex(MIN_MAGNITUDE) + 1;
+
+    private long count = 0;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+    private double mean = 0.0;
+    private double m2 = 0.0;
+    private long zeroCount = 0;
+    private long positiveInfinityCount = 0;
+    private long negativeInfinityCount = 0;
+    private final Buckets positive = new Buckets();
+    private final Buckets negative = new Buckets();
+
+    /**
+     * Counts of values by bucket index, bucket i contains magnitudes in (GAMMA^(i-1), GAMMA^i].
+     */
+    private static class Buckets {
+        long[] counts = null;
+        // Bucket index of counts[0]
+        int offset = 0;
+
+        void add(int index, long n) {
+            if (counts == null) {
+                counts = new long[16];
+                offset = index;
+            } else if (index < offset || index >= offset + counts.length) {
+                resize(index);
+            }
+            counts[index - offset] += n;
+        }
+
+        /**
+         * Resize counts to include the index, range of indexes never exceeds MAX_BUCKETS.
+         */
+        private void resize(int index) {
+            int lo = Math.min(offset, index);
+            int hi = Math.max(offset + counts.length, index + 1);
+            int length = Math.max(hi - lo, Math.min(MAX_BUCKETS, counts.length * 2));
+            int newOffset = index < offset ? hi - length : lo;
+            long[] newCounts = new long[length];
+            System.arraycopy(counts, 0, newCounts, offset - newOffset, counts.length);
+            counts = newCounts;
+            offset = newOffset;
+        }
+
+        void merge(Buckets other) {
+            if (other.counts == null) {
+                return;
+            }
+            for (int i = other.counts.length - 1; i >= 0; i--) {
+                if (other.counts[i] != 0) {
+                    add(other.offset + i, other.counts[i]);
+                }
+            }
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            if (counts == null) {
+                out.writeInt(0);
+                return;
+            }
+            out.writeInt(counts.length);
+            out.writeInt(offset);
+            for (long c : counts) {
+                out.writeLong(c);
+            }
+        }
+
+        void read(DataInputStream in) throws IOException {
+            int length = in.readInt();
+            if (length == 0) {
+                counts = null;
+                return;
+            }
+            if (length < 0 || length > MAX_BUCKETS) {
+                throw new IOException("Invalid field statistics");
+            }
+            offset = in.readInt();
+            counts = new long[length];
+            for (int i = 0; i < length; i++) {
+                counts[i] = in.readLong();
+            }
+        }
+    }
+
+    private static int bucketIndex(double magnitude) {
+        return (int) Math.ceil(Math.log(magnitude) / LOG_GAMMA);
+    }
+
+    private static double bucketValue(int index) {
+        return 2.0 * Math.pow(GAMMA, index) / (GAMMA + 1.0);
+    }
+
+    public void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        count++;
+        if (count == 1) {
+            min = value;
+            max = value;
+        } else {
+            if (value < min) {
+                min = value;
+            }
+            if (value > max) {
+                max = value;
+            }
+        }
+        if (value == Double.POSITIVE_INFINITY) {
+            positiveInfinityCount++;
+            return;
+        } else if (value == Double.NEGATIVE_INFINITY) {
+            negativeInfinityCount++;
+            return;
+        }
+        double delta = value - mean;
+        mean += delta / getFiniteCount();
+        m2 += delta * (value - mean);
+        if (value > MIN_MAGNITUDE) {
+            positive.add(bucketIndex(value), 1);
+        } else if (value < -MIN_MAGNITUDE) {
+            negative.add(bucketIndex(-value), 1);
+        } else {
+            zeroCount++;
+        }
+    }
+
+    /**
+     * Merge statistics of other values, e.g. of another chunk of the log.
+     *
+     * @param other statistics to merge
+     */
+    public void merge(FieldStatistics other) {
+        if (other.count == 0) {
+            return;
+        }
+        long finiteCount = getFiniteCount();
+        long otherFiniteCount = other.getFiniteCount();
+        if (finiteCount == 0) {
+            mean = other.mean;
+            m2 = other.m2;
+        } else if (otherFiniteCount > 0) {
+            long n = finiteCount + otherFiniteCount;
+            double delta = other.mean - mean;
+            mean += delta * otherFiniteCount / n;
+            m2 += other.m2 + delta * delta * ((double) finiteCount * otherFiniteCount / n);
+        }
+        if (count == 0) {
+            min = other.min;
+            max = other.max;
+        } else {
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+        count += other.count;
+        zeroCount += other.zeroCount;
+        positiveInfinityCount += other.positiveInfinityCount;
+        negativeInfinityCount += other.negativeInfinityCount;
+        positive.merge(other.positive);
+        negative.merge(other.negative);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Get number of values excluding infinite values.
+     */
+    public long getFiniteCount() {
+        return count - positiveInfinityCount - negativeInfinityCount;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    /**
+     * Get mean of finite values.
+     *
+     * @return mean or NaN if no finite values
+     */
+    public double getMean() {
+        return getFiniteCount() > 0 ? mean : Double.NaN;
+    }
+
+    /**
+     * Get sample variance of finite values.
+     *
+     * @return variance or NaN if less than 2 finite values
+     */
+    public double getVariance() {
+        long n = getFiniteCount();
+        return n > 1 ? m2 / (n - 1) : Double.NaN;
+    }
+
+    public double getStdDev() {
+        return Math.sqrt(getVariance());
+    }
+
+    /**
+     * Get approximate quantile, relative error is within 1% of the value.
+     *
+     * @param q quantile, 0...1, e.g. 0.5 for median
+     * @return value or NaN if no values
+     */
+    public double getQuantile(double q) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        double rank = Math.max(0.0, Math.min(1.0, q)) * (count - 1);
+        if (rank < negativeInfinityCount) {
+            return Double.NEGATIVE_INFINITY;
+        } else if (rank >= count - positiveInfinityCount) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double value = 0.0;
+        long n = negativeInfinityCount;
+        boolean found = false;
+        // Negative values from the largest magnitude
+        if (negative.counts != null) {
+            for (int i = negative.counts.length - 1; i >= 0; i--) {
+                n += negative.counts[i];
+                if (n > rank) {
+                    value = -bucketValue(negative.offset + i);
+                    found = true;
+                    break;
+                }
+            }
+        }
+        if (!found) {
+            n += zeroCount;
+            if (n <= rank && positive.counts != null) {
+                for (int i = 0; i < positive.counts.length; i++) {
+                    n += positive.counts[i];
+                    if (n > rank) {
+                        value = bucketValue(positive.offset + i);
+                        break;
+                    }
+                }
+            }
+        }
+        return Math.max(min, Math.min(max, value));
+    }
+
+    public void write(DataOutputStream out) throws IOException {
+        out.writeLong(count);
+        out.writeDouble(min);
+        out.writeDouble(max);
+        out.writeDouble(mean);
+        out.writeDouble(m2);
+        out.writeLong(zeroCount);
+        out.writeLong(positiveInfinityCount);
+        out.writeLong(negativeInfinityCount);
+        positive.write(out);
+        negative.write(out);
+    }
+
+    public static FieldStatistics read(DataInputStream in) throws IOException {
+        FieldStatistics stats = new FieldStatistics();
+        stats.count = in.readLong();
+        stats.min = in.readDouble();
+        stats.max = in.readDouble();
+        stats.mean = in.readDouble();
+        stats.m2 = in.readDouble();
+        stats.zeroCount = in.readLong();
+        stats.positiveInfinityCount = in.readLong();
+        stats.negativeInfinityCount = in.readLong();
+        stats.positive.read(in);
+        stats.negative.read(in);
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("FieldStatistics: count=%s, min=%s, max=%s, mean=%s, stddev=%s, median=%s", count, min,
+                max, getMean(), getStdDev(), getQuantile(0.5));
+    }
+
+    /**
+     * Self-check: quantiles of values of wide range and of infinite values.
+     */
+    public static void main(String[] args) {
+        FieldStatistics stats = new FieldStatistics();
+        stats.add(1e-8);
+        stats.add(5.0);
+        stats.add(Double.MAX_VALUE);
+        check(stats.getQuantile(0.5), 5.0);
+        check(stats.getQuantile(1.0), Double.MAX_VALUE);
+        FieldStatistics inf = new FieldStatistics();
+        inf.add(Double.NEGATIVE_INFINITY);
+        inf.add(-2.0);
+        inf.add(3.0);
+        inf.add(Double.POSITIVE_INFINITY);
+        inf.add(Double.POSITIVE_INFINITY);
+        stats.merge(inf);
+        check(stats.getQuantile(0.0), Double.NEGATIVE_INFINITY);
+        check(stats.getQuantile(0.25), -2.0);
+        check(stats.getQuantile(0.5), 3.0);
+        check(stats.getQuantile(1.0), Double.POSITIVE_INFINITY);
+        if (stats.getCount() != 8 || stats.getFiniteCount() != 5 || stats.getMin() != Double.NEGATIVE_INFINITY ||
+                Double.isNaN(stats.getMean()) || Double.isInfinite(stats.getMean())) {
+            throw new RuntimeException("Invalid statistics: " + stats);
+        }
+        System.out.println("OK");
+    }
+
+    private static void check(double value, double expected) {
+        if (Double.isInfinite(expected) ? value != expected : Math.abs(value - expected) > Math.abs(expected) * 0.01) {
+            throw new RuntimeException("Expected " + expected + ", got " + value);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package me.drton.jmavlib.log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Index of access points of gzip file: positions where inflating may be started with the state restored from the
+ * index, i.e. position in compressed data with bit precision and the last 32 KB of uncompressed data (window).
+ * Windows are stored compressed. Starts of gzip members are stored separately to continue after the end of member.
+ * <p/>
+ * User: ton Date: 18.10.26 Time: 18:20
+ */
+class GZipIndex {
+    static final int WINDOW_SIZE = 32768;
+
+    long size = 0;
+    final List<AccessPoint> points = new ArrayList<AccessPoint>();
+    final List<AccessPoint> members = new ArrayList<AccessPoint>();
+
+    static class AccessPoint {
+        // Position in uncompressed data
+        final long out;
+        // Position of the byte in compressed data
+        final long in;
+        // Number of bits of the byte already used, 0...7
+        final int bits;
+        // Compressed window, null if empty
+        final byte[] window;
+        final int windowSize;
+
+        AccessPoint(long out, long in, int bits, byte[] window, int windowSize) {
+            this.out = out;
+            this.in = in;
+            this.bits = bits;
+            this.window = window;
+            this.windowSize = windowSize;
+        }
+
+        /**
+         * Create access point with window.
+         *
+         * @param window     circular buffer of uncompressed data
+         * @param windowSize number of valid bytes before position
+         */
+        static AccessPoint create(long out, long in, int bits, byte[] window, int windowSize) {
+            if (windowSize == 0) {
+                return new AccessPoint(out, in, bits, null, 0);
+            }
+            byte[] data = new byte[windowSize];
+            for (int i = 0; i < windowSize; i++) {
+                data[i] = window[(int) ((out - windowSize + i) & (WINDOW_SIZE - 1))];
+            }
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+            try {
+                deflater.setInput(data);
+                deflater.finish();
+                byte[] buf = new byte[windowSize + 64];
+                int n = 0;
+                while (!deflater.finished()) {
+                    if (n == buf.length) {
+                        buf = Arrays.copyOf(buf, buf.length * 2);
+                    }
+                    n += deflater.deflate(buf, n, buf.length - n);
+                }
+                return new AccessPoint(out, in, bits, Arrays.copyOf(buf, n), windowSize);
+            } finally {
+                deflater.end();
+            }
+        }
+
+        /**
+         * Get uncompressed window.
+         *
+         * @return window or null if empty
+         */
+        byte[] getWindow() throws IOException {
+            if (window == null) {
+                return null;
+            }
+            byte[] data = new byte[windowSize];
+            Inflater inflater = new Inflater(true);
+            try {
+                // Dummy byte is required by raw inflate at the end of input
+                byte[] input = Arrays.copyOf(window, window.length + 1);
+                inflater.setInput(input);
+                int n = 0;
+                while (n < windowSize) {
+                    int r = inflater.inflate(data, n, windowSize - n);
+                    if (r == 0 && (inflater.finished() || inflater.needsInput())) {
+                        break;
+                    }
+                    n += r;
+                }
+                if (n != windowSize) {
+                    throw new IOException("Invalid window in gzip index");
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Invalid window in gzip index");
+            } finally {
+                inflater.end();
+            }
+            return data;
+        }
+    }
+
+    /**
+     * Find the last access point before the position.
+     *
+     * @param pos position in uncompressed data
+     * @return access point
+     */
+    AccessPoint find(long pos) {
+        int lo = 0;
+        int hi = points.size() - 1;
+        int res = 0;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (points.get(mid).out <= pos) {
+                res = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return points.get(res);
+    }
+
+    /**
+     * Find member starting at the position.
+     *
+     * @param pos position in uncompressed data
+     * @return member start or null if not found
+     */
+    AccessPoint findMember(long pos) {
+        for (AccessPoint member : members) {
+            if (member.out == pos) {
+                return member;
+            }
+        }
+        return null;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeLong(size);
+        writePoints(out, points);
+        writePoints(out, members);
+    }
+
+    private static void writePoints(DataOutputStream out, List<AccessPoint> points) throws IOException {
+        out.writeInt(points.size());
+        for (AccessPoint point : points) {
+            out.writeLong(point.out);
+            out.writeLong(point.in);
+            out.writeByte(point.bits);
+            out.writeInt(point.windowSize);
+            if (point.window != null) {
+                out.writeInt(point.window.length);
+                out.write(point.window);
+            }
+        }
+    }
+
+    static GZipIndex read(DataInputStream in) throws IOException {
+        GZipIndex index = new GZipIndex();
+        index.size = in.readLong();
+        readPoints(in, index.points);
+        readPoints(in, index.members);
+        if (index.points.isEmpty()) {
+            throw new IOException("Invalid gzip index");
+        }
+        return index;
+    }
+
+    private static void readPoints(DataInputStream in, List<AccessPoint> points) throws IOException {
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            long out = in.readLong();
+            long pos = in.readLong();
+            int bits = in.readByte();
+            int windowSize = in.readInt();
+            byte[] window = null;
+            if (windowSize > 0) {
+                int len = in.readInt();
+                if (len < 0 || windowSize > WINDOW_SIZE) {
+                    throw new IOException("Invalid gzip index");
+                }
+                window = new byte[len];
+                in.readFully(window);
+            }
+            points.add(new AccessPoint(out, pos, bits, window, windowSize));
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package me.drton.jmavlib.log;
+
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Builder of gzip access points index. Gzip file is inflated once by table-driven inflater in pure Java, because
+ * {@link java.util.zip.Inflater} doesn't report positions of deflate blocks, access point with the window is created
+ * at the start of the first block after each span of uncompressed data. Concatenated gzip members are supported.
+ * <p/>
+ * User: ton Date: 18.10.26 Time: 18:40
+ */
+class GZipIndexBuilder {
+    private static final int WINDOW_MASK = GZipIndex.WINDOW_SIZE - 1;
+    private static final int[] LENGTH_BASE = {
+            3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195,
+            227, 258};
+    private static final int[] LENGTH_EXTRA = {
+            0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0};
+    private static final int[] DIST_BASE = {
+            1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257, 385, 513, 769, 1025, 1537, 2049, 3073,
+            4097, 6145, 8193, 12289, 16385, 24577};
+    private static final int[] DIST_EXTRA = {
+            0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13};
+    private static final int[] CODE_LENGTHS_ORDER = {
+            16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15};
+    private static final Huffman FIXED_LITERALS;
+    private static final Huffman FIXED_DISTANCES;
+
+    static {
+        int[] lengths = new int[288];
+        for (int i = 0; i < 288; i++) {
+            lengths[i] = i < 144 ? 8 : i < 256 ? 9 : i < 280 ? 7 : 8;
+        }
+        FIXED_LITERALS = new Huffman(lengths, 288);
+        int[] distLengths = new int[30];
+        for (int i = 0; i < 30; i++) {
+            distLengths[i] = 5;
+        }
+        FIXED_DISTANCES = new Huffman(distLengths, 30);
+    }
+
+    /**
+     * Canonical Huffman code, decoded by lookup of max code length bits.
+     */
+    private static class Huffman {
+        // Symbol << 4 | code length, 0 for invalid code
+        final int[] table;
+        final int maxLength;
+
+        Huffman(int[] lengths, int n) {
+            int max = 0;
+            int[] counts = new int[16];
+            for (int i = 0; i < n; i++) {
+                counts[lengths[i]]++;
+                max = Math.max(max, lengths[i]);
+            }
+            maxLength = max;
+            table = new int[1 << max];
+            counts[0] = 0;
+            int[] next = new int[16];
+            int code = 0;
+            for (int len = 1; len < 16; len++) {
+                code = (code + counts[len - 1]) << 1;
+                next[len] = code;
+            }
+            for (int sym = 0; sym < n; sym++) {
+                int len = lengths[sym];
+                if (len == 0) {
+                    continue;
+                }
+                int c = next[len]++;
+                // Codes are packed starting from MSB, bits are read starting from LSB
+                int r = 0;
+                for (int i = 0; i < len; i++) {
+                    r = (r << 1) | ((c >>> i) & 1);
+                }
+                for (int i = r; i < table.length; i += 1 << len) {
+                    table[i] = (sym << 4) | len;
+                }
+            }
+        }
+    }
+
+    private final InputStream in;
+    private final long span;
+    private final byte[] inBuffer = new byte[65536];
+    private int inPos = 0;
+    private int inLimit = 0;
+    private long bytesRead = 0;
+    private long bitBuffer = 0;
+    private int bitCount = 0;
+    private final byte[] window = new byte[GZipIndex.WINDOW_SIZE];
+    private long out = 0;
+    private long memberStart = 0;
+    private final GZipIndex index = new GZipIndex();
+
+    private GZipIndexBuilder(InputStream in, long span) {
+        this.in = in;
+        this.span = span;
+    }
+
+    /**
+     * Build index of gzip file.
+     *
+     * @param fileName gzip file name
+     * @param span     min distance between access points in uncompressed data
+     * @return index
+     * @throws IOException on IO error or format error
+     */
+    static GZipIndex build(String fileName, long span) throws IOException {
+        InputStream in = new FileInputStream(fileName);
+        try {
+            return new GZipIndexBuilder(in, span).build();
+        } finally {
+            in.close();
+        }
+    }
+
+    private GZipIndex build() throws IOException {
+        long lastPoint = -span;
+        while (readHeader()) {
+            memberStart = out;
+            long pos = bitPosition();
+            GZipIndex.AccessPoint member = new GZipIndex.AccessPoint(out, pos >> 3, 0, null, 0);
+            index.members.add(member);
+            if (out - lastPoint >= span) {
+                index.points.add(member);
+                lastPoint = out;
+            }
+            boolean last;
+            do {
+                if (out - lastPoint >= span) {
+                    pos = bitPosition();
+                    index.points.add(GZipIndex.AccessPoint.create(out, pos >> 3, (int) (pos & 7), window,
+                            (int) Math.min(GZipIndex.WINDOW_SIZE, out - memberStart)));
+                    lastPoint = out;
+                }
+                last = bits(1) == 1;
+                int type = bits(2);
+                if (type == 0) {
+                    inflateStored();
+                } else if (type == 1) {
+                    inflateCodes(FIXED_LITERALS, FIXED_DISTANCES);
+                } else if (type == 2) {
+                    inflateDynamic();
+                } else {
+                    throw new IOException("Invalid deflate block type");
+                }
+            } while (!last);
+            // Trailer: CRC32 and size
+            bits(bitCount & 7);
+            bits(32);
+            bits(32);
+        }
+        if (index.points.isEmpty()) {
+            throw new IOException("Not in gzip format");
+        }
+        index.size = out;
+        return index;
+    }
+
+    /**
+     * Read gzip member header.
+     *
+     * @return false on the end of file
+     */
+    private boolean readHeader() throws IOException {
+        if (bitCount == 0 && !fill()) {
+            return false;
+        }
+        if (bits(8) != 0x1f || bits(8) != 0x8b) {
+            if (index.members.isEmpty()) {
+                throw new IOException("Not in gzip format");
+            }
+            // Garbage after the last member, e.g. zero padding, is ignored like in gzip tool
+            return false;
+        }
+        if (bits(8) != 8) {
+            throw new IOException("Unsupported gzip compression method");
+        }
+        int flags = bits(8);
+        // MTIME, XFL, OS
+        bits(32);
+        bits(16);
+        if ((flags & 4) != 0) {
+            int len = bits(16);
+            for (int i = 0; i < len; i++) {
+                bits(8);
+            }
+        }
+        if ((flags & 8) != 0) {
+            while (bits(8) != 0) {
+                // File name
+            }
+        }
+        if ((flags & 16) != 0) {
+            while (bits(8) != 0) {
+                // Comment
+            }
+        }
+        if ((flags & 2) != 0) {
+            bits(16);
+        }
+        return true;
+    }
+
+    private void inflateStored() throws IOException {
+        bits(bitCount & 7);
+        int len = bits(16);
+        int nlen = bits(16);
+        if (len != (~nlen & 0xffff)) {
+            throw new IOException("Invalid stored block length");
+        }
+        for (int i = 0; i < len; i++) {
+            window[(int) (out++ & WINDOW_MASK)] = (byte) bits(8);
+        }
+    }
+
+    private void inflateDynamic() throws IOException {
+        int nLiterals = bits(5) + 257;
+        int nDistances = bits(5) + 1;
+        int nCodes = bits(4) + 4;
+        int[] lengths = new int[19];
+        for (int i = 0; i < nCodes; i++) {
+            lengths[CODE_LENGTHS_ORDER[i]] = bits(3);
+        }
+        Huffman codeLengths = new Huffman(lengths, 19);
+        lengths = new int[nLiterals + nDistances];
+        int i = 0;
+        while (i < lengths.length) {
+            int sym = decode(codeLengths);
+            if (sym < 16) {
+                lengths[i++] = sym;
+                continue;
+            }
+            int value = 0;
+            int repeat;
+            if (sym == 16) {
+                if (i == 0) {
+                    throw new IOException("Invalid deflate code lengths");
+                }
+                value = lengths[i - 1];
+                repeat = 3 + bits(2);
+            } else if (sym == 17) {
+                repeat = 3 + bits(3);
+            } else {
+                repeat = 11 + bits(7);
+            }
+            if (i + repeat > lengths.length) {
+                throw new IOException("Invalid deflate code lengths");
+            }
+            for (int j = 0; j < repeat; j++) {
+                lengths[i++] = value;
+            }
+        }
+        int[] distLengths = new int[nDistances];
+        System.arraycopy(lengths, nLiterals, distLengths, 0, nDistances);
+        inflateCodes(new Huffman(lengths, nLiterals), new Huffman(distLengths, nDistances));
+    }
+
+    private void inflateCodes(Huffman literals, Huffman distances) throws IOException {
+        while (true) {
+            int sym = decode(literals);
+            if (sym < 256) {
+                window[(int) (out++ & WINDOW_MASK)] = (byte) sym;
+            } else if (sym == 256) {
+                return;
+            } else {
+                sym -= 257;
+                if (sym >= LENGTH_BASE.length) {
+                    throw new IOException("Invalid deflate length code");
+                }
+                int len = LENGTH_BASE[sym] + bits(LENGTH_EXTRA[sym]);
+                int distSym = decode(distances);
+                if (distSym >= DIST_BASE.length) {
+                    throw new IOException("Invalid deflate distance code");
+                }
+                int dist = DIST_BASE[distSym] + bits(DIST_EXTRA[distSym]);
+                if (dist > out - memberStart) {
+                    throw new IOException("Invalid deflate distance");
+                }
+                for (int i = 0; i < len; i++) {
+                    window[(int) (out & WINDOW_MASK)] = window[(int) ((out - dist) & WINDOW_MASK)];
+                    out++;
+                }
+            }
+        }
+    }
+
+    private int decode(Huffman huffman) throws IOException {
+        if (bitCount < huffman.maxLength) {
+            refill();
+        }
+        int entry = huffman.table[(int) (bitBuffer & ((1 << huffman.maxLength) - 1))];
+        int len = entry & 15;
+        if (len == 0) {
+            throw new IOException("Invalid deflate code");
+        }
+        consume(len);
+        return entry >>> 4;
+    }
+
+    private int bits(int n) throws IOException {
+        if (bitCount < n) {
+            refill();
+        }
+        int v = (int) (bitBuffer & ((1L << n) - 1));
+        consume(n);
+        return v;
+    }
+
+    private void consume(int n) throws EOFException {
+        if (n > bitCount) {
+            throw new EOFException("Unexpected end of gzip file");
+        }
+        bitBuffer >>>= n;
+        bitCount -= n;
+    }
+
+    /**
+     * Load input bytes to bit buffer, at the end of file less bits may be available.
+     */
+    private void refill() throws IOException {
+        while (bitCount <= 56) {
+            if (inPos == inLimit && !fill()) {
+                return;
+            }
+            bitBuffer |= (long) (inBuffer[inPos++] & 0xff) << bitCount;
+            bitCount += 8;
+            bytesRead++;
+        }
+    }
+
+    private boolean fill() throws IOException {
+        if (inPos < inLimit) {
+            return true;
+        }
+        int n = in.read(inBuffer);
+        if (n <= 0) {
+            return false;
+        }
+        inPos = 0;
+        inLimit = n;
+        return true;
+    }
+
+    /**
+     * Get position of the next bit in compressed data.
+     */
+    private long bitPosition() {
+        return bytesRead * 8 - bitCount;
+    }
+}
@@ -0,0 +1,504 @@
+package me.drton.jmavlib.log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Read-only seekable channel of uncompressed data of gzip file. Index of access points is built on the first open
+ * (see {@link GZipIndexBuilder}) and optionally stored in the index file, seek restarts inflating from the nearest
+ * access point before the position: inflater is primed with the window and with the bits of the first byte not yet
+ * consumed (see {@link #prime(int, int)}). Two last inflated blocks are cached, so short seeks backwards are cheap.
+ * <p/>
+ * User: ton Date: 18.10.26 Time: 19:10
+ */
+public class GZipIndexedChannel implements SeekableByteChannel {
+    // Distance between access points in uncompressed data
+    private static final long ACCESS_POINT_SPAN = 1024 * 1024;
+    private static final int BLOCK_SIZE = 65536;
+    private static final int INPUT_SIZE = 65536;
+
+    private final String fileName;
+    private final GZipIndex index;
+    private FileChannel file;
+    private final Inflater inflater = new Inflater(true);
+    private long position = 0;
+    // Position of the next byte of inflater output
+    private long inflaterPosition = -1;
+    // Position of the next input byte in compressed file
+    private long inputPosition;
+    // Input to feed before the file data, null if none
+    private byte[] primeInput;
+    private final ByteBuffer input = ByteBuffer.allocate(INPUT_SIZE);
+    private byte[] block = new byte[BLOCK_SIZE];
+    private long blockStart = 0;
+    private int blockLength = 0;
+    private byte[] prevBlock = new byte[BLOCK_SIZE];
+    private long prevBlockStart = 0;
+    private int prevBlockLength = 0;
+
+    /**
+     * Open gzip file, index is built by inflating of the whole file.
+     *
+     * @param fileName gzip file name
+     * @throws IOException on IO error or format error
+     */
+    public GZipIndexedChannel(String fileName) throws IOException {
+        this(fileName, GZipIndexBuilder.build(fileName, ACCESS_POINT_SPAN));
+    }
+
+    /**
+     * Open gzip file using index file, index is built and written if the index file doesn't exist or outdated.
+     *
+     * @param fileName      gzip file name
+     * @param indexFileName index file name
+     * @throws IOException on IO error or format error
+     */
+    public GZipIndexedChannel(String fileName, String indexFileName) throws IOException {
+        this(fileName, loadIndex(fileName, indexFileName));
+    }
+
+    private GZipIndexedChannel(String fileName, GZipIndex index) throws IOException {
+        this.fileName = fileName;
+        this.index = index;
+        this.file = new RandomAccessFile(fileName, "r").getChannel();
+    }
+
+    private static GZipIndex loadIndex(String fileName, String indexFileName) throws IOException {
+        LogIndexFile indexFile = new LogIndexFile(fileName, indexFileName);
+        DataInputStream in = indexFile.openForRead("GZip");
+        if (in != null) {
+            try {
+                return GZipIndex.read(in);
+            } catch (IOException ignored) {
+                // Corrupted index, rebuild it
+            } finally {
+                in.close();
+            }
+        }
+        GZipIndex index = GZipIndexBuilder.build(fileName, ACCESS_POINT_SPAN);
+        try {
+            DataOutputStream out = indexFile.openForWrite("GZip");
+            try {
+                index.write(out);
+            } catch (IOException e) {
+                indexFile.discard(out);
+                throw e;
+            }
+            indexFile.commit(out);
+        } catch (IOException ignored) {
+            // Index file is optional, e.g. directory may be read-only
+        }
+        return index;
+    }
+
+    /**
+     * Open file as seekable channel, gzip file is detected by magic bytes.
+     *
+     * @param fileName      file name
+     * @param indexFileName index file name for gzip file or null to build index in memory only
+     * @return file channel or gzip channel for gzip file
+     * @throws IOException on IO error
+     */
+    public static SeekableByteChannel open(String fileName, String indexFileName) throws IOException {
+        FileChannel channel = new RandomAccessFile(fileName, "r").getChannel();
+        boolean gzip;
+        try {
+            ByteBuffer magic = ByteBuffer.allocate(2);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+                // Read magic bytes
+            }
+            gzip = !magic.hasRemaining() && (magic.get(0) & 0xff) == 0x1f && (magic.get(1) & 0xff) == 0x8b;
+            channel.position(0);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        if (!gzip) {
+            return channel;
+        }
+        channel.close();
+        return indexFileName == null ? new GZipIndexedChannel(fileName) :
+                new GZipIndexedChannel(fileName, indexFileName);
+    }
+
+    /**
+     * Open another channel of the same file, e.g. for parallel reading, index of gzip channel is shared.
+     *
+     * @param channel  channel returned by {@link #open}
+     * @param fileName file name
+     * @return new channel
+     * @throws IOException on IO error
+     */
+    public static SeekableByteChannel reopen(SeekableByteChannel channel, String fileName) throws IOException {
+        if (channel instanceof GZipIndexedChannel) {
+            return ((GZipIndexedChannel) channel).duplicate();
+        }
+        return new RandomAccessFile(fileName, "r").getChannel();
+    }
+
+    /**
+     * Open another channel of the same file sharing the index.
+     *
+     * @return new channel positioned at the start
+     * @throws IOException on IO error
+     */
+    public GZipIndexedChannel duplicate() throws IOException {
+        return new GZipIndexedChannel(fileName, index);
+    }
+
+    /**
+     * Get number of access points in the index.
+     */
+    public int getAccessPointsCount() {
+        return index.points.size();
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        int n = read(dst, position);
+        if (n > 0) {
+            position += n;
+        }
+        return n;
+    }
+
+    /**
+     * Read from specified position, position of the channel is not changed.
+     *
+     * @param dst buffer
+     * @param pos position in uncompressed data
+     * @return number of bytes read or -1 if the position is at the end
+     * @throws IOException on IO error
+     */
+    public int read(ByteBuffer dst, long pos) throws IOException {
+        checkOpen();
+        if (pos >= index.size) {
+            return -1;
+        }
+        int n = 0;
+        while (dst.hasRemaining() && pos < index.size) {
+            int len;
+            if (pos >= blockStart && pos < blockStart + blockLength) {
+                len = Math.min(dst.remaining(), (int) (blockStart + blockLength - pos));
+                dst.put(block, (int) (pos - blockStart), len);
+            } else if (pos >= prevBlockStart && pos < prevBlockStart + prevBlockLength) {
+                len = Math.min(dst.remaining(), (int) (prevBlockStart + prevBlockLength - pos));
+                dst.put(prevBlock, (int) (pos - prevBlockStart), len);
+            } else {
+                inflateBlock(pos);
+                continue;
+            }
+            pos += len;
+            n += len;
+        }
+        return n;
+    }
+
+    /**
+     * Inflate the block containing the position.
+     */
+    private void inflateBlock(long pos) throws IOException {
+        GZipIndex.AccessPoint point = index.find(pos);
+        if (inflaterPosition < 0 || pos < inflaterPosition || point.out > inflaterPosition) {
+            // Inflating forward from current position would be longer than from the access point
+            start(point);
+        }
+        do {
+            byte[] b = prevBlock;
+            prevBlock = block;
+            prevBlockStart = blockStart;
+            prevBlockLength = blockLength;
+            block = b;
+            blockStart = inflaterPosition;
+            blockLength = inflate(block);
+            inflaterPosition += blockLength;
+            if (blockLength == 0) {
+                throw new IOException("Unexpected end of gzip file");
+            }
+        } while (pos >= inflaterPosition);
+    }
+
+    private void start(GZipIndex.AccessPoint point) throws IOException {
+        inflater.reset();
+        byte[] window = point.getWindow();
+        if (window != null) {
+            inflater.setDictionary(window);
+        }
+        inflaterPosition = point.out;
+        inputPosition = point.in;
+        primeInput = null;
+        if (point.bits != 0) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            if (file.read(b, inputPosition) != 1) {
+                throw new IOException("Unexpected end of gzip file");
+            }
+            primeInput = prime(point.bits, b.get(0) & 0xff);
+            inputPosition++;
+        }
+    }
+
+    /**
+     * Emulate zlib inflatePrime: build input starting with empty deflate blocks followed by not yet consumed bits of
+     * the first byte of the access point. Length of empty blocks is congruent to the number of consumed bits modulo 8,
+     * so the rest of the file is fed as is and keeps its byte alignment required by stored blocks.
+     *
+     * @param bits      number of bits of the first byte already consumed, 1...7
+     * @param firstByte the first byte
+     * @return input to feed before the file data
+     */
+    static byte[] prime(int bits, int firstByte) {
+        BitWriter writer = new BitWriter();
+        int fixedBlocks = bits;
+        if ((bits & 1) != 0) {
+            // Dynamic block is 93 bits, 5 modulo 8
+            writer.write(0, 1);
+            writer.write(2, 2);
+            // HLIT = 257, HDIST = 1, HCLEN = 19
+            writer.write(0, 5);
+            writer.write(0, 5);
+            writer.write(15, 4);
+            // Code length codes in order 16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15:
+            // 18 and 1 have length 1, so 1 is coded as 0 and 18 as 1
+            for (int i = 0; i < 19; i++) {
+                writer.write(i == 2 || i == 17 ? 1 : 0, 3);
+            }
+            // 256 zero lengths of literals (138 + 118), length 1 of end of block and of the only distance code
+            writer.write(1, 1);
+            writer.write(138 - 11, 7);
+            writer.write(1, 1);
+            writer.write(118 - 11, 7);
+            writer.write(0, 1);
+            writer.write(0, 1);
+            // End of block
+            writer.write(0, 1);
+            fixedBlocks = (bits - 5) & 7;
+        }
+        // Fixed block is 10 bits, 2 modulo 8
+        for (int i = 0; i < fixedBlocks / 2; i++) {
+            writer.write(0, 1);
+            writer.write(1, 2);
+            writer.write(0, 7);
+        }
+        writer.write(firstByte >>> bits, 8 - bits);
+        return writer.toByteArray();
+    }
+
+    /**
+     * Writer of bits starting from LSB of each byte, as in deflate stream.
+     */
+    private static class BitWriter {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private int buffer = 0;
+        private int count = 0;
+
+        void write(int value, int n) {
+            buffer |= (value & ((1 << n) - 1)) << count;
+            count += n;
+            while (count >= 8) {
+                out.write(buffer & 0xff);
+                buffer >>>= 8;
+                count -= 8;
+            }
+        }
+
+        byte[] toByteArray() {
+            if (count != 0) {
+                throw new IllegalStateException("Not aligned");
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Inflate block, continue with the next member at the end of member.
+     *
+     * @return number of bytes inflated, 0 at the end of file
+     */
+    private int inflate(byte[] buf) throws IOException {
+        int n = 0;
+        try {
+            while (n < buf.length) {
+                int r = inflater.inflate(buf, n, buf.length - n);
+                n += r;
+                if (r > 0) {
+                    continue;
+                }
+                if (inflater.finished()) {
+                    GZipIndex.AccessPoint member = index.findMember(inflaterPosition + n);
+                    if (member == null) {
+                        break;
+                    }
+                    start(member);
+                    // Position is advanced by the caller after the whole block
+                    inflaterPosition -= n;
+                } else if (inflater.needsDictionary()) {
+                    throw new IOException("Invalid gzip index");
+                } else if (inflater.needsInput()) {
+                    if (!feed()) {
+                        break;
+                    }
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid gzip data: " + e.getMessage());
+        }
+        return n;
+    }
+
+    /**
+     * Feed the next part of compressed data to inflater.
+     *
+     * @return false at the end of file
+     */
+    private boolean feed() throws IOException {
+        if (primeInput != null) {
+            inflater.setInput(primeInput);
+            primeInput = null;
+            return true;
+        }
+        input.clear();
+        int r = file.read(input, inputPosition);
+        if (r <= 0) {
+            return false;
+        }
+        inputPosition += r;
+        inflater.setInput(input.array(), 0, r);
+        return true;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long position() throws IOException {
+        checkOpen();
+        return position;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        checkOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position");
+        }
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        checkOpen();
+        return index.size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) throws IOException {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return file != null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (file != null) {
+            file.close();
+            file = null;
+            inflater.end();
+        }
+    }
+
+    private void checkOpen() throws ClosedChannelException {
+        if (file == null) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    /**
+     * Self-check: stored block after access point at any bit offset, random reads of mixed stored/Huffman data.
+     */
+    public static void main(String[] args) throws Exception {
+        Random random = new Random(1);
+        byte[] stored = new byte[100];
+        random.nextBytes(stored);
+        for (int bits = 1; bits < 8; bits++) {
+            BitWriter writer = new BitWriter();
+            writer.write(0, bits);
+            writer.write(1, 1);
+            writer.write(0, 2);
+            writer.write(0, 8 - (bits + 3) % 8 & 7);
+            writer.write(stored.length, 16);
+            writer.write(~stored.length, 16);
+            for (byte b : stored) {
+                writer.write(b, 8);
+            }
+            byte[] deflated = writer.toByteArray();
+            Inflater inflater = new Inflater(true);
+            inflater.setInput(prime(bits, deflated[0] & 0xff));
+            byte[] res = new byte[stored.length];
+            int n = inflater.inflate(res);
+            inflater.setInput(Arrays.copyOfRange(deflated, 1, deflated.length + 1));
+            n += inflater.inflate(res, n, res.length - n);
+            inflater.end();
+            if (n != res.length || !Arrays.equals(res, stored)) {
+                throw new RuntimeException("Stored block mismatch, bits: " + bits);
+            }
+        }
+
+        // Compressible text and random chunks, random chunks are written as stored blocks
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        byte[] text = "Lorem ipsum dolor sit amet, consectetur adipiscing elit. ".getBytes("US-ASCII");
+        while (data.size() < 8 * ACCESS_POINT_SPAN) {
+            int len = 1000 + random.nextInt(200000);
+            if (random.nextBoolean()) {
+                for (int i = 0; i < len; i++) {
+                    data.write(random.nextInt(10) == 0 ? random.nextInt(128) : text[i % text.length]);
+                }
+            } else {
+                byte[] chunk = new byte[len];
+                random.nextBytes(chunk);
+                data.write(chunk);
+            }
+        }
+        byte[] raw = data.toByteArray();
+        File file = File.createTempFile("jmavlib", ".gz");
+        file.deleteOnExit();
+        GZIPOutputStream out = new GZIPOutputStream(new FileOutputStream(file));
+        out.write(raw);
+        out.close();
+        GZipIndexedChannel channel = new GZipIndexedChannel(file.getPath());
+        try {
+            for (int i = 0; i < 300; i++) {
+                long pos = (long) (random.nextDouble() * raw.length);
+                ByteBuffer buf = ByteBuffer.allocate(1 + random.nextInt(100000));
+                int n = channel.position(pos).read(buf);
+                byte[] expected = Arrays.copyOfRange(raw, (int) pos, (int) Math.min(pos + buf.capacity(), raw.length));
+                if (n != expected.length || !Arrays.equals(Arrays.copyOf(buf.array(), n), expected)) {
+                    throw new RuntimeException("Data mismatch at position " + pos);
+                }
+            }
+        } finally {
+            channel.close();
+        }
+        System.out.println("OK, access points: " + channel.getAccessPointsCount());
+    }
+}
@@ -0,0 +1,343 @@
+package me.drton.jmavlib.log;
+
+import me.drton.jmavlib.mavlink.MAVLinkSchema;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Batch processing of many logs: reader is selected by file extension, logs are processed in parallel on
+ * work-stealing pool and summaries are returned in order of files. Logs are admitted to processing only while
+ * estimated memory usage of logs in progress fits the memory budget, so large logs don't exhaust the heap.
+ * <p/>
+ * User: ton Date: 18.10.26 Time: 15:50
+ */
+public class LogBatchProcessor {
+    // Memory estimate of log: fixed overhead plus part of the file size
+    private static final long LOG_MEMORY_OVERHEAD = 4 * 1024 * 1024;
+    private static final int LOG_MEMORY_DIVIDER = 4;
+    private static final long MEMORY_UNIT = 1024;
+
+    private final List<File> files = new ArrayList<File>();
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private long memoryBudget = Runtime.getRuntime().maxMemory() / 2;
+    private MAVLinkSchema schema = null;
+    private LogReaderOptions options = new LogReaderOptions();
+    private boolean fieldStatistics = false;
+    private long elapsedNanoseconds = 0;
+    private long processedBytes = 0;
+    private int processedLogs = 0;
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Set memory budget for logs processed at the same time, half of max heap size by default.
+     *
+     * @param memoryBudget memory budget in bytes
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Set MAVLink schema, MAVLink logs are reported as errors if schema is not set.
+     *
+     * @param schema MAVLink schema
+     */
+    public void setSchema(MAVLinkSchema schema) {
+        this.schema = schema;
+    }
+
+    public void setOptions(LogReaderOptions options) {
+        this.options = options;
+    }
+
+    /**
+     * Calculate statistics of all numeric fields. Statistics are calculated by readers on scan of logs, logs are read
+     * again only if the reader doesn't support field statistics.
+     *
+     * @param fieldStatistics true to calculate field statistics
+     */
+    public void setFieldStatistics(boolean fieldStatistics) {
+        this.fieldStatistics = fieldStatistics;
+    }
+
+    public void addFile(File file) {
+        files.add(file);
+    }
+
+    /**
+     * Add all supported logs in directory and its subdirectories.
+     *
+     * @param dir directory
+     */
+    public void addDirectory(File dir) {
+        File[] dirFiles = dir.listFiles();
+        if (dirFiles == null) {
+            return;
+        }
+        Arrays.sort(dirFiles);
+        for (File file : dirFiles) {
+            if (file.isDirectory()) {
+                addDirectory(file);
+            } else if (getFormat(file) != null) {
+                files.add(file);
+            }
+        }
+    }
+
+    /**
+     * Get format of log by file extension, gzip-compressed logs (".gz") are supported for binary formats.
+     *
+     * @param file log file
+     * @return format as returned by {@link LogReader#getFormat()} or null if not supported
+     */
+    protected String getFormat(File file) {
+        String name = file.getName().toLowerCase();
+        boolean gzip = name.endsWith(".gz");
+        if (gzip) {
+            name = name.substring(0, name.length() - 3);
+        }
+        if (name.endsWith(".bin") || name.endsWith(".px4log")) {
+            return "PX4";
+        } else if (name.endsWith(".tlog") || name.endsWith(".mav") || name.endsWith(".mavlink")) {
+            return "MAVLink";
+        } else if (name.endsWith(".csv") && !gzip) {
+            return "CSV";
+        }
+        return null;
+    }
+
+    /**
+     * Open reader for the log, override to support other formats.
+     *
+     * @param file    log file
+     * @param options options of readers
+     * @return reader
+     * @throws IOException          on IO error
+     * @throws FormatErrorException if format is not supported or log is corrupted
+     */
+    protected LogReader openReader(File file, LogReaderOptions options) throws IOException, FormatErrorException {
+        String format = getFormat(file);
+        if ("PX4".equals(format)) {
+            return new PX4LogReader(file.getPath(), options);
+        } else if ("MAVLink".equals(format)) {
+            if (schema == null) {
+                throw new FormatErrorException("MAVLink schema not set");
+            }
+            return new MAVLinkLogReader(file.getPath(), schema, options);
+        } else if ("CSV".equals(format)) {
+            return new CSVLogReader(file.getPath(), options);
+        }
+        throw new FormatErrorException("Unsupported log format: " + file);
+    }
+
+    /**
+     * Process all added logs. Errors of individual logs are reported in summaries.
+     *
+     * @return summaries in order of files
+     * @throws InterruptedException if interrupted while waiting for memory budget or results
+     */
+    public List<LogSummary> process() throws InterruptedException {
+        long startTime = System.nanoTime();
+        // Options set by user may be shared, so don't modify them
+        final LogReaderOptions readerOptions = new LogReaderOptions(options);
+        if (fieldStatistics) {
+            readerOptions.setFieldStatistics(true);
+        }
+        final int budgetUnits = (int) Math.min(Integer.MAX_VALUE, Math.max(1, memoryBudget / MEMORY_UNIT));
+        final Semaphore memory = new Semaphore(budgetUnits);
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+        List<LogSummary> summaries = new ArrayList<LogSummary>(files.size());
+        try {
+            List<Future<LogSummary>> futures = new ArrayList<Future<LogSummary>>(files.size());
+            for (final File file : files) {
+                // Too large logs use whole budget and are processed alone
+                final int units = (int) Math.min(budgetUnits, estimateMemory(file) / MEMORY_UNIT + 1);
+                memory.acquire(units);
+                try {
+                    futures.add(pool.submit(new Callable<LogSummary>() {
+                        @Override
+                        public LogSummary call() {
+                            try {
+                                return processLog(file, readerOptions);
+                            } finally {
+                                memory.release(units);
+                            }
+                        }
+                    }));
+                } catch (RuntimeException e) {
+                    memory.release(units);
+                    throw e;
+                }
+            }
+            for (Future<LogSummary> future : futures) {
+                try {
+                    summaries.add(future.get());
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        elapsedNanoseconds = System.nanoTime() - startTime;
+        processedLogs = summaries.size();
+        processedBytes = 0;
+        for (LogSummary summary : summaries) {
+            processedBytes += summary.fileSize;
+        }
+        return summaries;
+    }
+
+    /**
+     * Estimate memory used while processing the log.
+     *
+     * @param file log file
+     * @return memory in bytes
+     */
+    protected long estimateMemory(File file) {
+        return LOG_MEMORY_OVERHEAD + file.length() / LOG_MEMORY_DIVIDER;
+    }
+
+    private LogSummary processLog(File file, LogReaderOptions readerOptions) {
+        long startTime = System.nanoTime();
+        LogSummary summary = new LogSummary(file.getPath(), file.length());
+        try {
+            LogReader reader = openReader(file, readerOptions);
+            try {
+                summary.format = reader.getFormat();
+                summary.startMicroseconds = reader.getStartMicroseconds();
+                summary.sizeMicroseconds = reader.getSizeMicroseconds();
+                summary.sizeUpdates = reader.getSizeUpdates();
+                summary.version = reader.getVersion();
+                summary.parameters = reader.getParameters();
+                if (fieldStatistics) {
+                    summary.fieldStatistics = AbstractLogReader.getFieldStatistics(reader);
+                    if (summary.fieldStatistics == null) {
+                        summary.fieldStatistics = calculateFieldStatistics(reader);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (Exception e) {
+            summary.error = e;
+        }
+        summary.processingNanoseconds = System.nanoTime() - startTime;
+        return summary;
+    }
+
+    private static Map<String, FieldStatistics> calculateFieldStatistics(LogReader reader)
+            throws IOException, FormatErrorException {
+        List<String> fields = new ArrayList<String>(reader.getFields().keySet());
+        LogUpdate update = new LogUpdate(fields);
+        FieldStatistics[] stats = new FieldStatistics[fields.size()];
+        for (int i = 0; i < stats.length; i++) {
+            stats[i] = new FieldStatistics();
+        }
+        reader.seek(0);
+        while (true) {
+            try {
+                AbstractLogReader.readUpdate(reader, update);
+            } catch (EOFException e) {
+                break;
+            }
+            for (int id = update.nextChanged(0); id >= 0; id = update.nextChanged(id + 1)) {
+                stats[id].add(update.getValue(id));
+            }
+        }
+        Map<String, FieldStatistics> result = new HashMap<String, FieldStatistics>();
+        for (int i = 0; i < stats.length; i++) {
+            if (stats[i].getCount() > 0) {
+                result.put(fields.get(i), stats[i]);
+            }
+        }
+        return result;
+    }
+
+    public long getElapsedNanoseconds() {
+        return elapsedNanoseconds;
+    }
+
+    /**
+     * Get throughput of the last {@link #process()} call.
+     *
+     * @return logs per second
+     */
+    public double getLogsPerSecond() {
+        return elapsedNanoseconds > 0 ? processedLogs * 1e9 / elapsedNanoseconds : 0.0;
+    }
+
+    /**
+     * Get throughput of the last {@link #process()} call.
+     *
+     * @return megabytes of logs per second
+     */
+    public double getMegabytesPerSecond() {
+        return elapsedNanoseconds > 0 ? processedBytes / (1024.0 * 1024.0) * 1e9 / elapsedNanoseconds : 0.0;
+    }
+
+    /**
+     * Write summaries as tab-separated table, one log per line. Field statistics, if calculated, are written after it
+     * as another table, one field per line.
+     *
+     * @param out       output stream
+     * @param summaries summaries returned by {@link #process()}
+     */
+    public static void writeSummaries(PrintStream out, List<LogSummary> summaries) {
+        out.println("file\tsize\tformat\tstart\tduration\tupdates\tversion\tparameters\terror");
+        for (LogSummary summary : summaries) {
+            out.println(String.format("%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s", summary.fileName, summary.fileSize,
+                    summary.format, summary.startMicroseconds, summary.sizeMicroseconds, summary.sizeUpdates,
+                    summary.version == null ? "" : new TreeMap<String, Object>(summary.version),
+                    summary.parameters == null ? "" : summary.parameters.size(),
+                    summary.error == null ? "" : summary.error));
+        }
+        boolean header = false;
+        for (LogSummary summary : summaries) {
+            if (summary.fieldStatistics == null) {
+                continue;
+            }
+            if (!header) {
+                out.println();
+                out.println("file\tfield\tcount\tmin\tmax\tmean\tstddev\tmedian");
+                header = true;
+            }
+            for (Map.Entry<String, FieldStatistics> entry :
+                    new TreeMap<String, FieldStatistics>(summary.fieldStatistics).entrySet()) {
+                FieldStatistics stats = entry.getValue();
+                out.println(String.format("%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s", summary.fileName, entry.getKey(),
+                        stats.getCount(), stats.getMin(), stats.getMax(), stats.getMean(), stats.getStdDev(),
+                        stats.getQuantile(0.5)));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        LogBatchProcessor processor = new LogBatchProcessor();
+        processor.addDirectory(new File(args.length > 0 ? args[0] : "."));
+        if (args.length > 1) {
+            processor.setSchema(new MAVLinkSchema(args[1]));
+        }
+        List<LogSummary> summaries = processor.process();
+        writeSummaries(System.out, summaries);
+        System.out.println(String.format("%s logs, %.1f logs/s, %.1f MB/s", summaries.size(),
+                processor.getLogsPerSecond(), processor.getMegabytesPerSecond()));
+    }
+}
@@ -0,0 +1,103 @@
+package me.drton.jmavlib.log;
+
+import java.util.Arrays;
+
+/**
+ * Time series of one field: timestamps and values stored in primitive arrays.
+ * <p/>
+ * User: ton Date: 17.10.26 Time: 23:10
+ */
+public class LogColumn {
+    private final String name;
+    private long[] times;
+    private double[] values;
+    private int size = 0;
+
+    public LogColumn(String name) {
+        this(name, 1024);
+    }
+
+    public LogColumn(String name, int capacity) {
+        this.name = name;
+        this.times = new long[Math.max(capacity, 1)];
+        this.values = new double[Math.max(capacity, 1)];
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void add(long time, double value) {
+        if (size == times.length) {
+            times = Arrays.copyOf(times, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        times[size] = time;
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * Append all points of other column.
+     *
+     * @param column column to append
+     */
+    void addAll(LogColumn column) {
+        if (size + column.size > times.length) {
+            int capacity = Math.max(times.length * 2, size + column.size);
+            times = Arrays.copyOf(times, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        System.arraycopy(column.times, 0, times, size, column.size);
+        System.arraycopy(column.values, 0, values, size, column.size);
+        size += column.size;
+    }
+
+    public long getTime(int idx) {
+        return times[idx];
+    }
+
+    public double getValue(int idx) {
+        return values[idx];
+    }
+
+    void setTime(int idx, long time) {
+        times[idx] = time;
+    }
+
+    /**
+     * Get timestamps, array is trimmed to the size of the column.
+     *
+     * @return timestamps in us
+     */
+    public long[] getTimes() {
+        trim();
+        return times;
+    }
+
+    /**
+     * Get values, array is trimmed to the size of the column.
+     *
+     * @return values
+     */
+    public double[] getValues() {
+        trim();
+        return values;
+    }
+
+    private void trim() {
+        if (times.length != size) {
+            times = Arrays.copyOf(times, size);
+            values = Arrays.copyOf(values, size);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LogColumn: name=%s, size=%s", name, size);
+    }
+}
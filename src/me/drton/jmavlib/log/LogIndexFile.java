@@ -0,0 +1,285 @@
+package me.drton.jmavlib.log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Sidecar index file of a log ("log.bin" -> "log.bin.idx") caching results of full log scan: statistics, fields,
+ * parameters and time index. Index is validated by log file size, modification time and hash of the head and the tail
+ * of the log, body of the index is written and read by the reader.
+ * <p/>
+ * User: ton Date: 17.10.26 Time: 20:10
+ */
+public class LogIndexFile {
+    private static final int MAGIC = 0x4C494458;    // "LIDX"
+    private static final int VERSION = 2;
+    private static final int HASH_BLOCK_SIZE = 64 * 1024;
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_INTEGER = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_FLOAT = 4;
+    private static final byte TYPE_DOUBLE = 5;
+    private static final byte TYPE_BOOLEAN = 6;
+
+    private final File logFile;
+    private final File indexFile;
+    private File tmpFile = null;
+
+    public LogIndexFile(String logFileName) {
+        this(logFileName, logFileName + ".idx");
+    }
+
+    public LogIndexFile(String logFileName, String indexFileName) {
+        this.logFile = new File(logFileName);
+        this.indexFile = new File(indexFileName);
+    }
+
+    /**
+     * Open index for reading.
+     *
+     * @param format log format, index written for another format is ignored
+     * @return stream positioned at the body of the index or null if index doesn't exist or outdated
+     * @throws IOException on IO error
+     */
+    public DataInputStream openForRead(String format) throws IOException {
+        if (!indexFile.isFile()) {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), 65536));
+        try {
+            if (in.readInt() == MAGIC && in.readInt() == VERSION && format.equals(in.readUTF()) &&
+                    in.readLong() == logFile.length() && in.readLong() == logFile.lastModified() &&
+                    in.readLong() == calculateHash()) {
+                return in;
+            }
+        } catch (IOException ignored) {
+            // Corrupted index
+        }
+        in.close();
+        return null;
+    }
+
+    /**
+     * Open index for writing, index is written to temporary file and replaces old index on {@link #commit}.
+     *
+     * @param format log format
+     * @return stream positioned at the body of the index
+     * @throws IOException on IO error
+     */
+    public DataOutputStream openForWrite(String format) throws IOException {
+        // Unique name, so concurrent processes indexing the same log don't write to the same file
+        tmpFile = File.createTempFile("." + indexFile.getName() + "-", ".tmp",
+                indexFile.getAbsoluteFile().getParentFile());
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 65536));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(format);
+            out.writeLong(logFile.length());
+            out.writeLong(logFile.lastModified());
+            out.writeLong(calculateHash());
+        } catch (IOException e) {
+            out.close();
+            tmpFile.delete();
+            throw e;
+        }
+        return out;
+    }
+
+    /**
+     * Close the stream opened by {@link #openForWrite} and replace old index.
+     *
+     * @param out stream
+     * @throws IOException on IO error
+     */
+    public void commit(DataOutputStream out) throws IOException {
+        out.close();
+        if (!tmpFile.renameTo(indexFile)) {
+            indexFile.delete();
+            if (!tmpFile.renameTo(indexFile)) {
+                tmpFile.delete();
+                throw new IOException("Can't write index file: " + indexFile);
+            }
+        }
+    }
+
+    /**
+     * Close the stream opened by {@link #openForWrite} and discard it.
+     *
+     * @param out stream
+     */
+    public void discard(DataOutputStream out) {
+        try {
+            out.close();
+        } catch (IOException ignored) {
+        }
+        tmpFile.delete();
+    }
+
+    /**
+     * Hash of the head and the tail of the log, catches rewritten logs with preserved size and time.
+     */
+    private long calculateHash() throws IOException {
+        CRC32 crc = new CRC32();
+        RandomAccessFile file = new RandomAccessFile(logFile, "r");
+        try {
+            long size = file.length();
+            byte[] buf = new byte[(int) Math.min(HASH_BLOCK_SIZE, size)];
+            file.readFully(buf);
+            crc.update(buf);
+            if (size > HASH_BLOCK_SIZE) {
+                file.seek(size - buf.length);
+                file.readFully(buf);
+                crc.update(buf);
+            }
+        } finally {
+            file.close();
+        }
+        return crc.getValue();
+    }
+
+    public static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(TYPE_NULL);
+        } else if (value instanceof Integer) {
+            out.writeByte(TYPE_INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(TYPE_LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Float) {
+            out.writeByte(TYPE_FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Double) {
+            out.writeByte(TYPE_DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(TYPE_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else {
+            out.writeByte(TYPE_STRING);
+            out.writeUTF(value.toString());
+        }
+    }
+
+    public static Object readValue(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_STRING:
+                return in.readUTF();
+            case TYPE_INTEGER:
+                return in.readInt();
+            case TYPE_LONG:
+                return in.readLong();
+            case TYPE_FLOAT:
+                return in.readFloat();
+            case TYPE_DOUBLE:
+                return in.readDouble();
+            case TYPE_BOOLEAN:
+                return in.readBoolean();
+            default:
+                throw new IOException("Invalid value type in index: " + type);
+        }
+    }
+
+    public static void writeMap(DataOutputStream out, Map<String, ?> map) throws IOException {
+        if (map == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(map.size());
+        for (Map.Entry<String, ?> entry : map.entrySet()) {
+            out.writeUTF(entry.getKey());
+            writeValue(out, entry.getValue());
+        }
+    }
+
+    public static Map<String, Object> readMap(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        if (size < 0) {
+            return null;
+        }
+        Map<String, Object> map = new HashMap<String, Object>(size * 2);
+        for (int i = 0; i < size; i++) {
+            String key = in.readUTF();
+            map.put(key, readValue(in));
+        }
+        return map;
+    }
+
+    public static Map<String, String> readStringMap(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        if (size < 0) {
+            return null;
+        }
+        Map<String, String> map = new HashMap<String, String>(size * 2);
+        for (int i = 0; i < size; i++) {
+            String key = in.readUTF();
+            Object value = readValue(in);
+            map.put(key, value == null ? null : value.toString());
+        }
+        return map;
+    }
+
+    public static void writeTimeIndex(DataOutputStream out, TimeIndex timeIndex) throws IOException {
+        out.writeInt(timeIndex.size());
+        for (int i = 0; i < timeIndex.size(); i++) {
+            out.writeLong(timeIndex.getTime(i));
+            out.writeLong(timeIndex.getOffset(i));
+        }
+    }
+
+    public static void writeFieldStatistics(DataOutputStream out, Map<String, FieldStatistics> fieldStatistics)
+            throws IOException {
+        if (fieldStatistics == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(fieldStatistics.size());
+        for (Map.Entry<String, FieldStatistics> entry : fieldStatistics.entrySet()) {
+            out.writeUTF(entry.getKey());
+            entry.getValue().write(out);
+        }
+    }
+
+    public static Map<String, FieldStatistics> readFieldStatistics(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        if (size < 0) {
+            return null;
+        }
+        Map<String, FieldStatistics> fieldStatistics = new HashMap<String, FieldStatistics>(size * 2);
+        for (int i = 0; i < size; i++) {
+            String key = in.readUTF();
+            fieldStatistics.put(key, FieldStatistics.read(in));
+        }
+        return fieldStatistics;
+    }
+
+    public static void readTimeIndex(DataInputStream in, TimeIndex timeIndex) throws IOException {
+        timeIndex.clear();
+        int size = in.readInt();
+        long timeLast = Long.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            long time = in.readLong();
+            if (time < timeLast) {
+                throw new IOException("Invalid time index");
+            }
+            timeIndex.add(time, in.readLong());
+            timeLast = time;
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package me.drton.jmavlib.log;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Query of time intervals where field conditions hold, e.g. "GPS.Fix < 3 or BATT.Volt < 14.0". Conditions are
+ * evaluated on the state of fields after each update, i.e. on the last values of fields, using update records without
+ * allocation. If the reader has zone map (see {@link LogReaderOptions#setZoneMap(boolean)}) zones which can't match
+ * are skipped without reading, otherwise the whole log is scanned.
+ * <p/>
+ * User: ton Date: 18.10.26 Time: 17:30
+ */
+public class LogQuery {
+    public enum Operator {
+        LT, LE, GT, GE, EQ, NE;
+
+        /**
+         * Check if the value matches the condition, NaN never matches.
+         */
+        boolean test(double value, double ref) {
+            switch (this) {
+                case LT:
+                    return value < ref;
+                case LE:
+                    return value <= ref;
+                case GT:
+                    return value > ref;
+                case GE:
+                    return value >= ref;
+                case EQ:
+                    return value == ref;
+                default:
+                    return !Double.isNaN(value) && value != ref;
+            }
+        }
+
+        /**
+         * Check if any value in the range may match the condition.
+         */
+        boolean mayMatch(double min, double max, double ref) {
+            if (Double.isNaN(min)) {
+                return false;
+            }
+            switch (this) {
+                case LT:
+                    return min < ref;
+                case LE:
+                    return min <= ref;
+                case GT:
+                    return max > ref;
+                case GE:
+                    return max >= ref;
+                case EQ:
+                    return min <= ref && ref <= max;
+                default:
+                    return min != ref || max != ref;
+            }
+        }
+    }
+
+    /**
+     * Time interval, start is the time of the update where conditions started to match, end is the time of the update
+     * where conditions stopped to match or the last time of the log.
+     */
+    public static class Interval {
+        public final long start;
+        public final long end;
+
+        public Interval(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Interval: start=%s, end=%s", start, end);
+        }
+    }
+
+    private static class Condition {
+        final String field;
+        final Operator operator;
+        final double value;
+        int updateId = -1;
+        int zoneId = -1;
+
+        Condition(String field, Operator operator, double value) {
+            this.field = field;
+            this.operator = operator;
+            this.value = value;
+        }
+    }
+
+    private final LogReader reader;
+    private final boolean matchAll;
+    private final List<Condition> conditions = new ArrayList<Condition>();
+    private long timeStart = 0;
+    private long timeEnd = Long.MAX_VALUE;
+    private int zonesScanned = 0;
+    private int zonesSkipped = 0;
+    // State of execution
+    private List<Interval> intervals;
+    private boolean open;
+    private long openTime;
+    private long lastTime;
+
+    /**
+     * Create query.
+     *
+     * @param reader   log reader
+     * @param matchAll true if all conditions must match, false if any condition must match
+     */
+    public LogQuery(LogReader reader, boolean matchAll) {
+        this.reader = reader;
+        this.matchAll = matchAll;
+    }
+
+    /**
+     * Add condition "field operator value".
+     *
+     * @param field    field name as returned by {@link LogReader#getFields()}
+     * @param operator operator
+     * @param value    value to compare with
+     * @return this query
+     */
+    public LogQuery addCondition(String field, Operator operator, double value) {
+        conditions.add(new Condition(field, operator, value));
+        return this;
+    }
+
+    /**
+     * Limit the query by time range, intervals are clipped to the range.
+     *
+     * @param timeStart start time in us
+     * @param timeEnd   end time in us
+     */
+    public void setTimeRange(long timeStart, long timeEnd) {
+        this.timeStart = timeStart;
+        this.timeEnd = timeEnd;
+    }
+
+    /**
+     * Get number of zones read by the last execution.
+     */
+    public int getZonesScanned() {
+        return zonesScanned;
+    }
+
+    /**
+     * Get number of zones skipped by the last execution.
+     */
+    public int getZonesSkipped() {
+        return zonesSkipped;
+    }
+
+    /**
+     * Execute the query. Log is positioned to the start after execution.
+     *
+     * @return intervals where conditions match in order of time
+     * @throws IOException          on IO error
+     * @throws FormatErrorException on format error
+     */
+    public List<Interval> execute() throws IOException, FormatErrorException {
+        intervals = new ArrayList<Interval>();
+        open = false;
+        openTime = -1;
+        lastTime = -1;
+        zonesScanned = 0;
+        zonesSkipped = 0;
+        Set<String> fields = new LinkedHashSet<String>();
+        for (Condition condition : conditions) {
+            fields.add(condition.field);
+        }
+        LogUpdate update = new LogUpdate(fields);
+        for (Condition condition : conditions) {
+            condition.updateId = update.getFieldId(condition.field);
+        }
+        LogZoneMap zoneMap = null;
+        if (reader instanceof PX4LogReader) {
+            zoneMap = ((PX4LogReader) reader).getZoneMap();
+        }
+        try {
+            boolean completed;
+            if (zoneMap != null) {
+                completed = executeZones(zoneMap, update);
+            } else {
+                completed = executeScan(update);
+            }
+            if (open) {
+                addInterval(openTime, completed ? lastTime : timeEnd);
+            }
+        } finally {
+            reader.seek(0);
+        }
+        return intervals;
+    }
+
+    /**
+     * Scan the whole log.
+     *
+     * @return true if the end of the log reached, false if the end of time range reached
+     */
+    private boolean executeScan(LogUpdate update) throws IOException, FormatErrorException {
+        reader.seek(0);
+        while (true) {
+            long t;
+            try {
+                t = AbstractLogReader.readUpdate(reader, update);
+            } catch (EOFException e) {
+                return true;
+            }
+            if (!processUpdate(update, t)) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Scan zones which may match using zone map.
+     *
+     * @return true if the end of the log reached, false if the end of time range reached
+     */
+    private boolean executeZones(LogZoneMap zoneMap, LogUpdate update) throws IOException, FormatErrorException {
+        PX4LogReader px4Reader = (PX4LogReader) reader;
+        for (Condition condition : conditions) {
+            condition.zoneId = zoneMap.getFieldId(condition.field);
+        }
+        // Zone at the start of which the reader is positioned
+        int positioned = -1;
+        for (int zone = 0; zone < zoneMap.size(); zone++) {
+            if (zoneMap.getTimeStart(zone) > timeEnd) {
+                return false;
+            }
+            boolean skip = zoneMap.getTimeEnd(zone) < timeStart || !mayMatch(zoneMap, zone);
+            if (!skip && isConstant(zoneMap, zone)) {
+                // Conditions match in the whole zone
+                setMatched(true, lastTime >= 0 ? lastTime : zoneMap.getTimeStart(zone));
+                skip = true;
+            }
+            if (skip) {
+                zonesSkipped++;
+                lastTime = Math.max(lastTime, zoneMap.getTimeEnd(zone));
+                continue;
+            }
+            zonesScanned++;
+            if (positioned != zone) {
+                px4Reader.seekZone(zone);
+                for (Condition condition : conditions) {
+                    if (condition.updateId >= 0) {
+                        update.set(condition.updateId, condition.zoneId >= 0 ?
+                                zoneMap.getStartValue(zone, condition.zoneId) : Double.NaN);
+                    }
+                }
+                setMatched(test(update), lastTime >= 0 ? lastTime : zoneMap.getTimeStart(zone));
+            }
+            int updatesNum = zoneMap.getUpdatesCount(zone);
+            for (int i = 0; i < updatesNum; i++) {
+                long t;
+                try {
+                    t = AbstractLogReader.readUpdate(reader, update);
+                } catch (EOFException e) {
+                    return true;
+                }
+                if (!processUpdate(update, t)) {
+                    return false;
+                }
+            }
+            positioned = zone + 1;
+        }
+        return true;
+    }
+
+    private boolean mayMatch(LogZoneMap zoneMap, int zone) {
+        for (Condition condition : conditions) {
+            boolean m = condition.zoneId >= 0 && condition.operator.mayMatch(
+                    zoneMap.getMin(zone, condition.zoneId), zoneMap.getMax(zone, condition.zoneId), condition.value);
+            if (m != matchAll) {
+                return m;
+            }
+        }
+        return matchAll;
+    }
+
+    /**
+     * Check if fields of conditions are not updated in the zone.
+     */
+    private boolean isConstant(LogZoneMap zoneMap, int zone) {
+        for (Condition condition : conditions) {
+            if (condition.zoneId >= 0 && zoneMap.hasUpdates(zone, condition.zoneId)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean test(LogUpdate update) {
+        for (Condition condition : conditions) {
+            boolean m = condition.updateId >= 0 &&
+                    condition.operator.test(update.getValue(condition.updateId), condition.value);
+            if (m != matchAll) {
+                return m;
+            }
+        }
+        return matchAll;
+    }
+
+    /**
+     * Process state of fields after the update.
+     *
+     * @return false if the end of time range reached
+     */
+    private boolean processUpdate(LogUpdate update, long t) {
+        if (t > timeEnd) {
+            return false;
+        }
+        setMatched(test(update), t);
+        lastTime = Math.max(lastTime, t);
+        return true;
+    }
+
+    private void setMatched(boolean matched, long t) {
+        if (matched && !open) {
+            open = true;
+            openTime = t;
+        } else if (!matched && open) {
+            open = false;
+            addInterval(openTime, t);
+        }
+    }
+
+    private void addInterval(long start, long end) {
+        start = Math.max(start, timeStart);
+        end = Math.min(end, timeEnd);
+        if (start <= end) {
+            intervals.add(new Interval(start, end));
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package me.drton.jmavlib.log;
+
+/**
+ * Options of opening logs, default options give the same behavior as constructors without options.
+ * <p/>
+ * User: ton Date: 17.10.26 Time: 20:45
+ */
+public class LogReaderOptions {
+    private boolean useIndexFile = false;
+    private String indexFileName = null;
+    private boolean backgroundScan = false;
+    private int scanThreads = 1;
+    private boolean zoneMap = false;
+    private boolean fieldStatistics = false;
+    private char csvDelimiter = ';';
+    private char csvDecimalSeparator = ',';
+
+    public LogReaderOptions() {
+    }
+
+    /**
+     * Create copy of options.
+     *
+     * @param options options to copy
+     */
+    public LogReaderOptions(LogReaderOptions options) {
+        this.useIndexFile = options.useIndexFile;
+        this.indexFileName = options.indexFileName;
+        this.backgroundScan = options.backgroundScan;
+        this.scanThreads = options.scanThreads;
+        this.zoneMap = options.zoneMap;
+        this.fieldStatistics = options.fieldStatistics;
+        this.csvDelimiter = options.csvDelimiter;
+        this.csvDecimalSeparator = options.csvDecimalSeparator;
+    }
+
+    public boolean isUseIndexFile() {
+        return useIndexFile;
+    }
+
+    /**
+     * Use sidecar index file to skip full scan of the log on open. Index is created on the first open and reused
+     * while the log is not changed.
+     *
+     * @param useIndexFile true to use index file
+     */
+    public void setUseIndexFile(boolean useIndexFile) {
+        this.useIndexFile = useIndexFile;
+    }
+
+    /**
+     * Get index file name for the log.
+     *
+     * @param logFileName log file name
+     * @return index file name
+     */
+    public String getIndexFileName(String logFileName) {
+        return indexFileName != null ? indexFileName : logFileName + ".idx";
+    }
+
+    /**
+     * Get name of access points index file of gzip-compressed log, ".gzi" is appended to the index file name.
+     *
+     * @param logFileName log file name
+     * @return index file name or null if index file is not used
+     */
+    public String getGZipIndexFileName(String logFileName) {
+        return useIndexFile ? getIndexFileName(logFileName) + ".gzi" : null;
+    }
+
+    /**
+     * Set custom index file name, by default ".idx" is appended to log file name.
+     *
+     * @param indexFileName index file name or null for default
+     */
+    public void setIndexFileName(String indexFileName) {
+        this.indexFileName = indexFileName;
+    }
+
+    public boolean isBackgroundScan() {
+        return backgroundScan;
+    }
+
+    /**
+     * Return from constructor right after reading of the log header and scan the log in background thread. Statistics
+     * and parameters are refined progressively while the scan is running, fields, version and parameters are returned
+     * as snapshots until the scan is completed. Reading of the log may be started immediately. Currently supported by
+     * {@link PX4LogReader}, other readers scan the log in constructor.
+     *
+     * @param backgroundScan true to scan the log in background
+     */
+    public void setBackgroundScan(boolean backgroundScan) {
+        this.backgroundScan = backgroundScan;
+    }
+
+    public int getScanThreads() {
+        return scanThreads;
+    }
+
+    /**
+     * Scan the log on open by chunks in several threads. Currently supported by {@link PX4LogReader},
+     * {@link CSVLogReader} and {@link MAVLinkLogReader}, small logs are scanned in single thread anyway.
+     *
+     * @param scanThreads number of threads, 1 for sequential scan
+     */
+    public void setScanThreads(int scanThreads) {
+        this.scanThreads = scanThreads;
+    }
+
+    public boolean isZoneMap() {
+        return zoneMap;
+    }
+
+    /**
+     * Build zone map of the log on scan for skipping of zones in {@link LogQuery}, zone map is stored in index file.
+     * Currently supported by {@link PX4LogReader}.
+     *
+     * @param zoneMap true to build zone map
+     */
+    public void setZoneMap(boolean zoneMap) {
+        this.zoneMap = zoneMap;
+    }
+
+    public boolean isFieldStatistics() {
+        return fieldStatistics;
+    }
+
+    /**
+     * Calculate statistics of numeric fields on scan of the log, see {@link AbstractLogReader#getFieldStatistics()}.
+     * Statistics are stored in index file.
+     *
+     * @param fieldStatistics true to calculate field statistics
+     */
+    public void setFieldStatistics(boolean fieldStatistics) {
+        this.fieldStatistics = fieldStatistics;
+    }
+
+    public char getCSVDelimiter() {
+        return csvDelimiter;
+    }
+
+    /**
+     * Set delimiter of cells in CSV logs, ';' by default.
+     *
+     * @param csvDelimiter delimiter char
+     */
+    public void setCSVDelimiter(char csvDelimiter) {
+        this.csvDelimiter = csvDelimiter;
+    }
+
+    public char getCSVDecimalSeparator() {
+        return csvDecimalSeparator;
+    }
+
+    /**
+     * Set decimal separator of numbers in CSV logs, accepted in addition to '.', ',' by default.
+     *
+     * @param csvDecimalSeparator decimal separator char
+     */
+    public void setCSVDecimalSeparator(char csvDecimalSeparator) {
+        this.csvDecimalSeparator = csvDecimalSeparator;
+    }
+}
@@ -0,0 +1,402 @@
+package me.drton.jmavlib.log;
+
+import me.drton.jmavlib.mavlink.MAVLinkMessage;
+import me.drton.jmavlib.mavlink.MAVLinkStream;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Real-time replay of the log into MAVLink stream with speed factor, e.g. for HIL or GCS testing. Log is read ahead in
+ * separate thread and grouped to time slices, each slice is written with one batched write at its deadline. Deadlines
+ * are calculated from the start of the replay, not from the previous slice, so pacing errors don't accumulate: the
+ * sender parks until the deadline is close and spins for the rest. Lateness of slices is collected into histogram.
+ * <p/>
+ * MAVLink logs are replayed as is, other logs (e.g. PX4) are converted to MAVLink messages by {@link MessageConverter}.
+ * <p/>
+ * User: ton Date: 18.10.26 Time: 19:50
+ */
+public class LogReplay {
+    private static final int READ_AHEAD_SLICES = 1024;
+    // Park only if the deadline is farther, spin for the rest to not depend on the timer granularity
+    private static final long SPIN_NANOS = 200000;
+    private static final long POLL_NANOS = 10000000;
+    private static final int HISTOGRAM_SIZE = 32;
+    private static final Slice END = new Slice(-1, null);
+
+    /**
+     * Converter of log updates to MAVLink messages.
+     */
+    public interface MessageConverter {
+        /**
+         * Convert update of the log.
+         *
+         * @param time     time of the update in us
+         * @param update   fields updated
+         * @param messages list to add messages to
+         */
+        void convert(long time, Map<String, Object> update, List<MAVLinkMessage> messages);
+    }
+
+    private static class Slice {
+        final long time;
+        final List<MAVLinkMessage> messages;
+
+        Slice(long time, List<MAVLinkMessage> messages) {
+            this.time = time;
+            this.messages = messages;
+        }
+    }
+
+    private final LogReader reader;
+    private final MessageConverter converter;
+    private final MAVLinkStream stream;
+    private double speed = 1.0;
+    private long sliceMicroseconds = 1000;
+    private long timeStart = 0;
+    private long timeEnd = Long.MAX_VALUE;
+    private final BlockingQueue<Slice> queue = new ArrayBlockingQueue<Slice>(READ_AHEAD_SLICES);
+    private volatile boolean stopped = false;
+    private volatile Exception readError = null;
+    // Statistics
+    private volatile long sentMessages = 0;
+    private volatile long sentSlices = 0;
+    private volatile long replayStartNanos = 0;
+    private volatile long replayEndNanos = 0;
+    private volatile long firstTime = -1;
+    private volatile long lastTime = -1;
+    private volatile long maxLatenessNanos = 0;
+    private volatile long totalLatenessNanos = 0;
+    private final AtomicLongArray latenessHistogram = new AtomicLongArray(HISTOGRAM_SIZE);
+
+    /**
+     * Create replay of MAVLink log, messages are written as they are in the log.
+     *
+     * @param reader MAVLink log reader
+     * @param stream stream to write messages to
+     */
+    public LogReplay(MAVLinkLogReader reader, MAVLinkStream stream) {
+        this.reader = reader;
+        this.converter = null;
+        this.stream = stream;
+    }
+
+    /**
+     * Create replay of any log using converter of updates to MAVLink messages.
+     *
+     * @param reader    log reader
+     * @param converter converter of updates
+     * @param stream    stream to write messages to
+     */
+    public LogReplay(LogReader reader, MessageConverter converter, MAVLinkStream stream) {
+        this.reader = reader;
+        this.converter = converter;
+        this.stream = stream;
+    }
+
+    /**
+     * Set speed factor, e.g. 1.0 for real-time or 10.0 for 10x faster. Infinity disables pacing and lateness
+     * statistics.
+     *
+     * @param speed speed factor
+     */
+    public void setSpeed(double speed) {
+        if (!(speed > 0.0)) {
+            throw new IllegalArgumentException("Invalid replay speed: " + speed);
+        }
+        this.speed = speed;
+    }
+
+    public double getSpeed() {
+        return speed;
+    }
+
+    /**
+     * Set width of time slice in log time, messages of one slice are written with one write, 1 ms by default.
+     *
+     * @param sliceMicroseconds width of slice in us
+     */
+    public void setSliceMicroseconds(long sliceMicroseconds) {
+        this.sliceMicroseconds = sliceMicroseconds;
+    }
+
+    /**
+     * Limit the replay by time range of the log.
+     *
+     * @param timeStart start time in us
+     * @param timeEnd   end time in us
+     */
+    public void setTimeRange(long timeStart, long timeEnd) {
+        this.timeStart = timeStart;
+        this.timeEnd = timeEnd;
+    }
+
+    /**
+     * Replay the log in the calling thread, returns at the end of the log or time range or after {@link #stop()}.
+     *
+     * @throws IOException          on IO error of the log or the stream
+     * @throws FormatErrorException on format error of the log
+     * @throws InterruptedException if interrupted
+     */
+    public void run() throws IOException, FormatErrorException, InterruptedException {
+        stopped = false;
+        readError = null;
+        queue.clear();
+        resetStatistics();
+        Thread readThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readLoop();
+            }
+        }, "LogReplay");
+        readThread.setDaemon(true);
+        readThread.start();
+        try {
+            sendLoop();
+        } finally {
+            // Read thread is not interrupted, interrupt would close channel of the reader
+            stopped = true;
+            readThread.join();
+            replayEndNanos = System.nanoTime();
+        }
+        Exception e = readError;
+        if (e instanceof IOException) {
+            throw (IOException) e;
+        } else if (e instanceof FormatErrorException) {
+            throw (FormatErrorException) e;
+        } else if (e != null) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Stop the replay, may be called from any thread.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    private void sendLoop() throws IOException, InterruptedException {
+        long startNanos = 0;
+        while (!stopped) {
+            Slice slice = queue.poll(POLL_NANOS, TimeUnit.NANOSECONDS);
+            if (slice == null) {
+                continue;
+            }
+            if (slice == END) {
+                break;
+            }
+            if (firstTime < 0) {
+                // Time is counted from the first slice, so initial read ahead doesn't delay the replay
+                startNanos = System.nanoTime();
+                replayStartNanos = startNanos;
+                firstTime = slice.time;
+            }
+            long deadline = startNanos + (long) ((slice.time - firstTime) * 1000.0 / speed);
+            long now = System.nanoTime();
+            while (deadline - now > SPIN_NANOS) {
+                LockSupport.parkNanos(deadline - now - SPIN_NANOS);
+                if (stopped) {
+                    return;
+                }
+                now = System.nanoTime();
+            }
+            while (deadline - now > 0) {
+                now = System.nanoTime();
+            }
+            stream.writeBatch(slice.messages);
+            if (!Double.isInfinite(speed)) {
+                addLateness(now - deadline);
+            }
+            sentMessages += slice.messages.size();
+            sentSlices++;
+            lastTime = slice.time;
+        }
+    }
+
+    private void readLoop() {
+        try {
+            reader.seek(timeStart);
+            MAVLinkMessage msg = converter == null ? new MAVLinkMessage(((MAVLinkLogReader) reader).getSchema()) : null;
+            Map<String, Object> update = new HashMap<String, Object>();
+            List<MAVLinkMessage> messages = new ArrayList<MAVLinkMessage>();
+            long sliceTime = -1;
+            while (!stopped) {
+                long t;
+                try {
+                    if (converter == null) {
+                        t = ((MAVLinkLogReader) reader).readMessage(msg);
+                    } else {
+                        t = reader.readUpdate(update);
+                    }
+                } catch (EOFException e) {
+                    break;
+                }
+                if (t > timeEnd) {
+                    break;
+                }
+                if (sliceTime >= 0 && t - sliceTime >= sliceMicroseconds) {
+                    if (!messages.isEmpty()) {
+                        put(new Slice(sliceTime, messages));
+                        messages = new ArrayList<MAVLinkMessage>();
+                    }
+                    sliceTime = t;
+                } else if (sliceTime < 0) {
+                    sliceTime = t;
+                }
+                if (converter == null) {
+                    messages.add(msg.copy());
+                } else {
+                    converter.convert(t, update, messages);
+                    update.clear();
+                }
+            }
+            if (!messages.isEmpty()) {
+                put(new Slice(sliceTime, messages));
+            }
+        } catch (Exception e) {
+            readError = e;
+        } finally {
+            put(END);
+        }
+    }
+
+    /**
+     * Put slice to the queue, waits while the queue is full until the replay is stopped.
+     */
+    private void put(Slice slice) {
+        while (!stopped && !queue.offer(slice)) {
+            LockSupport.parkNanos(POLL_NANOS / 10);
+        }
+    }
+
+    private void addLateness(long lateness) {
+        if (lateness < 0) {
+            lateness = 0;
+        }
+        // Bucket 0: < 1 us, bucket i: [2^(i-1), 2^i) us
+        long us = lateness / 1000;
+        int bucket = Math.min(HISTOGRAM_SIZE - 1, 64 - Long.numberOfLeadingZeros(us));
+        latenessHistogram.incrementAndGet(bucket);
+        totalLatenessNanos += lateness;
+        if (lateness > maxLatenessNanos) {
+            maxLatenessNanos = lateness;
+        }
+    }
+
+    private void resetStatistics() {
+        sentMessages = 0;
+        sentSlices = 0;
+        replayStartNanos = 0;
+        replayEndNanos = 0;
+        firstTime = -1;
+        lastTime = -1;
+        maxLatenessNanos = 0;
+        totalLatenessNanos = 0;
+        for (int i = 0; i < HISTOGRAM_SIZE; i++) {
+            latenessHistogram.set(i, 0);
+        }
+    }
+
+    public long getSentMessages() {
+        return sentMessages;
+    }
+
+    /**
+     * Get number of time slices written, each slice is written by one batched write.
+     */
+    public long getSentSlices() {
+        return sentSlices;
+    }
+
+    /**
+     * Get wall time elapsed since the first slice, may be called while the replay is running.
+     *
+     * @return elapsed time in ns
+     */
+    public long getElapsedNanoseconds() {
+        long start = replayStartNanos;
+        if (start == 0) {
+            return 0;
+        }
+        long end = replayEndNanos;
+        return (end != 0 ? end : System.nanoTime()) - start;
+    }
+
+    /**
+     * Get achieved speed: log time replayed per wall time.
+     *
+     * @return speed factor
+     */
+    public double getAchievedSpeed() {
+        long elapsed = getElapsedNanoseconds();
+        long first = firstTime;
+        return elapsed > 0 && first >= 0 ? (lastTime - first) * 1000.0 / elapsed : 0.0;
+    }
+
+    /**
+     * Get achieved rate of messages.
+     *
+     * @return messages per second
+     */
+    public double getMessagesPerSecond() {
+        long elapsed = getElapsedNanoseconds();
+        return elapsed > 0 ? sentMessages * 1e9 / elapsed : 0.0;
+    }
+
+    /**
+     * Get target rate of messages: rate of messages in the log replayed so far multiplied by speed.
+     *
+     * @return messages per second
+     */
+    public double getTargetMessagesPerSecond() {
+        long first = firstTime;
+        long duration = lastTime - first;
+        return first >= 0 && duration > 0 ? sentMessages * 1e6 * speed / duration : 0.0;
+    }
+
+    public long getMaxLatenessNanoseconds() {
+        return maxLatenessNanos;
+    }
+
+    /**
+     * Get mean lateness of slices relative to their deadlines.
+     *
+     * @return lateness in ns
+     */
+    public double getMeanLatenessNanoseconds() {
+        long slices = sentSlices;
+        return slices > 0 ? (double) totalLatenessNanos / slices : 0.0;
+    }
+
+    /**
+     * Get histogram of lateness of slices: bucket 0 counts slices written within 1 us after the deadline, bucket i
+     * counts slices late by [2^(i-1), 2^i) us, the last bucket counts all slices late by more.
+     *
+     * @return counts of slices
+     */
+    public long[] getLatenessHistogram() {
+        long[] histogram = new long[HISTOGRAM_SIZE];
+        for (int i = 0; i < HISTOGRAM_SIZE; i++) {
+            histogram[i] = latenessHistogram.get(i);
+        }
+        return histogram;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LogReplay: messages=%s, slices=%s, speed=%.2f/%.2f, rate=%.1f/%.1f msg/s, " +
+                        "lateness mean=%.1f us max=%.1f us", sentMessages, sentSlices, getAchievedSpeed(), speed,
+                getMessagesPerSecond(), getTargetMessagesPerSecond(), getMeanLatenessNanoseconds() / 1000.0,
+                maxLatenessNanos / 1000.0);
+    }
+}
@@ -0,0 +1,40 @@
+package me.drton.jmavlib.log;
+
+import java.util.Map;
+
+/**
+ * Summary of one log produced by {@link LogBatchProcessor}.
+ * <p/>
+ * User: ton Date: 18.10.26 Time: 15:40
+ */
+public class LogSummary {
+    public final String fileName;
+    public final long fileSize;
+    public String format = null;
+    public long startMicroseconds = -1;
+    public long sizeMicroseconds = -1;
+    public long sizeUpdates = -1;
+    public Map<String, Object> version = null;
+    public Map<String, Object> parameters = null;
+    public Map<String, FieldStatistics> fieldStatistics = null;
+    public long processingNanoseconds = 0;
+    public Exception error = null;
+
+    public LogSummary(String fileName, long fileSize) {
+        this.fileName = fileName;
+        this.fileSize = fileSize;
+    }
+
+    public boolean isOK() {
+        return error == null;
+    }
+
+    @Override
+    public String toString() {
+        if (error != null) {
+            return String.format("LogSummary: file=%s, error=%s", fileName, error);
+        }
+        return String.format("LogSummary: file=%s, format=%s, duration=%.3fs, updates=%s, version=%s", fileName,
+                format, sizeMicroseconds / 1e6, sizeUpdates, version);
+    }
+}
@@ -0,0 +1,107 @@
+package me.drton.jmavlib.log;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reusable update record for {@link AbstractLogReader#readUpdate(LogUpdate)}. Fields are resolved to integer IDs once,
+ * values are stored in primitive array with bitset of fields changed by the last update. String fields are not
+ * supported.
+ * <p/>
+ * User: ton Date: 18.10.26 Time: 01:05
+ */
+public class LogUpdate {
+    private final String[] fields;
+    private final Map<String, Integer> fieldIds;
+    private final double[] values;
+    private final long[] changed;
+
+    /**
+     * Create update record for specified fields, field ID is the index of the field in the collection.
+     *
+     * @param fields field names as returned by {@link LogReader#getFields()}
+     */
+    public LogUpdate(Collection<String> fields) {
+        this.fields = fields.toArray(new String[fields.size()]);
+        this.fieldIds = new HashMap<String, Integer>(this.fields.length * 2);
+        for (int i = 0; i < this.fields.length; i++) {
+            fieldIds.put(this.fields[i], i);
+        }
+        this.values = new double[this.fields.length];
+        Arrays.fill(values, Double.NaN);
+        this.changed = new long[(this.fields.length + 63) / 64];
+    }
+
+    public int getFieldsCount() {
+        return fields.length;
+    }
+
+    public String getFieldName(int id) {
+        return fields[id];
+    }
+
+    /**
+     * Get ID of the field.
+     *
+     * @param field field name
+     * @return field ID or -1 if the field is not in the record
+     */
+    public int getFieldId(String field) {
+        Integer id = fieldIds.get(field);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Get the last value of the field.
+     *
+     * @param id field ID
+     * @return value or NaN if the field was not updated yet
+     */
+    public double getValue(int id) {
+        return values[id];
+    }
+
+    /**
+     * Check if the field was changed by the last update.
+     *
+     * @param id field ID
+     * @return true if field was changed
+     */
+    public boolean isChanged(int id) {
+        return (changed[id >>> 6] & (1L << id)) != 0;
+    }
+
+    /**
+     * Find next field changed by the last update, use to iterate over changed fields.
+     *
+     * @param fromId field ID to start from
+     * @return ID of changed field or -1 if no more changed fields
+     */
+    public int nextChanged(int fromId) {
+        int w = fromId >>> 6;
+        if (w >= changed.length) {
+            return -1;
+        }
+        long word = changed[w] & (-1L << fromId);
+        while (true) {
+            if (word != 0) {
+                return w * 64 + Long.numberOfTrailingZeros(word);
+            }
+            if (++w == changed.length) {
+                return -1;
+            }
+            word = changed[w];
+        }
+    }
+
+    public void set(int id, double value) {
+        values[id] = value;
+        changed[id >>> 6] |= 1L << id;
+    }
+
+    public void clearChanged() {
+        Arrays.fill(changed, 0);
+    }
+}
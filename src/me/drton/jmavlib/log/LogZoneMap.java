@@ -0,0 +1,207 @@
+package me.drton.jmavlib.log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Zone map of the log: the log is split to zones of consecutive updates, for each zone time range, set of message
+ * types present and min/max of each field are recorded. Min/max include the value carried in from before the zone,
+ * so they cover all values of the field state while reading the zone, this allows to skip zones which can't match
+ * a predicate. Value of the field at the start of the zone is stored to continue reading after skipped zones.
+ * <p/>
+ * User: ton Date: 18.10.26 Time: 16:40
+ */
+public class LogZoneMap {
+    private final String[] fields;
+    private final int[] fieldTypes;
+    private final Map<String, Integer> fieldIds;
+    private long[] offsets = new long[64];
+    private long[] timeStarts = new long[64];
+    private long[] timeEnds = new long[64];
+    private int[] updates = new int[64];
+    private BitSet[] types = new BitSet[64];
+    private double[][] mins = new double[64][];
+    private double[][] maxs = new double[64][];
+    private double[][] startValues = new double[64][];
+    private int size = 0;
+
+    /**
+     * Create empty zone map.
+     *
+     * @param fields     field names as returned by {@link LogReader#getFields()}
+     * @param fieldTypes message type of each field
+     */
+    public LogZoneMap(List<String> fields, int[] fieldTypes) {
+        this.fields = fields.toArray(new String[fields.size()]);
+        this.fieldTypes = fieldTypes;
+        this.fieldIds = new HashMap<String, Integer>(this.fields.length * 2);
+        for (int i = 0; i < this.fields.length; i++) {
+            fieldIds.put(this.fields[i], i);
+        }
+    }
+
+    /**
+     * Add zone, zones must be added in order of the log.
+     *
+     * @param offset      position of the first update of the zone in the log
+     * @param timeStart   time of the first update in us, -1 if none
+     * @param timeEnd     max time of updates in us, -1 if none
+     * @param updatesNum  number of updates starting in the zone
+     * @param zoneTypes   message types present in the zone
+     * @param min         min value of each field including carried in value, NaN if no value
+     * @param max         max value of each field including carried in value, NaN if no value
+     * @param startValue  value of each field at the start of the zone, NaN if no value
+     */
+    public void add(long offset, long timeStart, long timeEnd, int updatesNum, BitSet zoneTypes, double[] min,
+                    double[] max, double[] startValue) {
+        if (size == offsets.length) {
+            int capacity = size * 2;
+            offsets = Arrays.copyOf(offsets, capacity);
+            timeStarts = Arrays.copyOf(timeStarts, capacity);
+            timeEnds = Arrays.copyOf(timeEnds, capacity);
+            updates = Arrays.copyOf(updates, capacity);
+            types = Arrays.copyOf(types, capacity);
+            mins = Arrays.copyOf(mins, capacity);
+            maxs = Arrays.copyOf(maxs, capacity);
+            startValues = Arrays.copyOf(startValues, capacity);
+        }
+        offsets[size] = offset;
+        timeStarts[size] = timeStart;
+        timeEnds[size] = timeEnd;
+        updates[size] = updatesNum;
+        types[size] = zoneTypes;
+        mins[size] = min;
+        maxs[size] = max;
+        startValues[size] = startValue;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getFieldsCount() {
+        return fields.length;
+    }
+
+    public String getFieldName(int field) {
+        return fields[field];
+    }
+
+    /**
+     * Get ID of the field.
+     *
+     * @param field field name
+     * @return field ID or -1 if the field is not in the zone map
+     */
+    public int getFieldId(String field) {
+        Integer id = fieldIds.get(field);
+        return id == null ? -1 : id;
+    }
+
+    public long getOffset(int zone) {
+        return offsets[zone];
+    }
+
+    public long getTimeStart(int zone) {
+        return timeStarts[zone];
+    }
+
+    public long getTimeEnd(int zone) {
+        return timeEnds[zone];
+    }
+
+    public int getUpdatesCount(int zone) {
+        return updates[zone];
+    }
+
+    public boolean hasType(int zone, int type) {
+        return types[zone].get(type);
+    }
+
+    /**
+     * Check if the field is updated in the zone, value of not updated field is constant in the zone.
+     *
+     * @param zone  zone index
+     * @param field field ID
+     * @return true if messages of the field are present in the zone
+     */
+    public boolean hasUpdates(int zone, int field) {
+        return types[zone].get(fieldTypes[field]);
+    }
+
+    public double getMin(int zone, int field) {
+        return mins[zone][field];
+    }
+
+    public double getMax(int zone, int field) {
+        return maxs[zone][field];
+    }
+
+    public double getStartValue(int zone, int field) {
+        return startValues[zone][field];
+    }
+
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(fields.length);
+        for (int i = 0; i < fields.length; i++) {
+            out.writeUTF(fields[i]);
+            out.writeInt(fieldTypes[i]);
+        }
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeLong(offsets[i]);
+            out.writeLong(timeStarts[i]);
+            out.writeLong(timeEnds[i]);
+            out.writeInt(updates[i]);
+            long[] bits = types[i].toLongArray();
+            out.writeInt(bits.length);
+            for (long b : bits) {
+                out.writeLong(b);
+            }
+            for (int j = 0; j < fields.length; j++) {
+                out.writeDouble(mins[i][j]);
+                out.writeDouble(maxs[i][j]);
+                out.writeDouble(startValues[i][j]);
+            }
+        }
+    }
+
+    public static LogZoneMap read(DataInputStream in) throws IOException {
+        int fieldsNum = in.readInt();
+        String[] fields = new String[fieldsNum];
+        int[] fieldTypes = new int[fieldsNum];
+        for (int i = 0; i < fieldsNum; i++) {
+            fields[i] = in.readUTF();
+            fieldTypes[i] = in.readInt();
+        }
+        LogZoneMap zoneMap = new LogZoneMap(Arrays.asList(fields), fieldTypes);
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            long offset = in.readLong();
+            long timeStart = in.readLong();
+            long timeEnd = in.readLong();
+            int updatesNum = in.readInt();
+            long[] bits = new long[in.readInt()];
+            for (int j = 0; j < bits.length; j++) {
+                bits[j] = in.readLong();
+            }
+            double[] min = new double[fieldsNum];
+            double[] max = new double[fieldsNum];
+            double[] startValue = new double[fieldsNum];
+            for (int j = 0; j < fieldsNum; j++) {
+                min[j] = in.readDouble();
+                max[j] = in.readDouble();
+                startValue[j] = in.readDouble();
+            }
+            zoneMap.add(offset, timeStart, timeEnd, updatesNum, BitSet.valueOf(bits), min, max, startValue);
+        }
+        return zoneMap;
+    }
+}
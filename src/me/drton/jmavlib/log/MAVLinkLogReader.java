@@ -2,16 +2,31 @@ package me.drton.jmavlib.log;
 
 import me.drton.jmavlib.mavlink.*;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.io.InterruptedIOException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.Charset;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
 
 /**
  * User: ton Date: 25.07.14 Time: 21:43
  */
-public class MAVLinkLogReader implements LogReader {
-    private RandomAccessFile file;
+public class MAVLinkLogReader extends AbstractLogReader {
+    private static final long TIME_INDEX_INTERVAL = 64 * 1024;
+    private static final long MIN_CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final int CHUNKS_PER_THREAD = 4;
+    private String fileName;
+    private SeekableByteChannel channel;
+    private MAVLinkSchema schema;
     private Map<String, String> fieldsFormats = new HashMap<String, String>();
     private MAVLinkStream stream;
     private Map<String, Object> parameters = new HashMap<String, Object>();
@@ -20,8 +35,20 @@ public class MAVLinkLogReader implements LogReader {
     private long sizeMicroseconds = -1;
     private long startMicroseconds = -1;
     private Set<Integer> skipMsgs = new HashSet<Integer>();
+    private TimeIndex timeIndex = new TimeIndex();
+    private boolean fieldStatisticsEnabled = false;
+    private Map<String, FieldStatistics> fieldStatistics = null;
+    // Reading to update records
+    private MAVLinkMessage updateMsg = null;
+    private LogUpdate boundUpdate = null;
+    private int[][] updatePlans = null;
 
     public MAVLinkLogReader(String fileName, MAVLinkSchema schema) throws IOException, FormatErrorException {
+        this(fileName, schema, new LogReaderOptions());
+    }
+
+    public MAVLinkLogReader(String fileName, MAVLinkSchema schema, LogReaderOptions options)
+            throws IOException, FormatErrorException {
         String[] skipMsgNames = new String[]{
                 "PARAM_REQUEST_READ", "PARAM_REQUEST_LIST", "PARAM_VALUE", "PARAM_SET", "PARAM_VALUE",};
         for (String msgName : skipMsgNames) {
@@ -31,27 +58,136 @@ public class MAVLinkLogReader implements LogReader {
             }
         }
 
-        file = new RandomAccessFile(fileName, "r");
-        stream = new MAVLinkStream(schema, file.getChannel());
-        updateInfo();
+        this.schema = schema;
+        this.fileName = fileName;
+        channel = GZipIndexedChannel.open(fileName, options.getGZipIndexFileName(fileName));
+        stream = new MAVLinkStream(schema, channel);
+        fieldStatisticsEnabled = options.isFieldStatistics();
+        LogIndexFile indexFile = null;
+        if (options.isUseIndexFile()) {
+            indexFile = new LogIndexFile(fileName, options.getIndexFileName(fileName));
+            if (readIndex(indexFile, getIndexFormat(schema))) {
+                seek(0);
+                return;
+            }
+        }
+        if (options.getScanThreads() > 1) {
+            updateInfoParallel(options.getScanThreads());
+        } else {
+            updateInfo();
+        }
+        if (indexFile != null) {
+            writeIndex(indexFile, getIndexFormat(schema));
+        }
+    }
+
+    /**
+     * Get format of index file, decoded messages depend on the schema, so index contains fingerprint of the schema.
+     */
+    private static String getIndexFormat(MAVLinkSchema schema) {
+        List<MAVLinkMessageDefinition> definitions =
+                new ArrayList<MAVLinkMessageDefinition>(schema.getMessageDefinitions().values());
+        Collections.sort(definitions, new Comparator<MAVLinkMessageDefinition>() {
+            @Override
+            public int compare(MAVLinkMessageDefinition d1, MAVLinkMessageDefinition d2) {
+                return d1.id < d2.id ? -1 : (d1.id == d2.id ? 0 : 1);
+            }
+        });
+        StringBuilder sb = new StringBuilder();
+        sb.append(schema.getStartSign()).append(';').append(schema.getByteOrder());
+        for (MAVLinkMessageDefinition definition : definitions) {
+            sb.append(';').append(definition.id).append(',').append(definition.name).append(',')
+                    .append(definition.extraCRC);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(sb.toString().getBytes(Charset.forName("UTF-8")));
+        return String.format("MAVLinkLogReader %08x %s", crc.getValue(), definitions.size());
+    }
+
+    private boolean readIndex(LogIndexFile indexFile, String format) {
+        try {
+            DataInputStream in = indexFile.openForRead(format);
+            if (in == null) {
+                return false;
+            }
+            try {
+                Map<String, String> fieldsFormats = LogIndexFile.readStringMap(in);
+                Map<String, Object> parameters = LogIndexFile.readMap(in);
+                long sizeUpdates = in.readLong();
+                long startMicroseconds = in.readLong();
+                long sizeMicroseconds = in.readLong();
+                LogIndexFile.readTimeIndex(in, timeIndex);
+                Map<String, FieldStatistics> fieldStatistics = LogIndexFile.readFieldStatistics(in);
+                if (fieldStatisticsEnabled && fieldStatistics == null) {
+                    // Index was written without field statistics
+                    timeIndex.clear();
+                    return false;
+                }
+                this.fieldsFormats = fieldsFormats;
+                this.parameters = parameters;
+                this.sizeUpdates = sizeUpdates;
+                this.startMicroseconds = startMicroseconds;
+                this.sizeMicroseconds = sizeMicroseconds;
+                this.fieldStatistics = fieldStatisticsEnabled ? fieldStatistics : null;
+                return true;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            timeIndex.clear();
+            return false;
+        }
+    }
+
+    private void writeIndex(LogIndexFile indexFile, String format) {
+        DataOutputStream out;
+        try {
+            out = indexFile.openForWrite(format);
+        } catch (IOException e) {
+            return;     // Index is optional, e.g. log directory may be read-only
+        }
+        try {
+            LogIndexFile.writeMap(out, fieldsFormats);
+            LogIndexFile.writeMap(out, parameters);
+            out.writeLong(sizeUpdates);
+            out.writeLong(startMicroseconds);
+            out.writeLong(sizeMicroseconds);
+            LogIndexFile.writeTimeIndex(out, timeIndex);
+            LogIndexFile.writeFieldStatistics(out, fieldStatistics);
+            indexFile.commit(out);
+        } catch (IOException e) {
+            indexFile.discard(out);
+        }
+    }
+
+    public MAVLinkSchema getSchema() {
+        return schema;
     }
 
     @Override
     public void close() throws IOException {
-        file.close();
+        channel.close();
     }
 
     @Override
     public boolean seek(long seekTime) throws FormatErrorException, IOException {
         time = 0;
-        stream.position(0);
         if (seekTime == 0) {
+            stream.position(0);
             return true;
         }
+        // Start from the nearest indexed position before requested time
+        int indexIdx = timeIndex.find(seekTime);
+        if (indexIdx >= 0) {
+            time = timeIndex.getTime(indexIdx);
+            stream.position(timeIndex.getOffset(indexIdx));
+        } else {
+            stream.position(0);
+        }
+        MAVLinkMessage msg = new MAVLinkMessage(schema);
         while (true) {
             long pos = stream.position();
-            MAVLinkMessage msg = stream.read();
-            if (msg == null) {
+            if (!stream.read(msg)) {
                 break;
             }
             long t = getTime(msg);
@@ -67,12 +203,12 @@ public class MAVLinkLogReader implements LogReader {
         return false;
     }
 
-    private String fieldName(MAVLinkMessage msg, MAVLinkField field) {
-        return "M" + msg.systemID + ":" + msg.getMsgName() + "." + field.name;
+    private static String fieldName(MAVLinkMessage msg, MAVLinkField field) {
+        return "M" + msg.getSystemID() + ":" + msg.getMsgName() + "." + field.name;
     }
 
-    private void addMessageFormat(MAVLinkMessage msg) {
-        for (MAVLinkField field : msg.definition.fields) {
+    private static void addMessageFormat(Map<String, String> fieldsFormats, MAVLinkMessage msg) {
+        for (MAVLinkField field : msg.getDefinition().fields) {
             String type;
             switch (field.type) {
                 case CHAR:
@@ -128,55 +264,275 @@ public class MAVLinkLogReader implements LogReader {
         }
     }
 
-    private void updateInfo() throws IOException, FormatErrorException {
-        Set<String> messagesSysIDs = new HashSet<String>();
-        seek(0);
+    /**
+     * Statistics of a chunk of the log.
+     */
+    private static class Statistics {
         long packetsNum = 0;
         long timeStart = -1;
         long timeEnd = -1;
+        TimeIndex timeIndex = new TimeIndex();
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        Map<String, String> fieldsFormats = new HashMap<String, String>();
+        // Messages with formats added, by system ID and message ID
+        boolean[] messagesSysIDs = new boolean[256 * 256];
+        // Field statistics by field name and by system ID and message ID, null if disabled
+        final Map<String, FieldStatistics> fieldStatistics;
+        final FieldStatistics[][] messagesFieldStatistics;
+
+        Statistics(boolean fieldStatistics) {
+            this.fieldStatistics = fieldStatistics ? new HashMap<String, FieldStatistics>() : null;
+            this.messagesFieldStatistics = fieldStatistics ? new FieldStatistics[256 * 256][] : null;
+        }
+    }
+
+    /**
+     * Chunk of the log scanned in separate thread.
+     */
+    private static class Chunk {
+        // Start of the first message of the chunk, -1 if no messages found
+        long start = -1;
+        // Start of the first message after the chunk
+        long end = -1;
+        final Statistics stats;
+        Exception error = null;
+
+        Chunk(boolean fieldStatistics) {
+            stats = new Statistics(fieldStatistics);
+        }
+    }
+
+    private void updateInfo() throws IOException, FormatErrorException {
+        Statistics stats = new Statistics(fieldStatisticsEnabled);
+        MAVLinkMessage msg = new MAVLinkMessage(schema);
+        seek(0);
         while (true) {
-            MAVLinkMessage msg;
-            msg = stream.read();
-            if (msg == null) {
+            long pos = stream.position();
+            if (!stream.read(msg)) {
                 break;
             }
+            processStatistics(stats, msg, pos);
+        }
+        applyStatistics(Collections.singletonList(stats));
+        seek(0);
+    }
 
-            long t = getTime(msg);
-            if (t >= 0) {
-                if (timeStart < 0) {
-                    timeStart = t;
+    /**
+     * Scan the log by chunks in several threads. Each chunk is synchronized on the start sign of the first frame with
+     * valid CRC, chunks which were synchronized not on the boundary of the message of the previous chunk (e.g. start
+     * sign inside of payload) are scanned again, so statistics is the same as on sequential scan.
+     */
+    private void updateInfoParallel(int threads) throws IOException, FormatErrorException {
+        long size = channel.size();
+        int chunksNum = (int) Math.max(1, Math.min((long) threads * CHUNKS_PER_THREAD, size / MIN_CHUNK_SIZE));
+        if (chunksNum == 1) {
+            updateInfo();
+            return;
+        }
+        final long[] bounds = new long[chunksNum + 1];
+        for (int i = 0; i < chunksNum; i++) {
+            bounds[i] = size * i / chunksNum;
+        }
+        bounds[chunksNum] = Long.MAX_VALUE;
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, chunksNum));
+        try {
+            List<Future<Chunk>> futures = new ArrayList<Future<Chunk>>(chunksNum);
+            for (int i = 0; i < chunksNum; i++) {
+                final int idx = i;
+                futures.add(executor.submit(new Callable<Chunk>() {
+                    @Override
+                    public Chunk call() throws Exception {
+                        return scanChunk(bounds[idx], bounds[idx + 1]);
+                    }
+                }));
+            }
+            List<Statistics> chunks = new ArrayList<Statistics>(chunksNum);
+            long expectedStart = 0;
+            for (int i = 0; i < chunksNum; i++) {
+                Chunk chunk;
+                try {
+                    chunk = futures.get(i).get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted");
+                } catch (ExecutionException e) {
+                    throw rethrow(e.getCause());
                 }
-                if (t > timeEnd) {
-                    timeEnd = t;
+                if (i > 0 && chunk.start != expectedStart) {
+                    // Scan sequentially from the end of the previous chunk, nothing to scan if it reached the end
+                    chunk = expectedStart >= 0 ? scanChunk(expectedStart, bounds[i + 1]) :
+                            new Chunk(fieldStatisticsEnabled);
                 }
-                packetsNum++;
+                if (chunk.error != null) {
+                    throw rethrow(chunk.error);
+                }
+                chunks.add(chunk.stats);
+                expectedStart = chunk.end;
             }
+            applyStatistics(chunks);
+        } finally {
+            executor.shutdownNow();
+        }
+        seek(0);
+    }
 
-            if (msg.getMsgName().equals("PARAM_VALUE")) {
-                parameters.put("M" + msg.systemID + ":" + msg.getString("param_id"), parseMavlinkParameter(msg));
-            } else if (!skipMsgs.contains(msg.msgID)) {
-                String msgSysID = "M" + msg.systemID + ":" + msg.getMsgName();
-                if (!messagesSysIDs.contains(msgSysID)) {
-                    messagesSysIDs.add(msgSysID);
-                    addMessageFormat(msg);
+    /**
+     * Process messages starting before the limit using own channel.
+     *
+     * @param start position to start search of the first message from
+     * @param limit end of the chunk
+     * @return chunk with position of the first message after the chunk or -1 at the end of the log
+     */
+    private Chunk scanChunk(long start, long limit) {
+        Chunk chunk = new Chunk(fieldStatisticsEnabled);
+        try {
+            SeekableByteChannel chunkChannel = GZipIndexedChannel.reopen(channel, fileName);
+            try {
+                MAVLinkStream chunkStream = new MAVLinkStream(schema, chunkChannel);
+                MAVLinkMessage msg = new MAVLinkMessage(schema);
+                chunkStream.position(start);
+                while (true) {
+                    long pos = chunkStream.position();
+                    if (!chunkStream.read(msg)) {
+                        break;
+                    }
+                    long msgStart = chunkStream.position() - msg.getFrameLength();
+                    if (msgStart >= limit) {
+                        chunk.end = msgStart;
+                        break;
+                    }
+                    if (chunk.start < 0) {
+                        chunk.start = msgStart;
+                    }
+                    processStatistics(chunk.stats, msg, pos);
+                }
+            } finally {
+                chunkChannel.close();
+            }
+        } catch (Exception e) {
+            chunk.error = e;
+        }
+        return chunk;
+    }
+
+    private static RuntimeException rethrow(Throwable e) throws IOException, FormatErrorException {
+        if (e instanceof IOException) {
+            throw (IOException) e;
+        } else if (e instanceof FormatErrorException) {
+            throw (FormatErrorException) e;
+        } else if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        }
+        throw new RuntimeException(e);
+    }
+
+    private void processStatistics(Statistics stats, MAVLinkMessage msg, long pos) {
+        long t = getTime(msg);
+        if (t >= 0) {
+            if (stats.timeStart < 0) {
+                stats.timeStart = t;
+            }
+            if (t > stats.timeEnd) {
+                stats.timeEnd = t;
+            }
+            stats.packetsNum++;
+            if (stats.timeIndex.size() == 0 || pos - stats.timeIndex.getLastOffset() >= TIME_INDEX_INTERVAL) {
+                stats.timeIndex.add(stats.timeEnd, pos);
+            }
+        }
+
+        if (msg.getMsgName().equals("PARAM_VALUE")) {
+            stats.parameters.put("M" + msg.getSystemID() + ":" + msg.getString("param_id"), parseMavlinkParameter(msg));
+        } else if (!skipMsgs.contains(msg.getMsgID())) {
+            int key = ((msg.getSystemID() & 0xFF) << 8) | msg.getMsgID();
+            if (!stats.messagesSysIDs[key]) {
+                stats.messagesSysIDs[key] = true;
+                addMessageFormat(stats.fieldsFormats, msg);
+            }
+            if (stats.fieldStatistics != null) {
+                processFieldStatistics(stats, msg, key);
+            }
+        }
+    }
+
+    private static void processFieldStatistics(Statistics stats, MAVLinkMessage msg, int key) {
+        MAVLinkField[] msgFields = msg.getDefinition().fields;
+        FieldStatistics[] fieldStatistics = stats.messagesFieldStatistics[key];
+        if (fieldStatistics == null) {
+            fieldStatistics = new FieldStatistics[msgFields.length];
+            for (int i = 0; i < msgFields.length; i++) {
+                // Only numeric scalar fields
+                if (msgFields[i].arraySize == 1 && msgFields[i].type != MAVLinkDataType.CHAR) {
+                    fieldStatistics[i] = new FieldStatistics();
+                    stats.fieldStatistics.put(fieldName(msg, msgFields[i]), fieldStatistics[i]);
+                }
+            }
+            stats.messagesFieldStatistics[key] = fieldStatistics;
+        }
+        for (int i = 0; i < fieldStatistics.length; i++) {
+            if (fieldStatistics[i] != null) {
+                fieldStatistics[i].add(msg.getDouble(msgFields[i]));
+            }
+        }
+    }
+
+    /**
+     * Merge statistics of chunks in order of the log and apply it to the reader. Parameters and formats are keyed
+     * by system ID, so values from later chunks override earlier ones as on sequential scan.
+     */
+    private void applyStatistics(List<Statistics> chunks) {
+        long packetsNum = 0;
+        long timeStart = -1;
+        long timeEnd = -1;
+        timeIndex.clear();
+        for (Statistics stats : chunks) {
+            packetsNum += stats.packetsNum;
+            if (timeStart < 0) {
+                timeStart = stats.timeStart;
+            }
+            // Keys of the index must include timestamps of previous chunks
+            for (int i = 0; i < stats.timeIndex.size(); i++) {
+                long offset = stats.timeIndex.getOffset(i);
+                if (timeIndex.size() == 0 || offset - timeIndex.getLastOffset() >= TIME_INDEX_INTERVAL) {
+                    timeIndex.add(Math.max(timeEnd, stats.timeIndex.getTime(i)), offset);
+                }
+            }
+            if (stats.timeEnd > timeEnd) {
+                timeEnd = stats.timeEnd;
+            }
+            parameters.putAll(stats.parameters);
+            fieldsFormats.putAll(stats.fieldsFormats);
+        }
+        if (fieldStatisticsEnabled) {
+            fieldStatistics = new HashMap<String, FieldStatistics>();
+            for (Statistics stats : chunks) {
+                for (Map.Entry<String, FieldStatistics> entry : stats.fieldStatistics.entrySet()) {
+                    if (entry.getValue().getCount() == 0) {
+                        continue;
+                    }
+                    FieldStatistics fieldStats = fieldStatistics.get(entry.getKey());
+                    if (fieldStats == null) {
+                        fieldStatistics.put(entry.getKey(), entry.getValue());
+                    } else {
+                        fieldStats.merge(entry.getValue());
+                    }
                 }
             }
         }
         startMicroseconds = timeStart;
         sizeUpdates = packetsNum;
         sizeMicroseconds = timeEnd - timeStart;
-        seek(0);
     }
 
     private long getTime(MAVLinkMessage msg) {
         MAVLinkField field;
-        field = msg.definition.fieldsByName.get("time_usec");
+        field = msg.getDefinition().fieldsByName.get("time_usec");
         if (field != null) {
-            return ((Number) msg.get(field)).longValue();
+            return msg.getLong(field);
         }
-        field = msg.definition.fieldsByName.get("time_boot_ms");
+        field = msg.getDefinition().fieldsByName.get("time_boot_ms");
         if (field != null) {
-            return ((Number) msg.get(field)).longValue() * 1000;
+            return msg.getLong(field) * 1000;
         }
         return -1;
     }
@@ -187,14 +543,118 @@ public class MAVLinkLogReader implements LogReader {
         if (msg == null) {
             throw new EOFException();
         }
-        for (MAVLinkField field : msg.definition.fields) {
+        for (MAVLinkField field : msg.getDefinition().fields) {
             update.put(fieldName(msg, field), msg.get(field));
+        }
+        long t = getTime(msg);
+        if (t >= 0 && t > time) {
+            time = t;
+        }
+        return time;
+    }
+
+    /**
+     * Read the next message of the log into reusable message view, e.g. for replay of the log.
+     *
+     * @param msg message view to fill, valid until the next read
+     * @return time of the message or the last time of the log if the message has no timestamp
+     * @throws EOFException at the end of the log
+     * @throws IOException  on IO error
+     */
+    public long readMessage(MAVLinkMessage msg) throws IOException {
+        if (!stream.read(msg)) {
+            throw new EOFException();
+        }
+        long t = getTime(msg);
+        if (t >= 0 && t > time) {
+            time = t;
+        }
+        return time;
+    }
+
+    @Override
+    public long readUpdate(LogUpdate update) throws IOException, FormatErrorException {
+        update.clearChanged();
+        if (updateMsg == null) {
+            updateMsg = new MAVLinkMessage(schema);
+        }
+        if (update != boundUpdate) {
+            boundUpdate = update;
+            updatePlans = new int[256 * 256][];
+        }
+        MAVLinkMessage msg = updateMsg;
+        if (!stream.read(msg)) {
+            throw new EOFException();
+        }
+        // Field IDs by system ID and message ID
+        int key = ((msg.getSystemID() & 0xFF) << 8) | msg.getMsgID();
+        int[] fieldIds = updatePlans[key];
+        if (fieldIds == null) {
+            MAVLinkField[] msgFields = msg.getDefinition().fields;
+            fieldIds = new int[msgFields.length];
+            for (int i = 0; i < msgFields.length; i++) {
+                // Only numeric scalar fields
+                if (msgFields[i].arraySize == 1 && msgFields[i].type != MAVLinkDataType.CHAR) {
+                    fieldIds[i] = update.getFieldId(fieldName(msg, msgFields[i]));
+                } else {
+                    fieldIds[i] = -1;
+                }
+            }
+            updatePlans[key] = fieldIds;
+        }
+        for (int i = 0; i < fieldIds.length; i++) {
+            if (fieldIds[i] >= 0) {
+                update.set(fieldIds[i], msg.getDouble(msg.getDefinition().fields[i]));
+            }
+        }
+        long t = getTime(msg);
+        if (t >= 0 && t > time) {
+            time = t;
+        }
+        return time;
+    }
+
+    @Override
+    public Map<String, LogColumn> readColumns(Collection<String> fields) throws IOException, FormatErrorException {
+        Map<String, LogColumn> columns = new HashMap<String, LogColumn>();
+        for (String field : fields) {
+            columns.put(field, new LogColumn(field));
+        }
+        // Columns by system ID and message ID, empty array if no fields of the message requested
+        LogColumn[][] plans = new LogColumn[256 * 256][];
+        LogColumn[] noColumns = new LogColumn[0];
+        MAVLinkMessage msg = new MAVLinkMessage(schema);
+        seek(0);
+        while (stream.read(msg)) {
+            int key = ((msg.getSystemID() & 0xFF) << 8) | msg.getMsgID();
+            LogColumn[] plan = plans[key];
+            if (plan == null) {
+                plan = noColumns;
+                MAVLinkField[] msgFields = msg.getDefinition().fields;
+                for (int i = 0; i < msgFields.length; i++) {
+                    LogColumn column = columns.get(fieldName(msg, msgFields[i]));
+                    // Only numeric scalar fields
+                    if (column != null && msgFields[i].arraySize == 1 && msgFields[i].type != MAVLinkDataType.CHAR) {
+                        if (plan == noColumns) {
+                            plan = new LogColumn[msgFields.length];
+                        }
+                        plan[i] = column;
+                    }
+                }
+                plans[key] = plan;
+            }
             long t = getTime(msg);
             if (t >= 0 && t > time) {
                 time = t;
             }
+            for (int i = 0; i < plan.length; i++) {
+                if (plan[i] != null) {
+                    plan[i].add(time, msg.getDouble(msg.getDefinition().fields[i]));
+                }
+            }
         }
-        return time;
+        seek(0);
+        return columns;
     }
 
     @Override
@@ -202,6 +662,11 @@ public class MAVLinkLogReader implements LogReader {
         return fieldsFormats;
     }
 
+    @Override
+    public Map<String, FieldStatistics> getFieldStatistics() {
+        return fieldStatistics;
+    }
+
     @Override
     public String getFormat() {
         return "MAVLink";
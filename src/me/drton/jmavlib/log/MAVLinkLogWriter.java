@@ -0,0 +1,80 @@
+package me.drton.jmavlib.log;
+
+import me.drton.jmavlib.mavlink.MAVLinkMessage;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Writer of MAVLink logs readable by {@link MAVLinkLogReader}. Messages are encoded in the caller thread and written
+ * asynchronously by {@link AsyncLogWriter}, so writing never blocks. Sequence numbers of messages are kept.
+ * Optionally each frame is prefixed by big-endian timestamp in us as in QGroundControl "tlog" files.
+ * <p/>
+ * User: ton Date: 18.10.26 Time: 12:40
+ */
+public class MAVLinkLogWriter {
+    private final AsyncLogWriter writer;
+    private final boolean timestamps;
+
+    public MAVLinkLogWriter(String fileName) throws IOException {
+        this(fileName, false, AsyncLogWriter.DEFAULT_MAX_QUEUED_BYTES);
+    }
+
+    /**
+     * Create log file.
+     *
+     * @param fileName       log file name, existing file is overwritten
+     * @param timestamps     prefix frames with timestamps, not supported by {@link MAVLinkLogReader}
+     * @param maxQueuedBytes max size of messages waiting for writing, see {@link AsyncLogWriter}
+     * @throws IOException on IO error
+     */
+    public MAVLinkLogWriter(String fileName, boolean timestamps, long maxQueuedBytes) throws IOException {
+        this.writer = new AsyncLogWriter(new FileOutputStream(fileName).getChannel(), maxQueuedBytes);
+        this.timestamps = timestamps;
+    }
+
+    /**
+     * Write message with current time, never blocks. Message is dropped if too many messages are waiting for writing.
+     *
+     * @param msg message, may be a view, it's encoded before return
+     * @return true if message queued or false if it was dropped
+     */
+    public boolean write(MAVLinkMessage msg) {
+        return write(msg, System.currentTimeMillis() * 1000);
+    }
+
+    /**
+     * Write message with specified timestamp, timestamp is ignored if timestamps are disabled.
+     *
+     * @param msg  message, may be a view, it's encoded before return
+     * @param time timestamp in us
+     * @return true if message queued or false if it was dropped
+     */
+    public boolean write(MAVLinkMessage msg, long time) {
+        ByteBuffer buffer = ByteBuffer.allocate((timestamps ? 8 : 0) + msg.getFrameLength());
+        if (timestamps) {
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            buffer.putLong(time);
+        }
+        msg.encode(buffer, msg.getSequence());
+        buffer.flip();
+        return writer.write(buffer, false);
+    }
+
+    /**
+     * Get number of messages dropped because of queue overflow or write error.
+     */
+    public long getDroppedMessages() {
+        return writer.getDroppedMessages();
+    }
+
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    public void close() throws IOException {
+        writer.close();
+    }
+}
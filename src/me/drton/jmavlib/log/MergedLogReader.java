@@ -0,0 +1,443 @@
+package me.drton.jmavlib.log;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Reader merging several logs by time, e.g. parts of one flight or logs of autopilot and companion computer.
+ * Updates of all logs are returned in order of timestamps using k-way merge on heap of sources, each source reads
+ * several updates ahead. Fields of each log are prefixed to avoid conflicts, timestamps may be shifted by time offset
+ * of the source.
+ * <p/>
+ * Reading to maps and to update records should not be mixed without seek in between.
+ * <p/>
+ * User: ton Date: 18.10.26 Time: 14:20
+ */
+public class MergedLogReader extends AbstractLogReader {
+    private static final int READ_AHEAD = 64;
+
+    private final List<Source> sources = new ArrayList<Source>();
+    private final PriorityQueue<Source> heap = new PriorityQueue<Source>();
+    private final Map<String, String> fieldsFormats = new HashMap<String, String>();
+    private Boolean recordMode = null;
+    private LogUpdate boundUpdate = null;
+
+    /**
+     * Source log with its read-ahead buffer.
+     */
+    private static class Source implements Comparable<Source> {
+        final int idx;
+        final LogReader reader;
+        final String prefix;
+        final long timeOffset;
+        final Map<String, String> prefixedKeys = new HashMap<String, String>();
+        // Read-ahead buffer for reading to maps
+        final List<Map<String, Object>> updates = new ArrayList<Map<String, Object>>(READ_AHEAD);
+        final long[] times = new long[READ_AHEAD];
+        int head = 0;
+        int size = 0;
+        // Pending update for reading to update records
+        LogUpdate update = null;
+        int[] fieldIds = null;
+        long updateTime = 0;
+        // Time of the next update, key of the heap
+        long nextTime = 0;
+        boolean eof = false;
+
+        Source(int idx, LogReader reader, String prefix, long timeOffset) {
+            this.idx = idx;
+            this.reader = reader;
+            this.prefix = prefix;
+            this.timeOffset = timeOffset;
+        }
+
+        String prefixed(String key) {
+            String prefixedKey = prefixedKeys.get(key);
+            if (prefixedKey == null) {
+                prefixedKey = prefix + key;
+                prefixedKeys.put(key, prefixedKey);
+            }
+            return prefixedKey;
+        }
+
+        /**
+         * Move to the next update in read-ahead buffer.
+         *
+         * @return false if no more updates
+         */
+        boolean next() throws IOException, FormatErrorException {
+            head++;
+            if (head < size) {
+                nextTime = times[head];
+                return true;
+            }
+            return fill();
+        }
+
+        /**
+         * Read next block of updates to maps.
+         *
+         * @return false if no more updates
+         */
+        boolean fill() throws IOException, FormatErrorException {
+            head = 0;
+            size = 0;
+            while (size < READ_AHEAD && !eof) {
+                Map<String, Object> update;
+                if (size < updates.size()) {
+                    update = updates.get(size);
+                    update.clear();
+                } else {
+                    update = new HashMap<String, Object>();
+                    updates.add(update);
+                }
+                try {
+                    times[size] = reader.readUpdate(update) + timeOffset;
+                    size++;
+                } catch (EOFException e) {
+                    eof = true;
+                }
+            }
+            nextTime = times[0];
+            return size > 0;
+        }
+
+        /**
+         * Read next update to pending update record.
+         *
+         * @return false if no more updates
+         */
+        boolean readRecord() throws IOException, FormatErrorException {
+            if (eof) {
+                return false;
+            }
+            try {
+                updateTime = AbstractLogReader.readUpdate(reader, update) + timeOffset;
+                nextTime = updateTime;
+                return true;
+            } catch (EOFException e) {
+                eof = true;
+                return false;
+            }
+        }
+
+        @Override
+        public int compareTo(Source other) {
+            if (nextTime != other.nextTime) {
+                return nextTime < other.nextTime ? -1 : 1;
+            }
+            return idx - other.idx;
+        }
+    }
+
+    /**
+     * Create merged reader of logs with prefixes and without time offsets.
+     *
+     * @param readers  readers of logs, closed on {@link #close()}
+     * @param prefixes prefixes of fields of each log, e.g. "FCU." and "CC.", may be empty strings
+     */
+    public MergedLogReader(List<? extends LogReader> readers, List<String> prefixes)
+            throws IOException, FormatErrorException {
+        this(readers, prefixes, new long[readers.size()]);
+    }
+
+    /**
+     * Create merged reader of logs.
+     *
+     * @param readers     readers of logs, closed on {@link #close()}
+     * @param prefixes    prefixes of fields of each log, e.g. "FCU." and "CC.", may be empty strings
+     * @param timeOffsets time offsets in us added to timestamps of each log
+     */
+    public MergedLogReader(List<? extends LogReader> readers, List<String> prefixes, long[] timeOffsets)
+            throws IOException, FormatErrorException {
+        if (readers.size() != prefixes.size() || readers.size() != timeOffsets.length) {
+            throw new IllegalArgumentException("Readers, prefixes and time offsets must be of the same size");
+        }
+        for (int i = 0; i < readers.size(); i++) {
+            Source source = new Source(i, readers.get(i), prefixes.get(i), timeOffsets[i]);
+            sources.add(source);
+            for (Map.Entry<String, String> entry : source.reader.getFields().entrySet()) {
+                fieldsFormats.put(source.prefixed(entry.getKey()), entry.getValue());
+            }
+        }
+        seek(0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException error = null;
+        for (Source source : sources) {
+            try {
+                source.reader.close();
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    @Override
+    public boolean seek(long time) throws IOException, FormatErrorException {
+        boolean found = false;
+        for (Source source : sources) {
+            long sourceTime = time == 0 ? 0 : Math.max(0, time - source.timeOffset);
+            if (source.reader.seek(sourceTime)) {
+                found = true;
+            }
+            source.eof = false;
+            source.head = 0;
+            source.size = 0;
+        }
+        heap.clear();
+        recordMode = null;
+        return found;
+    }
+
+    private void startMode(boolean record) throws IOException, FormatErrorException {
+        if (recordMode != null) {
+            if (recordMode != record) {
+                throw new IllegalStateException("Reading to maps and to update records can't be mixed without seek");
+            }
+            return;
+        }
+        recordMode = record;
+        for (Source source : sources) {
+            if (record ? source.readRecord() : source.fill()) {
+                heap.add(source);
+            }
+        }
+    }
+
+    @Override
+    public long readUpdate(Map<String, Object> update) throws IOException, FormatErrorException {
+        startMode(false);
+        Source source = heap.poll();
+        if (source == null) {
+            throw new EOFException();
+        }
+        long t = source.times[source.head];
+        for (Map.Entry<String, Object> entry : source.updates.get(source.head).entrySet()) {
+            update.put(source.prefixed(entry.getKey()), entry.getValue());
+        }
+        if (source.next()) {
+            heap.add(source);
+        }
+        return t;
+    }
+
+    @Override
+    public long readUpdate(LogUpdate update) throws IOException, FormatErrorException {
+        if (update != boundUpdate) {
+            if (recordMode != null && recordMode) {
+                throw new IllegalStateException("Update record can't be changed without seek");
+            }
+            // Bind merged record to records of sources
+            boundUpdate = update;
+            for (Source source : sources) {
+                List<String> fields = new ArrayList<String>(source.reader.getFields().keySet());
+                source.update = new LogUpdate(fields);
+                source.fieldIds = new int[fields.size()];
+                for (int i = 0; i < fields.size(); i++) {
+                    source.fieldIds[i] = update.getFieldId(source.prefixed(fields.get(i)));
+                }
+            }
+        }
+        startMode(true);
+        update.clearChanged();
+        Source source = heap.poll();
+        if (source == null) {
+            throw new EOFException();
+        }
+        long t = source.updateTime;
+        LogUpdate sourceUpdate = source.update;
+        for (int id = sourceUpdate.nextChanged(0); id >= 0; id = sourceUpdate.nextChanged(id + 1)) {
+            int mergedId = source.fieldIds[id];
+            if (mergedId >= 0) {
+                update.set(mergedId, sourceUpdate.getValue(id));
+            }
+        }
+        if (source.readRecord()) {
+            heap.add(source);
+        }
+        return t;
+    }
+
+    @Override
+    public Map<String, LogColumn> readColumns(Collection<String> fields) throws IOException, FormatErrorException {
+        Map<String, LogColumn> columns = new HashMap<String, LogColumn>();
+        for (Source source : sources) {
+            // Fields of the source without prefix
+            Map<String, String> sourceFields = new HashMap<String, String>();
+            for (String field : fields) {
+                if (field.startsWith(source.prefix)) {
+                    String sourceField = field.substring(source.prefix.length());
+                    if (source.reader.getFields().containsKey(sourceField)) {
+                        sourceFields.put(sourceField, field);
+                    }
+                }
+            }
+            if (sourceFields.isEmpty()) {
+                continue;
+            }
+            Map<String, LogColumn> sourceColumns = AbstractLogReader.readColumns(source.reader, sourceFields.keySet());
+            for (Map.Entry<String, LogColumn> entry : sourceColumns.entrySet()) {
+                LogColumn sourceColumn = entry.getValue();
+                LogColumn column = new LogColumn(sourceFields.get(entry.getKey()), sourceColumn.size());
+                for (int i = 0; i < sourceColumn.size(); i++) {
+                    column.add(sourceColumn.getTime(i) + source.timeOffset, sourceColumn.getValue(i));
+                }
+                LogColumn prevColumn = columns.get(column.getName());
+                if (prevColumn != null) {
+                    // Sources with the same prefix, e.g. one flight split to several logs
+                    column = mergeColumns(prevColumn, column);
+                }
+                columns.put(column.getName(), column);
+            }
+        }
+        for (String field : fields) {
+            if (!columns.containsKey(field)) {
+                columns.put(field, new LogColumn(field, 0));
+            }
+        }
+        seek(0);
+        return columns;
+    }
+
+    /**
+     * Merge columns ordered by time, on equal time points of the first column go first as in {@link #readUpdate(Map)}.
+     */
+    private static LogColumn mergeColumns(LogColumn column1, LogColumn column2) {
+        LogColumn column = new LogColumn(column1.getName(), column1.size() + column2.size());
+        int i1 = 0;
+        int i2 = 0;
+        while (i1 < column1.size() || i2 < column2.size()) {
+            if (i2 == column2.size() || (i1 < column1.size() && column1.getTime(i1) <= column2.getTime(i2))) {
+                column.add(column1.getTime(i1), column1.getValue(i1));
+                i1++;
+            } else {
+                column.add(column2.getTime(i2), column2.getValue(i2));
+                i2++;
+            }
+        }
+        return column;
+    }
+
+    @Override
+    public Map<String, String> getFields() {
+        return fieldsFormats;
+    }
+
+    @Override
+    public String getFormat() {
+        return "Merged";
+    }
+
+    @Override
+    public long getSizeUpdates() {
+        long size = 0;
+        for (Source source : sources) {
+            size += source.reader.getSizeUpdates();
+        }
+        return size;
+    }
+
+    @Override
+    public long getStartMicroseconds() {
+        long start = -1;
+        for (Source source : sources) {
+            if (source.reader.getStartMicroseconds() >= 0) {
+                long t = source.reader.getStartMicroseconds() + source.timeOffset;
+                if (start < 0 || t < start) {
+                    start = t;
+                }
+            }
+        }
+        return start;
+    }
+
+    @Override
+    public long getSizeMicroseconds() {
+        long start = getStartMicroseconds();
+        long end = start;
+        for (Source source : sources) {
+            if (source.reader.getStartMicroseconds() >= 0) {
+                long t = source.reader.getStartMicroseconds() + source.reader.getSizeMicroseconds() +
+                        source.timeOffset;
+                if (t > end) {
+                    end = t;
+                }
+            }
+        }
+        return end - start;
+    }
+
+    @Override
+    public long getUTCTimeReferenceMicroseconds() {
+        // Use the first log with time reference
+        for (Source source : sources) {
+            long utc = source.reader.getUTCTimeReferenceMicroseconds();
+            if (utc >= 0) {
+                return utc - source.timeOffset;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public Map<String, FieldStatistics> getFieldStatistics() {
+        Map<String, FieldStatistics> merged = null;
+        for (Source source : sources) {
+            Map<String, FieldStatistics> fieldStatistics = AbstractLogReader.getFieldStatistics(source.reader);
+            if (fieldStatistics != null) {
+                if (merged == null) {
+                    merged = new HashMap<String, FieldStatistics>();
+                }
+                for (Map.Entry<String, FieldStatistics> entry : fieldStatistics.entrySet()) {
+                    String key = source.prefixed(entry.getKey());
+                    FieldStatistics stats = merged.get(key);
+                    if (stats == null) {
+                        // Copy to not modify statistics of the source when merging sources with the same prefix
+                        stats = new FieldStatistics();
+                        merged.put(key, stats);
+                    }
+                    stats.merge(entry.getValue());
+                }
+            }
+        }
+        return merged;
+    }
+
+    @Override
+    public Map<String, Object> getVersion() {
+        return mergeMaps(true);
+    }
+
+    @Override
+    public Map<String, Object> getParameters() {
+        return mergeMaps(false);
+    }
+
+    private Map<String, Object> mergeMaps(boolean version) {
+        Map<String, Object> merged = null;
+        for (Source source : sources) {
+            Map<String, Object> map = version ? source.reader.getVersion() : source.reader.getParameters();
+            if (map != null) {
+                if (merged == null) {
+                    merged = new HashMap<String, Object>();
+                }
+                for (Map.Entry<String, Object> entry : map.entrySet()) {
+                    merged.put(source.prefix + entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        return merged;
+    }
+}
@@ -0,0 +1,25 @@
+package me.drton.jmavlib.log;
+
+/**
+ * Handler of messages for parallel scanning of PX4/APM log by chunks, see {@link PX4LogReader#scanChunks}. Chunks are
+ * processed concurrently, each chunk has own result object, results are returned in order of chunks for merging.
+ * <p/>
+ * User: ton Date: 17.10.26 Time: 22:05
+ */
+public interface PX4LogChunkHandler<R> {
+    /**
+     * Create empty result for a chunk.
+     *
+     * @return result object
+     */
+    R createResult();
+
+    /**
+     * Process message, messages of each chunk are processed sequentially in order of the log.
+     *
+     * @param result   result of the chunk
+     * @param msg      message
+     * @param position position of the message in the log
+     */
+    void processMessage(R result, PX4LogMessage msg, long position);
+}
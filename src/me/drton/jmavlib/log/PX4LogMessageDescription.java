@@ -19,6 +19,26 @@ public class PX4LogMessageDescription {
     public final String format;
     public final String[] fields;
     public final Map<String, Integer> fieldsMap = new HashMap<String, Integer>();
+    // Compiled format: type and offset in message body of each field
+    private final int[] fieldTypes;
+    private final int[] fieldOffsets;
+    private final int bodySize;
+
+    private static final int TYPE_INVALID = 0;
+    private static final int TYPE_FLOAT = 1;
+    private static final int TYPE_INT64 = 2;
+    private static final int TYPE_INT32 = 3;
+    private static final int TYPE_UINT32 = 4;
+    private static final int TYPE_INT8 = 5;
+    private static final int TYPE_UINT8 = 6;
+    private static final int TYPE_LATLON = 7;
+    private static final int TYPE_INT16 = 8;
+    private static final int TYPE_UINT16 = 9;
+    private static final int TYPE_INT16_CENTI = 10;
+    private static final int TYPE_UINT16_CENTI = 11;
+    private static final int TYPE_INT32_CENTI = 12;
+    private static final int TYPE_UINT32_CENTI = 13;
+    private static final int TYPE_STRING = 14;
 
     public PX4LogMessageDescription(int type, int length, String name, String format, String[] fields) {
         this.type = type;
@@ -26,13 +46,35 @@ public class PX4LogMessageDescription {
         this.name = name;
         this.format = format;
         this.fields = fields;
+        if (!"FMT".equals(name)) {
+            for (int i = 0; i < fields.length; i++) {
+                fieldsMap.put(fields[i], i);
+            }
+        }
+        fieldTypes = new int[format.length()];
+        fieldOffsets = new int[format.length()];
+        bodySize = compile();
     }
 
     private static String getString(ByteBuffer buffer, int len) {
-        byte[] strBuf = new byte[len];
-        buffer.get(strBuf);
-        String[] p = new String(strBuf, charset).split("\0");
-        return p.length > 0 ? p[0] : "";
+        String s = decodeString(buffer, buffer.position(), len);
+        buffer.position(buffer.position() + len);
+        return s;
+    }
+
+    /**
+     * Decode zero-terminated string, absolute read.
+     */
+    private static String decodeString(ByteBuffer buffer, int offset, int len) {
+        int n = 0;
+        while (n < len && buffer.get(offset + n) != 0) {
+            n++;
+        }
+        byte[] strBuf = new byte[n];
+        for (int i = 0; i < n; i++) {
+            strBuf[i] = buffer.get(offset + i);
+        }
+        return new String(strBuf, charset);
     }
 
     public PX4LogMessageDescription(ByteBuffer buffer) {
@@ -51,52 +93,345 @@ public class PX4LogMessageDescription {
                 fieldsMap.put(fields[i], i);
             }
         }
+        fieldTypes = new int[format.length()];
+        fieldOffsets = new int[format.length()];
+        bodySize = compile();
     }
 
-    public PX4LogMessage parseMessage(ByteBuffer buffer) {
-        List<Object> data = new ArrayList<Object>(format.length());
-        for (char f : format.toCharArray()) {
-            Object v;
-            if (f == 'f') {
-                v = buffer.getFloat();
-            } else if (f == 'q' || f == 'Q') {
-                v = buffer.getLong();
-            } else if (f == 'i') {
-                v = buffer.getInt();
-            } else if (f == 'I') {
-                v = buffer.getInt() & 0xFFFFFFFFl;
-            } else if (f == 'b') {
-                v = (int) buffer.get();
-            } else if (f == 'B' || f == 'M') {
-                v = buffer.get() & 0xFF;
-            } else if (f == 'L') {
-                v = buffer.getInt() * 1e-7;
-            } else if (f == 'h') {
-                v = (int) buffer.getShort();
-            } else if (f == 'H') {
-                v = buffer.getShort() & 0xFFFF;
-            } else if (f == 'n') {
-                v = getString(buffer, 4);
-            } else if (f == 'N') {
-                v = getString(buffer, 16);
-            } else if (f == 'Z') {
-                v = getString(buffer, 64);
-            } else if (f == 'c') {
-                v = (int) buffer.getShort() * 1e-2;
-            } else if (f == 'C') {
-                v = (buffer.getShort() & 0xFFFF) * 1e-2;
-            } else if (f == 'e') {
-                v = buffer.getInt() * 1e-2;
-            } else if (f == 'E') {
-                v = (buffer.getInt() & 0xFFFFFFFFl) * 1e-2;
-            } else {
-                throw new RuntimeException("Invalid format char in message " + name + ": " + f);
+    /**
+     * Compile format to types and offsets of fields.
+     *
+     * @return size of message body or -1 if format contains invalid chars
+     */
+    private int compile() {
+        int offset = 0;
+        for (int i = 0; i < fieldTypes.length; i++) {
+            int fieldType;
+            int size;
+            switch (format.charAt(i)) {
+                case 'f':
+                    fieldType = TYPE_FLOAT;
+                    size = 4;
+                    break;
+                case 'q':
+                case 'Q':
+                    fieldType = TYPE_INT64;
+                    size = 8;
+                    break;
+                case 'i':
+                    fieldType = TYPE_INT32;
+                    size = 4;
+                    break;
+                case 'I':
+                    fieldType = TYPE_UINT32;
+                    size = 4;
+                    break;
+                case 'b':
+                    fieldType = TYPE_INT8;
+                    size = 1;
+                    break;
+                case 'B':
+                case 'M':
+                    fieldType = TYPE_UINT8;
+                    size = 1;
+                    break;
+                case 'L':
+                    fieldType = TYPE_LATLON;
+                    size = 4;
+                    break;
+                case 'h':
+                    fieldType = TYPE_INT16;
+                    size = 2;
+                    break;
+                case 'H':
+                    fieldType = TYPE_UINT16;
+                    size = 2;
+                    break;
+                case 'n':
+                    fieldType = TYPE_STRING;
+                    size = 4;
+                    break;
+                case 'N':
+                    fieldType = TYPE_STRING;
+                    size = 16;
+                    break;
+                case 'Z':
+                    fieldType = TYPE_STRING;
+                    size = 64;
+                    break;
+                case 'c':
+                    fieldType = TYPE_INT16_CENTI;
+                    size = 2;
+                    break;
+                case 'C':
+                    fieldType = TYPE_UINT16_CENTI;
+                    size = 2;
+                    break;
+                case 'e':
+                    fieldType = TYPE_INT32_CENTI;
+                    size = 4;
+                    break;
+                case 'E':
+                    fieldType = TYPE_UINT32_CENTI;
+                    size = 4;
+                    break;
+                default:
+                    fieldType = TYPE_INVALID;
+                    size = 0;
+                    break;
+            }
+            fieldTypes[i] = fieldType;
+            fieldOffsets[i] = offset;
+            if (fieldType == TYPE_INVALID) {
+                // Fields after invalid char can't be decoded
+                for (int j = i + 1; j < fieldTypes.length; j++) {
+                    fieldTypes[j] = TYPE_INVALID;
+                }
+                return -1;
             }
-            data.add(v);
+            offset += size;
+        }
+        return offset;
+    }
+
+    private int checkField(int idx) {
+        int fieldType = fieldTypes[idx];
+        if (fieldType == TYPE_INVALID) {
+            throw new RuntimeException("Invalid format char in message " + name + ": " + format.charAt(idx));
+        }
+        return fieldType;
+    }
+
+    /**
+     * Get size of message body.
+     *
+     * @return size of message body or -1 if format contains invalid chars
+     */
+    public int getBodySize() {
+        return bodySize;
+    }
+
+    public PX4LogMessage parseMessage(ByteBuffer buffer) {
+        int offset = buffer.position();
+        List<Object> data = new ArrayList<Object>(fieldTypes.length);
+        for (int i = 0; i < fieldTypes.length; i++) {
+            data.add(getValue(buffer, offset, i));
         }
+        buffer.position(offset + bodySize);
         return new PX4LogMessage(this, data);
     }
 
+    /**
+     * Get value of field as object of the same type as in {@link #parseMessage(ByteBuffer)}.
+     *
+     * @param buffer buffer containing the message, position of the buffer is not changed
+     * @param offset position of message body in the buffer
+     * @param idx    field index
+     * @return field value
+     */
+    public Object getValue(ByteBuffer buffer, int offset, int idx) {
+        int p = offset + fieldOffsets[idx];
+        switch (checkField(idx)) {
+            case TYPE_FLOAT:
+                return buffer.getFloat(p);
+            case TYPE_INT64:
+                return buffer.getLong(p);
+            case TYPE_INT32:
+                return buffer.getInt(p);
+            case TYPE_UINT32:
+                return buffer.getInt(p) & 0xFFFFFFFFl;
+            case TYPE_INT8:
+                return (int) buffer.get(p);
+            case TYPE_UINT8:
+                return buffer.get(p) & 0xFF;
+            case TYPE_INT16:
+                return (int) buffer.getShort(p);
+            case TYPE_UINT16:
+                return buffer.getShort(p) & 0xFFFF;
+            case TYPE_STRING:
+                return getString(buffer, offset, idx);
+            default:
+                return getDouble(buffer, offset, idx);
+        }
+    }
+
+    /**
+     * Get value of numeric field without parsing of the whole message.
+     *
+     * @param buffer buffer containing the message, position of the buffer is not changed
+     * @param offset position of message body in the buffer
+     * @param idx    field index
+     * @return field value or NaN for string fields
+     */
+    public double getDouble(ByteBuffer buffer, int offset, int idx) {
+        int p = offset + fieldOffsets[idx];
+        switch (checkField(idx)) {
+            case TYPE_FLOAT:
+                return buffer.getFloat(p);
+            case TYPE_LATLON:
+                return buffer.getInt(p) * 1e-7;
+            case TYPE_INT16_CENTI:
+                return (int) buffer.getShort(p) * 1e-2;
+            case TYPE_UINT16_CENTI:
+                return (buffer.getShort(p) & 0xFFFF) * 1e-2;
+            case TYPE_INT32_CENTI:
+                return buffer.getInt(p) * 1e-2;
+            case TYPE_UINT32_CENTI:
+                return (buffer.getInt(p) & 0xFFFFFFFFl) * 1e-2;
+            case TYPE_STRING:
+                return Double.NaN;
+            default:
+                return getLong(buffer, offset, idx);
+        }
+    }
+
+    /**
+     * Get value of integer field without parsing of the whole message, values of other fields are truncated.
+     *
+     * @param buffer buffer containing the message, position of the buffer is not changed
+     * @param offset position of message body in the buffer
+     * @param idx    field index
+     * @return field value or 0 for string fields
+     */
+    public long getLong(ByteBuffer buffer, int offset, int idx) {
+        int p = offset + fieldOffsets[idx];
+        switch (checkField(idx)) {
+            case TYPE_INT64:
+                return buffer.getLong(p);
+            case TYPE_INT32:
+                return buffer.getInt(p);
+            case TYPE_UINT32:
+                return buffer.getInt(p) & 0xFFFFFFFFl;
+            case TYPE_INT8:
+                return buffer.get(p);
+            case TYPE_UINT8:
+                return buffer.get(p) & 0xFF;
+            case TYPE_INT16:
+                return buffer.getShort(p);
+            case TYPE_UINT16:
+                return buffer.getShort(p) & 0xFFFF;
+            case TYPE_STRING:
+                return 0;
+            default:
+                return (long) getDouble(buffer, offset, idx);
+        }
+    }
+
+    /**
+     * Get value of string field without parsing of the whole message.
+     *
+     * @param buffer buffer containing the message, position of the buffer is not changed
+     * @param offset position of message body in the buffer
+     * @param idx    field index
+     * @return field value, numeric fields are converted to string
+     */
+    public String getString(ByteBuffer buffer, int offset, int idx) {
+        if (checkField(idx) != TYPE_STRING) {
+            return getValue(buffer, offset, idx).toString();
+        }
+        return decodeString(buffer, offset + fieldOffsets[idx], getFieldSize(idx));
+    }
+
+    private int getFieldSize(int idx) {
+        return (idx + 1 < fieldOffsets.length ? fieldOffsets[idx + 1] : bodySize) - fieldOffsets[idx];
+    }
+
+    /**
+     * Encode zero-padded string, absolute write.
+     */
+    private static void encodeString(ByteBuffer buffer, int offset, String s, int len) {
+        byte[] strBuf = s.getBytes(charset);
+        for (int i = 0; i < len; i++) {
+            buffer.put(offset + i, i < strBuf.length ? strBuf[i] : 0);
+        }
+    }
+
+    /**
+     * Encode message body, inverse of {@link #parseMessage(ByteBuffer)}. Numeric fields accept any numbers, scaled
+     * fields (lat/lon and centi-units) are rounded, strings are truncated to the field size.
+     *
+     * @param buffer little-endian buffer, position is moved to the end of the body
+     * @param values values of all fields
+     */
+    public void putMessage(ByteBuffer buffer, Object[] values) {
+        if (bodySize < 0 || values.length != fieldTypes.length) {
+            throw new IllegalArgumentException(String.format("Can't encode message %s, format \"%s\", values %s", name,
+                    format, Arrays.asList(values)));
+        }
+        int offset = buffer.position();
+        for (int i = 0; i < fieldTypes.length; i++) {
+            int p = offset + fieldOffsets[i];
+            Object value = values[i];
+            switch (fieldTypes[i]) {
+                case TYPE_FLOAT:
+                    buffer.putFloat(p, ((Number) value).floatValue());
+                    break;
+                case TYPE_INT64:
+                    buffer.putLong(p, ((Number) value).longValue());
+                    break;
+                case TYPE_INT32:
+                case TYPE_UINT32:
+                    buffer.putInt(p, (int) ((Number) value).longValue());
+                    break;
+                case TYPE_INT8:
+                case TYPE_UINT8:
+                    buffer.put(p, (byte) ((Number) value).intValue());
+                    break;
+                case TYPE_INT16:
+                case TYPE_UINT16:
+                    buffer.putShort(p, (short) ((Number) value).intValue());
+                    break;
+                case TYPE_LATLON:
+                    buffer.putInt(p, (int) Math.round(((Number) value).doubleValue() * 1e7));
+                    break;
+                case TYPE_INT16_CENTI:
+                case TYPE_UINT16_CENTI:
+                    buffer.putShort(p, (short) Math.round(((Number) value).doubleValue() * 100));
+                    break;
+                case TYPE_INT32_CENTI:
+                case TYPE_UINT32_CENTI:
+                    buffer.putInt(p, (int) Math.round(((Number) value).doubleValue() * 100));
+                    break;
+                case TYPE_STRING:
+                    encodeString(buffer, p, String.valueOf(value), getFieldSize(i));
+                    break;
+            }
+        }
+        buffer.position(offset + bodySize);
+    }
+
+    /**
+     * Encode body of "FMT" message describing this message, inverse of {@link #PX4LogMessageDescription(ByteBuffer)}.
+     *
+     * @param buffer little-endian buffer, position is moved to the end of the body
+     */
+    public void putFormat(ByteBuffer buffer) {
+        StringBuilder labels = new StringBuilder();
+        for (String field : fields) {
+            if (labels.length() > 0) {
+                labels.append(",");
+            }
+            labels.append(field);
+        }
+        int offset = buffer.position();
+        buffer.put(offset, (byte) type);
+        buffer.put(offset + 1, (byte) length);
+        encodeString(buffer, offset + 2, name, 4);
+        encodeString(buffer, offset + 6, format, 16);
+        encodeString(buffer, offset + 22, labels.toString(), 64);
+        buffer.position(offset + 86);
+    }
+
+    /**
+     * Check if field is string.
+     *
+     * @param idx field index
+     * @return true if field is string
+     */
+    public boolean isString(int idx) {
+        return fieldTypes[idx] == TYPE_STRING;
+    }
+
     public List<String> getFields() {
         return Arrays.asList(fields);
     }
@@ -0,0 +1,81 @@
+package me.drton.jmavlib.log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reusable PX4/APM log message, see {@link PX4LogReader#readMessage(PX4LogMessageRecord)}. Body of the message is
+ * copied to the record without allocation, fields are decoded on access, strings are decoded only when requested.
+ * <p/>
+ * User: ton Date: 18.10.26 Time: 00:20
+ */
+public class PX4LogMessageRecord {
+    private final ByteBuffer body = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+    private PX4LogMessageDescription description = null;
+
+    void set(PX4LogMessageDescription description, ByteBuffer buffer, int bodyLen) {
+        this.description = description;
+        buffer.get(body.array(), 0, bodyLen);
+    }
+
+    public PX4LogMessageDescription getDescription() {
+        return description;
+    }
+
+    public int getFieldsCount() {
+        return description.format.length();
+    }
+
+    public int getFieldIdx(String field) {
+        Integer idx = description.fieldsMap.get(field);
+        return idx == null ? -1 : idx;
+    }
+
+    public double getDouble(int idx) {
+        return description.getDouble(body, 0, idx);
+    }
+
+    public long getLong(int idx) {
+        return description.getLong(body, 0, idx);
+    }
+
+    public String getString(int idx) {
+        return description.getString(body, 0, idx);
+    }
+
+    /**
+     * Get field value as object, same as {@link PX4LogMessage#get(int)}.
+     *
+     * @param idx field index
+     * @return field value
+     */
+    public Object get(int idx) {
+        return description.getValue(body, 0, idx);
+    }
+
+    public Object get(String field) {
+        Integer idx = description.fieldsMap.get(field);
+        return idx == null ? null : get(idx);
+    }
+
+    /**
+     * Decode all fields to a new message.
+     *
+     * @return message
+     */
+    public PX4LogMessage toMessage() {
+        int n = getFieldsCount();
+        List<Object> data = new ArrayList<Object>(n);
+        for (int i = 0; i < n; i++) {
+            data.add(get(i));
+        }
+        return new PX4LogMessage(description, data);
+    }
+
+    @Override
+    public String toString() {
+        return description == null ? "PX4LogMessageRecord: empty" : toMessage().toString();
+    }
+}
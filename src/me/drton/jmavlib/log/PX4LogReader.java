@@ -1,12 +1,28 @@
 package me.drton.jmavlib.log;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 /**
  * User: ton Date: 03.06.13 Time: 14:18
@@ -15,20 +31,44 @@ public class PX4LogReader extends BinaryLogReader {
     private static final int HEADER_LEN = 3;
     private static final byte HEADER_HEAD1 = (byte) 0xA3;
     private static final byte HEADER_HEAD2 = (byte) 0x95;
+    private static final long TIME_INDEX_INTERVAL = 64 * 1024;
+    private static final long SCAN_PUBLISH_INTERVAL = 1024 * 1024;
+    private static final long MIN_CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final int RESYNC_CHAIN_LENGTH = 4;
+    private static final long ZONE_SIZE = 256 * 1024;
+
+    private String fileName;
 
     private long dataStart = 0;
     private boolean formatPX4 = false;
-    private Map<Integer, PX4LogMessageDescription> messageDescriptions
-            = new HashMap<Integer, PX4LogMessageDescription>();
-    private Map<String, String> fieldsList = null;
+    private PX4LogMessageDescription[] messageDescriptions = new PX4LogMessageDescription[256];
+    private Map<String, String> fieldsList = new HashMap<String, String>();
     private long time = 0;
     private PX4LogMessage lastMsg = null;
-    private long sizeUpdates = -1;
-    private long sizeMicroseconds = -1;
-    private long startMicroseconds = -1;
-    private long utcTimeReference = -1;
+    // Reading to update records
+    private PX4LogMessageRecord record = new PX4LogMessageRecord();
+    private PX4LogMessageRecord lastRecord = new PX4LogMessageRecord();
+    private boolean hasLastRecord = false;
+    private LogUpdate boundUpdate = null;
+    private UpdatePlan[] updatePlans = null;
+    private volatile long sizeUpdates = -1;
+    private volatile long sizeMicroseconds = -1;
+    private volatile long startMicroseconds = -1;
+    private volatile long utcTimeReference = -1;
     private Map<String, Object> version = new HashMap<String, Object>();
     private Map<String, Object> parameters = new HashMap<String, Object>();
+    private TimeIndex timeIndex = new TimeIndex();
+    private boolean zoneMapEnabled = false;
+    private LogZoneMap zoneMap = null;
+    private boolean fieldStatisticsEnabled = false;
+    private Map<String, FieldStatistics> fieldStatistics = null;
+    // Background scan
+    private FutureTask<PX4LogReader> scanTask = null;
+    private PX4LogReader owner = null;
+    private volatile boolean scanCancelled = false;
+    private volatile long scanPosition = 0;
+    private long scanSize = 0;
     private static Set<String> hideMsgs = new HashSet<String>();
     private static Map<String, String> formatNames = new HashMap<String, String>();
 
@@ -57,9 +97,255 @@ public class PX4LogReader extends BinaryLogReader {
     }
 
     public PX4LogReader(String fileName) throws IOException, FormatErrorException {
-        super(fileName);
-        readFormats();
-        updateStatistics();
+        this(fileName, new LogReaderOptions());
+    }
+
+    public PX4LogReader(String fileName, LogReaderOptions options) throws IOException, FormatErrorException {
+        super(GZipIndexedChannel.open(fileName, options.getGZipIndexFileName(fileName)), true);
+        this.fileName = fileName;
+        this.zoneMapEnabled = options.isZoneMap();
+        this.fieldStatisticsEnabled = options.isFieldStatistics();
+        LogIndexFile indexFile = null;
+        if (options.isUseIndexFile()) {
+            indexFile = new LogIndexFile(fileName, options.getIndexFileName(fileName));
+            if (readIndex(indexFile)) {
+                seek(0);
+                return;
+            }
+        }
+        if (options.isBackgroundScan()) {
+            // Maps are shared with scanner thread
+            fieldsList = Collections.synchronizedMap(new HashMap<String, String>());
+            version = Collections.synchronizedMap(new HashMap<String, Object>());
+            parameters = Collections.synchronizedMap(new HashMap<String, Object>());
+            readFormats(true);
+            startScan(fileName, indexFile);
+            seek(0);
+            return;
+        }
+        readFormats(false);
+        if (options.getScanThreads() > 1) {
+            updateStatisticsParallel(options.getScanThreads());
+        } else {
+            updateStatistics();
+        }
+        if (indexFile != null) {
+            writeIndex(indexFile);
+        }
+    }
+
+    /**
+     * Create scanner for background scan, scanner publishes statistics to the owner reader.
+     */
+    private PX4LogReader(String fileName, PX4LogReader owner) throws IOException {
+        super(GZipIndexedChannel.reopen(owner.channel, fileName), true);
+        this.fileName = fileName;
+        this.owner = owner;
+        this.zoneMapEnabled = owner.zoneMapEnabled;
+        this.fieldStatisticsEnabled = owner.fieldStatisticsEnabled;
+        this.fieldsList = owner.fieldsList;
+        this.version = owner.version;
+        this.parameters = owner.parameters;
+    }
+
+    private void startScan(final String fileName, final LogIndexFile indexFile) throws IOException {
+        scanSize = channel.size();
+        scanTask = new FutureTask<PX4LogReader>(new Callable<PX4LogReader>() {
+            @Override
+            public PX4LogReader call() throws Exception {
+                PX4LogReader scanner = new PX4LogReader(fileName, PX4LogReader.this);
+                try {
+                    scanner.readFormats(false);
+                    scanner.updateStatistics();
+                    if (indexFile != null) {
+                        scanner.writeIndex(indexFile);
+                    }
+                } finally {
+                    scanner.close();
+                }
+                return scanner;
+            }
+        });
+        Thread thread = new Thread(scanTask, "PX4LogReader scan");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Check if background scan is completed. Statistics returned by getters are final only after the scan.
+     *
+     * @return true if scan is completed or the log was opened without background scan
+     */
+    public boolean isScanCompleted() {
+        return scanTask == null || scanTask.isDone();
+    }
+
+    /**
+     * Get progress of background scan.
+     *
+     * @return fraction of the log scanned, 0...1
+     */
+    public double getScanProgress() {
+        if (scanTask == null || scanTask.isDone()) {
+            return 1.0;
+        }
+        return scanSize > 0 ? (double) scanPosition / scanSize : 0.0;
+    }
+
+    /**
+     * Wait for background scan to complete.
+     *
+     * @throws IOException          on IO error in scanner thread
+     * @throws FormatErrorException on format error in scanner thread
+     */
+    public void waitForScan() throws IOException, FormatErrorException {
+        if (scanTask == null) {
+            return;
+        }
+        PX4LogReader scanner;
+        try {
+            scanner = scanTask.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted");
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        }
+        scanTask = null;
+        // Take formats from the middle of the log and time index from scanner
+        for (int i = 0; i < messageDescriptions.length; i++) {
+            if (messageDescriptions[i] == null) {
+                messageDescriptions[i] = scanner.messageDescriptions[i];
+            }
+        }
+        timeIndex = scanner.timeIndex;
+        zoneMap = scanner.zoneMap;
+        fieldStatistics = scanner.fieldStatistics;
+    }
+
+    private static RuntimeException rethrow(Throwable e) throws IOException, FormatErrorException {
+        if (e instanceof IOException) {
+            throw (IOException) e;
+        } else if (e instanceof FormatErrorException) {
+            throw (FormatErrorException) e;
+        } else if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        }
+        throw new RuntimeException(e);
+    }
+
+    @Override
+    public void close() throws IOException {
+        scanCancelled = true;
+        super.close();
+    }
+
+    private boolean readIndex(LogIndexFile indexFile) {
+        try {
+            DataInputStream in = indexFile.openForRead("PX4LogReader");
+            if (in == null) {
+                return false;
+            }
+            try {
+                boolean formatPX4 = in.readBoolean();
+                long dataStart = in.readLong();
+                PX4LogMessageDescription[] messageDescriptions = new PX4LogMessageDescription[256];
+                int descriptionsNum = in.readInt();
+                for (int i = 0; i < descriptionsNum; i++) {
+                    int type = in.readUnsignedByte();
+                    int length = in.readUnsignedByte();
+                    String name = in.readUTF();
+                    String format = in.readUTF();
+                    String[] fields = new String[in.readUnsignedByte()];
+                    for (int j = 0; j < fields.length; j++) {
+                        fields[j] = in.readUTF();
+                    }
+                    messageDescriptions[type] = new PX4LogMessageDescription(type, length, name, format, fields);
+                }
+                Map<String, String> fieldsList = LogIndexFile.readStringMap(in);
+                long sizeUpdates = in.readLong();
+                long startMicroseconds = in.readLong();
+                long sizeMicroseconds = in.readLong();
+                long utcTimeReference = in.readLong();
+                Map<String, Object> version = LogIndexFile.readMap(in);
+                Map<String, Object> parameters = LogIndexFile.readMap(in);
+                LogIndexFile.readTimeIndex(in, timeIndex);
+                LogZoneMap zoneMap = in.readBoolean() ? LogZoneMap.read(in) : null;
+                Map<String, FieldStatistics> fieldStatistics = LogIndexFile.readFieldStatistics(in);
+                if (zoneMapEnabled && zoneMap == null || fieldStatisticsEnabled && fieldStatistics == null) {
+                    // Index was written with other options
+                    timeIndex.clear();
+                    return false;
+                }
+                this.formatPX4 = formatPX4;
+                this.dataStart = dataStart;
+                this.messageDescriptions = messageDescriptions;
+                this.fieldsList = fieldsList;
+                this.sizeUpdates = sizeUpdates;
+                this.startMicroseconds = startMicroseconds;
+                this.sizeMicroseconds = sizeMicroseconds;
+                this.utcTimeReference = utcTimeReference;
+                this.version = version;
+                this.parameters = parameters;
+                this.zoneMap = zoneMapEnabled ? zoneMap : null;
+                this.fieldStatistics = fieldStatisticsEnabled ? fieldStatistics : null;
+                return true;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            timeIndex.clear();
+            return false;
+        }
+    }
+
+    private void writeIndex(LogIndexFile indexFile) {
+        DataOutputStream out;
+        try {
+            out = indexFile.openForWrite("PX4LogReader");
+        } catch (IOException e) {
+            return;     // Index is optional, e.g. log directory may be read-only
+        }
+        try {
+            out.writeBoolean(formatPX4);
+            out.writeLong(dataStart);
+            int descriptionsNum = 0;
+            for (PX4LogMessageDescription description : messageDescriptions) {
+                if (description != null) {
+                    descriptionsNum++;
+                }
+            }
+            out.writeInt(descriptionsNum);
+            for (PX4LogMessageDescription description : messageDescriptions) {
+                if (description == null) {
+                    continue;
+                }
+                out.writeByte(description.type);
+                out.writeByte(description.length);
+                out.writeUTF(description.name);
+                out.writeUTF(description.format);
+                out.writeByte(description.fields.length);
+                for (String field : description.fields) {
+                    out.writeUTF(field);
+                }
+            }
+            LogIndexFile.writeMap(out, fieldsList);
+            out.writeLong(sizeUpdates);
+            out.writeLong(startMicroseconds);
+            out.writeLong(sizeMicroseconds);
+            out.writeLong(utcTimeReference);
+            LogIndexFile.writeMap(out, version);
+            LogIndexFile.writeMap(out, parameters);
+            LogIndexFile.writeTimeIndex(out, timeIndex);
+            out.writeBoolean(zoneMap != null);
+            if (zoneMap != null) {
+                zoneMap.write(out);
+            }
+            LogIndexFile.writeFieldStatistics(out, fieldStatistics);
+            indexFile.commit(out);
+        } catch (IOException e) {
+            indexFile.discard(out);
+        }
     }
 
     @Override
@@ -87,104 +373,549 @@ public class PX4LogReader extends BinaryLogReader {
         return utcTimeReference;
     }
 
+    /**
+     * Get statistics of numeric fields, with background scan statistics are available after completion of the scan.
+     */
+    @Override
+    public Map<String, FieldStatistics> getFieldStatistics() {
+        if (scanTask != null && scanTask.isDone()) {
+            try {
+                waitForScan();
+            } catch (Exception ignored) {
+                // Failed scan, statistics are not available
+            }
+        }
+        return fieldStatistics;
+    }
+
     @Override
     public Map<String, Object> getVersion() {
-        return version;
+        return snapshot(version);
     }
 
     @Override
     public Map<String, Object> getParameters() {
-        return parameters;
+        return snapshot(parameters);
     }
 
-    private void updateStatistics() throws IOException, FormatErrorException {
-        seek(0);
+    /**
+     * Get map filled by scanner thread, while background scan is running the copy is returned, so it may be iterated.
+     */
+    private <V> Map<String, V> snapshot(Map<String, V> map) {
+        if (scanTask == null || scanTask.isDone()) {
+            return map;
+        }
+        synchronized (map) {
+            return new HashMap<String, V>(map);
+        }
+    }
+
+    /**
+     * Statistics of the log or of the chunk of the log.
+     */
+    private static class Statistics {
         long packetsNum = 0;
         long timeStart = -1;
         long timeEnd = -1;
-        boolean parseVersion = true;
-        StringBuilder versionStr = new StringBuilder();
+        long timeMax = -1;
+        TimeIndex timeIndex = new TimeIndex();
+        // First GPS time and the last timestamp before it in this chunk (-1 if none)
+        boolean utcFound = false;
+        long utcGPSTime = 0;
+        long utcTimeEnd = -1;
+        // PX4 version, the last one wins
+        String versionFW = null;
+        String versionHW = null;
+        // APM version, leading "MSG" messages with firmware names
+        List<String> versionMsgs = new ArrayList<String>();
+        boolean versionEnd = false;
+        final Map<String, Object> parameters;
+        // Zones of zone map, null if disabled
+        final List<Zone> zones;
+        Zone zone = null;
+        // Field statistics by message type and field index, null if disabled
+        final FieldStatistics[][] fieldStatistics;
+        // Time of the current update and of the first update in this chunk, used for APM logs
+        long updateTime = 0;
+        long firstUpdateTime = 0;
+
+        Statistics(Map<String, Object> parameters, boolean zoneMap, boolean fieldStatistics) {
+            this.parameters = parameters;
+            this.zones = zoneMap ? new ArrayList<Zone>() : null;
+            this.fieldStatistics = fieldStatistics ? new FieldStatistics[256][] : null;
+        }
+    }
+
+    /**
+     * Zone of the log for zone map: values of fields of the messages in the zone, by message type and field index.
+     */
+    private static class Zone {
+        // Position of the first update, -1 for messages before the first update of the chunk
+        long offset;
+        long timeStart = -1;
+        long timeEnd = -1;
+        int updates = 0;
+        final double[][] min = new double[256][];
+        final double[][] max = new double[256][];
+        final double[][] last = new double[256][];
+
+        Zone(long offset) {
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Part of the log scanned in parallel.
+     */
+    private static class Chunk<R> {
+        long start;
+        long end = -1;
+        R result;
+        Exception error = null;
+    }
+
+    private void updateStatistics() throws IOException, FormatErrorException {
+        seek(0);
+        Statistics stats = new Statistics(parameters, zoneMapEnabled, fieldStatisticsEnabled);
+        long publishPos = 0;
         while (true) {
             PX4LogMessage msg;
+            long pos = position();
+            if (owner != null && pos >= publishPos) {
+                if (owner.scanCancelled) {
+                    throw new InterruptedIOException("Scan cancelled");
+                }
+                publishStatistics(stats, pos);
+                publishPos = pos + SCAN_PUBLISH_INTERVAL;
+            }
             try {
                 msg = readMessage();
             } catch (EOFException e) {
                 break;
             }
-            // Time range
-            if (formatPX4) {
-                if ("TIME".equals(msg.description.name)) {
-                    long t = msg.getLong(0);
-                    if (timeStart < 0) {
-                        timeStart = t;
-                    }
-                    timeEnd = t;
+            processStatistics(stats, msg, pos);
+        }
+        applyStatistics(Collections.singletonList(stats));
+        if (owner != null) {
+            publishStatistics(stats, position());
+        }
+        seek(0);
+    }
+
+    private void updateStatisticsParallel(int threads) throws IOException, FormatErrorException {
+        List<Statistics> chunks = scanChunks(new PX4LogChunkHandler<Statistics>() {
+            @Override
+            public Statistics createResult() {
+                return new Statistics(new HashMap<String, Object>(), zoneMapEnabled, fieldStatisticsEnabled);
+            }
+
+            @Override
+            public void processMessage(Statistics stats, PX4LogMessage msg, long position) {
+                processStatistics(stats, msg, position);
+            }
+        }, threads);
+        applyStatistics(chunks);
+        seek(0);
+    }
+
+    private void processStatistics(Statistics stats, PX4LogMessage msg, long pos) {
+        // Time range
+        long t = -1;
+        if (formatPX4) {
+            if ("TIME".equals(msg.description.name)) {
+                t = msg.getLong(0);
+            }
+        } else {
+            t = getAPMTimestamp(msg);
+            if (t <= 0) {
+                t = -1;
+            }
+        }
+        if (t >= 0) {
+            if (stats.timeStart < 0) {
+                stats.timeStart = t;
+            }
+            stats.timeEnd = t;
+            // Time index
+            if (t > stats.timeMax) {
+                stats.timeMax = t;
+            }
+            if (stats.timeIndex.size() == 0 || pos - stats.timeIndex.getLastOffset() >= TIME_INDEX_INTERVAL) {
+                stats.timeIndex.add(stats.timeMax, pos);
+            }
+        }
+        stats.packetsNum++;
+        if (stats.zones != null) {
+            processZone(stats, msg, pos, t);
+        }
+        if (stats.fieldStatistics != null) {
+            processFieldStatistics(stats, msg);
+        }
+
+        // Version
+        if (formatPX4) {
+            if ("VER".equals(msg.description.name)) {
+                String fw = (String) msg.get("FwGit");
+                if (fw != null) {
+                    stats.versionFW = fw;
                 }
-            } else {
-                long t = getAPMTimestamp(msg);
-                if (t > 0) {
-                    if (timeStart < 0) {
-                        timeStart = t;
+                String hw = (String) msg.get("Arch");
+                if (hw != null) {
+                    stats.versionHW = hw;
+                }
+            }
+        } else {
+            if ("MSG".equals(msg.description.name)) {
+                String s = (String) msg.get("Message");
+                if (!stats.versionEnd && (s.startsWith("Ardu") || s.startsWith("PX4"))) {
+                    stats.versionMsgs.add(s);
+                } else {
+                    stats.versionEnd = true;
+                }
+            }
+        }
+
+        // Parameters
+        if ("PARM".equals(msg.description.name)) {
+            stats.parameters.put((String) msg.get("Name"), msg.get("Value"));
+        }
+
+        if ("GPS".equals(msg.description.name)) {
+            if (!stats.utcFound) {
+                try {
+                    if (formatPX4) {
+                        int fix = ((Number) msg.get("Fix")).intValue();
+                        long gpsT = ((Number) msg.get("GPSTime")).longValue();
+                        if (fix >= 3 && gpsT > 0) {
+                            stats.utcFound = true;
+                            stats.utcGPSTime = gpsT;
+                            stats.utcTimeEnd = stats.timeEnd;
+                        }
+                    } else {
+                        int fix = ((Number) msg.get("Status")).intValue();
+                        int week = ((Number) msg.get("Week")).intValue();
+                        long ms = ((Number) msg.get("TimeMS")).longValue();
+                        if (fix >= 3 && (week > 0 || ms > 0)) {
+                            long leapSeconds = 16;
+                            long gpsT = ((315964800L + week * 7L * 24L * 3600L - leapSeconds) * 1000 + ms) * 1000L;
+                            stats.utcFound = true;
+                            stats.utcGPSTime = gpsT;
+                            stats.utcTimeEnd = stats.timeEnd;
+                        }
                     }
-                    timeEnd = t;
+                } catch (Exception ignored) {
                 }
             }
-            packetsNum++;
+        }
+    }
 
-            // Version
+    private void processZone(Statistics stats, PX4LogMessage msg, long pos, long t) {
+        // Message starting new update, see readUpdate()
+        boolean updateStart = false;
+        if (t >= 0) {
             if (formatPX4) {
-                if ("VER".equals(msg.description.name)) {
-                    String fw = (String) msg.get("FwGit");
-                    if (fw != null) {
-                        version.put("FW", fw);
-                    }
-                    String hw = (String) msg.get("Arch");
-                    if (hw != null) {
-                        version.put("HW", hw);
+                updateStart = true;
+            } else if (stats.updateTime == 0 || t > stats.updateTime) {
+                updateStart = true;
+                stats.updateTime = t;
+                if (stats.firstUpdateTime == 0) {
+                    stats.firstUpdateTime = t;
+                }
+            }
+        }
+        Zone zone = stats.zone;
+        if (updateStart && (zone == null || zone.offset < 0 || pos - zone.offset >= ZONE_SIZE)) {
+            zone = new Zone(pos);
+            stats.zones.add(zone);
+            stats.zone = zone;
+        } else if (zone == null) {
+            // Messages of the update started in the previous chunk
+            zone = new Zone(pos == dataStart ? pos : -1);
+            stats.zones.add(zone);
+            stats.zone = zone;
+        }
+        if (updateStart) {
+            zone.updates++;
+            if (zone.timeStart < 0) {
+                zone.timeStart = t;
+            }
+        }
+        if (t > zone.timeEnd) {
+            zone.timeEnd = t;
+        }
+        int type = msg.description.type;
+        double[] min = zone.min[type];
+        double[] max = zone.max[type];
+        double[] last = zone.last[type];
+        if (min == null) {
+            int n = msg.description.fields.length;
+            min = newValues(n);
+            max = newValues(n);
+            last = newValues(n);
+            zone.min[type] = min;
+            zone.max[type] = max;
+            zone.last[type] = last;
+        }
+        for (int i = 0; i < min.length; i++) {
+            Object v = msg.get(i);
+            if (v instanceof Number) {
+                double d = ((Number) v).doubleValue();
+                if (Double.isNaN(d)) {
+                    continue;
+                }
+                if (!(d >= min[i])) {
+                    min[i] = d;
+                }
+                if (!(d <= max[i])) {
+                    max[i] = d;
+                }
+                last[i] = d;
+            }
+        }
+    }
+
+    private static void processFieldStatistics(Statistics stats, PX4LogMessage msg) {
+        PX4LogMessageDescription description = msg.description;
+        FieldStatistics[] fieldStatistics = stats.fieldStatistics[description.type];
+        if (fieldStatistics == null) {
+            // Statistics of fields returned by getFields()
+            fieldStatistics = new FieldStatistics[description.fields.length];
+            if (!hideMsgs.contains(description.name)) {
+                for (int i = 0; i < fieldStatistics.length; i++) {
+                    if (i != 0 || !"TimeMS".equals(description.fields[i])) {
+                        fieldStatistics[i] = new FieldStatistics();
                     }
                 }
-            } else {
-                if ("MSG".equals(msg.description.name)) {
-                    String s = (String) msg.get("Message");
-                    if (parseVersion && (s.startsWith("Ardu") || s.startsWith("PX4"))) {
-                        if (versionStr.length() > 0) {
-                            versionStr.append("; ");
-                        }
-                        versionStr.append(s);
+            }
+            stats.fieldStatistics[description.type] = fieldStatistics;
+        }
+        for (int i = 0; i < fieldStatistics.length; i++) {
+            if (fieldStatistics[i] != null) {
+                Object v = msg.get(i);
+                if (v instanceof Number) {
+                    fieldStatistics[i].add(((Number) v).doubleValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Merge field statistics of chunks.
+     */
+    private Map<String, FieldStatistics> mergeFieldStatistics(List<Statistics> chunks) {
+        Map<String, FieldStatistics> result = new HashMap<String, FieldStatistics>();
+        for (Statistics stats : chunks) {
+            for (int type = 0; type < stats.fieldStatistics.length; type++) {
+                FieldStatistics[] fieldStatistics = stats.fieldStatistics[type];
+                if (fieldStatistics == null) {
+                    continue;
+                }
+                PX4LogMessageDescription description = messageDescriptions[type];
+                for (int i = 0; i < fieldStatistics.length; i++) {
+                    if (fieldStatistics[i] == null || fieldStatistics[i].getCount() == 0) {
+                        continue;
+                    }
+                    String field = description.name + "." + description.fields[i];
+                    FieldStatistics fieldStats = result.get(field);
+                    if (fieldStats == null) {
+                        result.put(field, fieldStatistics[i]);
                     } else {
-                        parseVersion = false;
+                        fieldStats.merge(fieldStatistics[i]);
                     }
                 }
             }
+        }
+        return result;
+    }
 
-            // Parameters
-            if ("PARM".equals(msg.description.name)) {
-                parameters.put((String) msg.get("Name"), msg.get("Value"));
+    private static double[] newValues(int n) {
+        double[] values = new double[n];
+        Arrays.fill(values, Double.NaN);
+        return values;
+    }
+
+    /**
+     * Merge values of zone to the previous zone.
+     */
+    private static void mergeZone(Zone prev, Zone zone) {
+        prev.updates += zone.updates;
+        if (prev.timeStart < 0) {
+            prev.timeStart = zone.timeStart;
+        }
+        prev.timeEnd = Math.max(prev.timeEnd, zone.timeEnd);
+        for (int type = 0; type < zone.min.length; type++) {
+            double[] min = zone.min[type];
+            if (min == null) {
+                continue;
+            }
+            if (prev.min[type] == null) {
+                prev.min[type] = min;
+                prev.max[type] = zone.max[type];
+                prev.last[type] = zone.last[type];
+                continue;
             }
+            for (int i = 0; i < min.length; i++) {
+                prev.min[type][i] = minValue(prev.min[type][i], min[i]);
+                prev.max[type][i] = maxValue(prev.max[type][i], zone.max[type][i]);
+                if (!Double.isNaN(zone.last[type][i])) {
+                    prev.last[type][i] = zone.last[type][i];
+                }
+            }
+        }
+    }
 
-            if ("GPS".equals(msg.description.name)) {
-                if (utcTimeReference < 0) {
-                    try {
-                        if (formatPX4) {
-                            int fix = ((Number) msg.get("Fix")).intValue();
-                            long gpsT = ((Number) msg.get("GPSTime")).longValue();
-                            if (fix >= 3 && gpsT > 0) {
-                                utcTimeReference = gpsT - timeEnd;
-                            }
-                        } else {
-                            int fix = ((Number) msg.get("Status")).intValue();
-                            int week = ((Number) msg.get("Week")).intValue();
-                            long ms = ((Number) msg.get("TimeMS")).longValue();
-                            if (fix >= 3 && (week > 0 || ms > 0)) {
-                                long leapSeconds = 16;
-                                long gpsT = ((315964800L + week * 7L * 24L * 3600L - leapSeconds) * 1000 + ms) * 1000L;
-                                utcTimeReference = gpsT - timeEnd;
-                            }
-                        }
-                    } catch (Exception ignored) {
+    private static double minValue(double a, double b) {
+        return Double.isNaN(a) || b < a ? b : a;
+    }
+
+    private static double maxValue(double a, double b) {
+        return Double.isNaN(a) || b > a ? b : a;
+    }
+
+    /**
+     * Build zone map from zones of chunks. Zone map is not built if chunks can't be merged exactly as on sequential
+     * scan, i.e. if timestamps of APM log are decreasing on the boundary of chunks.
+     */
+    private LogZoneMap buildZoneMap(List<Statistics> chunks) {
+        // Merge zones of chunks
+        List<Zone> zones = new ArrayList<Zone>();
+        long updateTime = 0;
+        for (Statistics stats : chunks) {
+            boolean firstZone = true;
+            for (Zone zone : stats.zones) {
+                Zone prev = zones.isEmpty() ? null : zones.get(zones.size() - 1);
+                if (zone.offset < 0 && prev == null) {
+                    zone.offset = dataStart;
+                }
+                if (zone.offset < 0) {
+                    mergeZone(prev, zone);
+                    continue;
+                }
+                if (firstZone && !formatPX4 && prev != null && stats.firstUpdateTime <= updateTime) {
+                    // The first update of the chunk continues the update of the previous chunk
+                    if (stats.firstUpdateTime < updateTime) {
+                        return null;
+                    }
+                    zone.updates--;
+                    mergeZone(prev, zone);
+                } else {
+                    zones.add(zone);
+                }
+                firstZone = false;
+            }
+            if (stats.updateTime != 0) {
+                updateTime = stats.updateTime;
+            }
+        }
+        // Fields of all messages
+        List<String> fields = new ArrayList<String>();
+        List<Integer> fieldTypes = new ArrayList<Integer>();
+        List<Integer> fieldIndexes = new ArrayList<Integer>();
+        for (PX4LogMessageDescription description : messageDescriptions) {
+            if (description == null) {
+                continue;
+            }
+            for (int i = 0; i < description.fields.length; i++) {
+                String field = description.name + "." + description.fields[i];
+                if ((i != 0 || !"TimeMS".equals(description.fields[i])) && fieldsList.containsKey(field)) {
+                    fields.add(field);
+                    fieldTypes.add(description.type);
+                    fieldIndexes.add(i);
+                }
+            }
+        }
+        int[] types = new int[fields.size()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = fieldTypes.get(i);
+        }
+        LogZoneMap zoneMap = new LogZoneMap(fields, types);
+        // Carry values of fields through zones
+        double[] state = newValues(fields.size());
+        for (Zone zone : zones) {
+            BitSet zoneTypes = new BitSet(256);
+            for (int type = 0; type < zone.min.length; type++) {
+                if (zone.min[type] != null) {
+                    zoneTypes.set(type);
+                }
+            }
+            double[] min = new double[types.length];
+            double[] max = new double[types.length];
+            double[] startValue = state.clone();
+            for (int f = 0; f < types.length; f++) {
+                double[] zoneMin = zone.min[types[f]];
+                int idx = fieldIndexes.get(f);
+                if (zoneMin != null && idx < zoneMin.length) {
+                    min[f] = minValue(state[f], zoneMin[idx]);
+                    max[f] = maxValue(state[f], zone.max[types[f]][idx]);
+                    if (!Double.isNaN(zone.last[types[f]][idx])) {
+                        state[f] = zone.last[types[f]][idx];
+                    }
+                } else {
+                    min[f] = state[f];
+                    max[f] = state[f];
+                }
+            }
+            zoneMap.add(zone.offset, zone.timeStart, zone.timeEnd, zone.updates, zoneTypes, min, max, startValue);
+        }
+        return zoneMap;
+    }
+
+    /**
+     * Merge statistics of chunks in order of the log and apply it to the reader.
+     */
+    private void applyStatistics(List<Statistics> chunks) {
+        long packetsNum = 0;
+        long timeStart = -1;
+        long timeEnd = -1;
+        long timeMax = -1;
+        boolean parseVersion = true;
+        StringBuilder versionStr = new StringBuilder();
+        timeIndex = new TimeIndex();
+        for (Statistics stats : chunks) {
+            packetsNum += stats.packetsNum;
+            if (stats.utcFound && utcTimeReference < 0) {
+                utcTimeReference = stats.utcGPSTime - (stats.utcTimeEnd >= 0 ? stats.utcTimeEnd : timeEnd);
+            }
+            if (stats.timeStart >= 0) {
+                if (timeStart < 0) {
+                    timeStart = stats.timeStart;
+                }
+                timeEnd = stats.timeEnd;
+            }
+            // Keys of the index must include timestamps of previous chunks
+            for (int i = 0; i < stats.timeIndex.size(); i++) {
+                long offset = stats.timeIndex.getOffset(i);
+                if (timeIndex.size() == 0 || offset - timeIndex.getLastOffset() >= TIME_INDEX_INTERVAL) {
+                    timeIndex.add(Math.max(timeMax, stats.timeIndex.getTime(i)), offset);
+                }
+            }
+            if (stats.timeMax > timeMax) {
+                timeMax = stats.timeMax;
+            }
+            if (stats.versionFW != null) {
+                version.put("FW", stats.versionFW);
+            }
+            if (stats.versionHW != null) {
+                version.put("HW", stats.versionHW);
+            }
+            if (parseVersion) {
+                for (String s : stats.versionMsgs) {
+                    if (versionStr.length() > 0) {
+                        versionStr.append("; ");
                     }
+                    versionStr.append(s);
                 }
+                parseVersion = !stats.versionEnd;
             }
+            if (stats.parameters != parameters) {
+                parameters.putAll(stats.parameters);
+            }
+        }
+        if (zoneMapEnabled) {
+            zoneMap = buildZoneMap(chunks);
+        }
+        if (fieldStatisticsEnabled) {
+            fieldStatistics = mergeFieldStatistics(chunks);
         }
         startMicroseconds = timeStart;
         sizeUpdates = packetsNum;
@@ -192,23 +923,212 @@ public class PX4LogReader extends BinaryLogReader {
         if (!formatPX4) {
             version.put("FW", versionStr.toString());
         }
-        seek(0);
+    }
+
+    private void publishStatistics(Statistics stats, long pos) {
+        owner.startMicroseconds = stats.timeStart;
+        owner.sizeUpdates = stats.packetsNum;
+        owner.sizeMicroseconds = stats.timeEnd - stats.timeStart;
+        if (stats.utcFound) {
+            owner.utcTimeReference = stats.utcGPSTime - stats.utcTimeEnd;
+        }
+        owner.scanPosition = pos;
+    }
+
+    /**
+     * Scan the log in parallel. The log is split to chunks by size, each chunk is synchronized on message header and
+     * processed in separate thread, so handler must not share state between results of different chunks. Chunks
+     * which were synchronized not on the boundary of the message of the previous chunk (e.g. false header in corrupted
+     * data) are scanned again, so messages are processed exactly as on sequential reading.
+     *
+     * @param handler messages handler
+     * @param threads number of threads to use
+     * @return results of chunks in order of the log
+     * @throws IOException          on IO error
+     * @throws FormatErrorException on format error
+     */
+    public <R> List<R> scanChunks(final PX4LogChunkHandler<R> handler, int threads)
+            throws IOException, FormatErrorException {
+        waitForScan();
+        long size = channel.size();
+        int chunksNum = (int) Math.max(1, Math.min((long) threads * CHUNKS_PER_THREAD,
+                (size - dataStart) / MIN_CHUNK_SIZE));
+        final long[] bounds = new long[chunksNum + 1];
+        for (int i = 0; i < chunksNum; i++) {
+            bounds[i] = dataStart + (size - dataStart) * i / chunksNum;
+        }
+        bounds[chunksNum] = size;
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, chunksNum)));
+        try {
+            List<Future<Chunk<R>>> futures = new ArrayList<Future<Chunk<R>>>(chunksNum);
+            for (int i = 0; i < chunksNum; i++) {
+                final int idx = i;
+                futures.add(executor.submit(new Callable<Chunk<R>>() {
+                    @Override
+                    public Chunk<R> call() throws Exception {
+                        PX4LogReader scanner = createScanner();
+                        try {
+                            long start = idx == 0 ? bounds[0] : scanner.resync(bounds[idx], bounds[idx + 1]);
+                            return scanner.scanChunk(handler, start, bounds[idx + 1]);
+                        } finally {
+                            scanner.close();
+                        }
+                    }
+                }));
+            }
+            List<R> results = new ArrayList<R>(chunksNum);
+            long expectedStart = dataStart;
+            for (int i = 0; i < chunksNum; i++) {
+                Chunk<R> chunk;
+                try {
+                    chunk = futures.get(i).get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted");
+                } catch (ExecutionException e) {
+                    throw rethrow(e.getCause());
+                }
+                if (chunk.start != expectedStart) {
+                    // Scan sequentially from the end of the previous chunk
+                    PX4LogReader scanner = createScanner();
+                    try {
+                        chunk = scanner.scanChunk(handler, expectedStart, bounds[i + 1]);
+                    } finally {
+                        scanner.close();
+                    }
+                }
+                if (chunk.error != null) {
+                    throw rethrow(chunk.error);
+                }
+                results.add(chunk.result);
+                expectedStart = chunk.end;
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private PX4LogReader createScanner() throws IOException {
+        PX4LogReader scanner = new PX4LogReader(fileName, this);
+        scanner.formatPX4 = formatPX4;
+        scanner.dataStart = dataStart;
+        System.arraycopy(messageDescriptions, 0, scanner.messageDescriptions, 0, messageDescriptions.length);
+        return scanner;
+    }
+
+    /**
+     * Process messages starting before the limit.
+     *
+     * @param start position of the first message, -1 if chunk was not synchronized
+     * @param limit end of the chunk
+     * @return chunk with position of the first message after the chunk
+     */
+    private <R> Chunk<R> scanChunk(PX4LogChunkHandler<R> handler, long start, long limit) {
+        Chunk<R> chunk = new Chunk<R>();
+        chunk.start = start;
+        chunk.result = handler.createResult();
+        if (start < 0) {
+            return chunk;
+        }
+        try {
+            try {
+                position(start);
+                while (true) {
+                    PX4LogMessage msg = readMessage();
+                    long msgStart = position() - msg.description.length;
+                    if (msgStart >= limit) {
+                        chunk.end = msgStart;
+                        break;
+                    }
+                    handler.processMessage(chunk.result, msg, msgStart);
+                }
+            } catch (EOFException e) {
+                chunk.end = channel.size();
+            }
+        } catch (Exception e) {
+            chunk.error = e;
+        }
+        return chunk;
+    }
+
+    /**
+     * Find start of the message: valid header of known message followed by valid headers of next messages.
+     *
+     * @param start start of search range
+     * @param limit end of search range
+     * @return position of the message or -1 if not found
+     */
+    private long resync(long start, long limit) throws IOException {
+        long size = channel.size();
+        ByteBuffer block = ByteBuffer.allocate(65536);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LEN);
+        long blockStart = start;
+        while (blockStart < limit) {
+            block.clear();
+            int n = readAt(block, blockStart);
+            if (n < HEADER_LEN) {
+                break;
+            }
+            for (int i = 0; i < n - 1 && blockStart + i < limit; i++) {
+                if (block.get(i) == HEADER_HEAD1 && block.get(i + 1) == HEADER_HEAD2 &&
+                        isMessagesChain(blockStart + i, size, header)) {
+                    return blockStart + i;
+                }
+            }
+            blockStart += n - 1;    // Header may be split between blocks
+        }
+        return -1;
+    }
+
+    private boolean isMessagesChain(long pos, long size, ByteBuffer header) throws IOException {
+        for (int i = 0; i < RESYNC_CHAIN_LENGTH; i++) {
+            if (pos == size) {
+                return true;    // End of log
+            }
+            header.clear();
+            if (readAt(header, pos) < HEADER_LEN ||
+                    header.get(0) != HEADER_HEAD1 || header.get(1) != HEADER_HEAD2) {
+                return false;
+            }
+            PX4LogMessageDescription messageDescription = messageDescriptions[header.get(2) & 0xFF];
+            if (messageDescription == null) {
+                return false;
+            }
+            pos += messageDescription.length;
+        }
+        return true;
     }
 
     @Override
     public boolean seek(long seekTime) throws IOException, FormatErrorException {
-        position(dataStart);
         lastMsg = null;
+        hasLastRecord = false;
+        if (scanTask != null && scanTask.isDone()) {
+            try {
+                waitForScan();
+            } catch (Exception ignored) {
+                // Failed scan doesn't affect reading, seek without index
+            }
+        }
         if (seekTime == 0) {      // Seek to start of log
+            position(dataStart);
             time = 0;
             return true;
         }
+        // Start from the nearest indexed position before requested time
+        int indexIdx = timeIndex.find(seekTime);
+        try {
+            position(indexIdx >= 0 ? timeIndex.getOffset(indexIdx) : dataStart);
+        } catch (EOFException e) {
+            return false;
+        }
         // Seek to specified timestamp without parsing all messages
         try {
             while (true) {
                 buffer.mark();
                 int msgType = readHeaderFillBuffer();
-                PX4LogMessageDescription messageDescription = messageDescriptions.get(msgType);
+                PX4LogMessageDescription messageDescription = messageDescriptions[msgType];
                 if (messageDescription == null) {
                     buffer.reset();
                     throw new RuntimeException("Unknown message type: " + msgType);
@@ -219,42 +1139,62 @@ public class PX4LogReader extends BinaryLogReader {
                     fillBuffer();
                     continue;
                 }
+                if (msgType == PX4LogMessageDescription.FORMAT.type) {
+                    registerFormat();
+                }
+                long t = -1;
                 if (formatPX4) {
                     if ("TIME".equals(messageDescription.name)) {
-                        PX4LogMessage msg = messageDescription.parseMessage(buffer);
-                        long t = msg.getLong(0);
-                        if (t > seekTime) {
-                            // Time found
-                            time = t;
-                            buffer.reset();
-                            return true;
-                        }
-                    } else {
-                        // Skip the message
-                        buffer.position(buffer.position() + bodyLen);
+                        t = messageDescription.getLong(buffer, buffer.position(), 0);
                     }
                 } else {
                     Integer idx = messageDescription.fieldsMap.get("TimeMS");
                     if (idx != null && idx == 0) {
-                        PX4LogMessage msg = messageDescription.parseMessage(buffer);
-                        long t = msg.getLong(idx) * 1000;
-                        if (t > seekTime) {
-                            // Time found
-                            time = t;
-                            buffer.reset();
-                            return true;
-                        }
-                    } else {
-                        // Skip the message
-                        buffer.position(buffer.position() + bodyLen);
+                        t = messageDescription.getLong(buffer, buffer.position(), idx) * 1000;
                     }
                 }
+                if (t >= 0 && t > seekTime) {
+                    // Time found
+                    time = t;
+                    buffer.reset();
+                    return true;
+                }
+                // Skip the message
+                buffer.position(buffer.position() + bodyLen);
             }
         } catch (EOFException e) {
             return false;
         }
     }
 
+    /**
+     * Get zone map of the log, waits for background scan.
+     *
+     * @return zone map or null if disabled in options
+     * @throws IOException          on IO error in scanner thread
+     * @throws FormatErrorException on format error in scanner thread
+     */
+    public LogZoneMap getZoneMap() throws IOException, FormatErrorException {
+        waitForScan();
+        return zoneMap;
+    }
+
+    /**
+     * Seek to the start of the zone of zone map, the next update is the first update of the zone. Values of fields
+     * before the zone are not applied to update records, see {@link LogZoneMap#getStartValue(int, int)}.
+     *
+     * @param zone zone index
+     * @throws IOException          on IO error
+     * @throws FormatErrorException on format error in scanner thread
+     */
+    public void seekZone(int zone) throws IOException, FormatErrorException {
+        LogZoneMap zoneMap = getZoneMap();
+        lastMsg = null;
+        hasLastRecord = false;
+        position(zoneMap.getOffset(zone));
+        time = 0;
+    }
+
     private long getAPMTimestamp(PX4LogMessage msg) {
         Integer idx = msg.description.fieldsMap.get("TimeMS");
         if (idx != null && idx == 0) {
@@ -317,13 +1257,233 @@ public class PX4LogReader extends BinaryLogReader {
         return t;
     }
 
+    /**
+     * Columns of the message type for reading of columns.
+     */
+    private static class ColumnsPlan {
+        // Columns by field index, null if no fields of the message requested
+        final LogColumn[] columns;
+        // Index of timestamp field or -1 if message has no timestamp
+        final int timeField;
+
+        ColumnsPlan(LogColumn[] columns, int timeField) {
+            this.columns = columns;
+            this.timeField = timeField;
+        }
+    }
+
+    private ColumnsPlan createColumnsPlan(PX4LogMessageDescription description, Map<String, LogColumn> columns) {
+        LogColumn[] messageColumns = null;
+        for (int i = 0; i < description.fields.length && i < description.format.length(); i++) {
+            LogColumn column = columns.get(description.name + "." + description.fields[i]);
+            if (column != null) {
+                if (messageColumns == null) {
+                    messageColumns = new LogColumn[description.fields.length];
+                }
+                messageColumns[i] = column;
+            }
+        }
+        int timeField = -1;
+        if (formatPX4) {
+            if ("TIME".equals(description.name)) {
+                timeField = 0;
+            }
+        } else {
+            Integer idx = description.fieldsMap.get("TimeMS");
+            if (idx != null && idx == 0) {
+                timeField = 0;
+            }
+        }
+        return new ColumnsPlan(messageColumns, timeField);
+    }
+
+    @Override
+    public Map<String, LogColumn> readColumns(Collection<String> fields) throws IOException, FormatErrorException {
+        Map<String, LogColumn> columns = new HashMap<String, LogColumn>();
+        for (String field : fields) {
+            columns.put(field, new LogColumn(field));
+        }
+        ColumnsPlan[] plans = new ColumnsPlan[256];
+        seek(0);
+        long t = -1;
+        boolean timeUnknown = false;
+        try {
+            while (true) {
+                int msgType = readHeaderFillBuffer();
+                PX4LogMessageDescription messageDescription = messageDescriptions[msgType];
+                if (messageDescription == null) {
+                    throw new FormatErrorException("Unknown message type: " + msgType);
+                }
+                int bodyLen = messageDescription.length - HEADER_LEN;
+                if (buffer.remaining() < bodyLen) {
+                    fillBuffer();
+                    if (buffer.remaining() < bodyLen) {
+                        throw new FormatErrorException("Unexpected end of file");
+                    }
+                }
+                int bodyStart = buffer.position();
+                if (msgType == PX4LogMessageDescription.FORMAT.type) {
+                    registerFormat();
+                }
+                ColumnsPlan plan = plans[msgType];
+                if (plan == null) {
+                    plan = createColumnsPlan(messageDescription, columns);
+                    plans[msgType] = plan;
+                }
+                if (plan.timeField >= 0) {
+                    long ts;
+                    if (formatPX4) {
+                        ts = messageDescription.getLong(buffer, bodyStart, plan.timeField);
+                    } else {
+                        ts = messageDescription.getLong(buffer, bodyStart, plan.timeField) * 1000;
+                    }
+                    if (ts > 0 || formatPX4) {
+                        if (timeUnknown) {
+                            // Messages before the first timestamp get the first timestamp, as in readUpdate()
+                            for (LogColumn column : columns.values()) {
+                                for (int i = 0; i < column.size() && column.getTime(i) < 0; i++) {
+                                    column.setTime(i, ts);
+                                }
+                            }
+                            timeUnknown = false;
+                        }
+                        t = ts;
+                    }
+                }
+                if (plan.columns != null) {
+                    for (int i = 0; i < plan.columns.length; i++) {
+                        LogColumn column = plan.columns[i];
+                        if (column != null) {
+                            column.add(t, messageDescription.getDouble(buffer, bodyStart, i));
+                        }
+                    }
+                    if (t < 0) {
+                        timeUnknown = true;
+                    }
+                }
+                buffer.position(bodyStart + bodyLen);
+            }
+        } catch (EOFException ignored) {
+        }
+        seek(0);
+        return columns;
+    }
+
+    /**
+     * Field IDs of the message type for reading to update record.
+     */
+    private static class UpdatePlan {
+        // Field IDs by field index, -1 for fields not in the record
+        final int[] fieldIds;
+        // Message is the timestamp source: "TIME" for PX4 or has "TimeMS" field for APM
+        final boolean timestamp;
+
+        UpdatePlan(int[] fieldIds, boolean timestamp) {
+            this.fieldIds = fieldIds;
+            this.timestamp = timestamp;
+        }
+    }
+
+    private UpdatePlan getUpdatePlan(LogUpdate update, PX4LogMessageDescription description) {
+        if (update != boundUpdate) {
+            boundUpdate = update;
+            updatePlans = new UpdatePlan[256];
+        }
+        UpdatePlan plan = updatePlans[description.type];
+        if (plan == null) {
+            int[] fieldIds = new int[Math.min(description.fields.length, description.format.length())];
+            for (int i = 0; i < fieldIds.length; i++) {
+                String field = description.fields[i];
+                if (i == 0 && "TimeMS".equals(field)) {
+                    fieldIds[i] = -1;
+                } else {
+                    fieldIds[i] = update.getFieldId(description.name + "." + field);
+                }
+            }
+            boolean timestamp;
+            if (formatPX4) {
+                timestamp = "TIME".equals(description.name);
+            } else {
+                Integer idx = description.fieldsMap.get("TimeMS");
+                timestamp = idx != null && idx == 0;
+            }
+            plan = new UpdatePlan(fieldIds, timestamp);
+            updatePlans[description.type] = plan;
+        }
+        return plan;
+    }
+
+    private void applyRecord(LogUpdate update, PX4LogMessageRecord rec) {
+        int[] fieldIds = getUpdatePlan(update, rec.getDescription()).fieldIds;
+        for (int i = 0; i < fieldIds.length; i++) {
+            int id = fieldIds[i];
+            if (id >= 0) {
+                update.set(id, rec.getDouble(i));
+            }
+        }
+    }
+
+    @Override
+    public long readUpdate(LogUpdate update) throws IOException, FormatErrorException {
+        update.clearChanged();
+        long t = time;
+        if (hasLastRecord) {
+            applyRecord(update, lastRecord);
+            hasLastRecord = false;
+        }
+        while (true) {
+            readMessage(record);
+            UpdatePlan plan = getUpdatePlan(update, record.getDescription());
+
+            if (formatPX4) {
+                // PX4 log has TIME message
+                if (plan.timestamp) {
+                    time = record.getLong(0);
+                    if (t == 0) {
+                        // The first TIME message
+                        t = time;
+                        continue;
+                    }
+                    break;
+                }
+            } else {
+                // APM log doesn't have TIME message
+                long ts = plan.timestamp ? record.getLong(0) * 1000 : 0;
+                if (ts > 0) {
+                    time = ts;
+                    if (t == 0) {
+                        // The first message with timestamp
+                        t = time;
+                    } else {
+                        if (time > t) {
+                            // Timestamp changed, leave the message for future
+                            PX4LogMessageRecord r = lastRecord;
+                            lastRecord = record;
+                            record = r;
+                            hasLastRecord = true;
+                            break;
+                        }
+                    }
+                }
+            }
+
+            applyRecord(update, record);
+        }
+        return t;
+    }
+
     @Override
     public Map<String, String> getFields() {
-        return fieldsList;
+        return snapshot(fieldsList);
     }
 
-    private void readFormats() throws IOException, FormatErrorException {
-        fieldsList = new HashMap<String, String>();
+    /**
+     * Read message descriptions.
+     *
+     * @param headerOnly read only formats in the header of the log, formats in the middle of APM log are registered
+     *                   on reading
+     */
+    private void readFormats(boolean headerOnly) throws IOException, FormatErrorException {
         try {
             while (true) {
                 if (fillBuffer() < 0) {
@@ -340,20 +1500,7 @@ public class PX4LogReader extends BinaryLogReader {
                     int msgType = readHeader();     // Don't try to handle errors in formats
                     if (msgType == PX4LogMessageDescription.FORMAT.type) {
                         // Message description
-                        PX4LogMessageDescription msgDescr = new PX4LogMessageDescription(buffer);
-                        messageDescriptions.put(msgDescr.type, msgDescr);
-                        if ("TIME".equals(msgDescr.name)) {
-                            formatPX4 = true;
-                        }
-                        if (!hideMsgs.contains(msgDescr.name)) {
-                            for (int i = 0; i < msgDescr.fields.length; i++) {
-                                String field = msgDescr.fields[i];
-                                String format = formatNames.get(Character.toString(msgDescr.format.charAt(i)));
-                                if (i != 0 || !"TimeMS".equals(field)) {
-                                    fieldsList.put(msgDescr.name + "." + field, format);
-                                }
-                            }
-                        }
+                        addMessageDescription(new PX4LogMessageDescription(buffer));
                     } else {
                         // Data message
                         if (formatPX4) {
@@ -361,10 +1508,12 @@ public class PX4LogReader extends BinaryLogReader {
                             buffer.reset();
                             dataStart = position();
                             return;
+                        } else if (headerOnly) {
+                            return;
                         } else {
                             // APM may have format messages in the middle of log
                             // Skip the message
-                            PX4LogMessageDescription messageDescription = messageDescriptions.get(msgType);
+                            PX4LogMessageDescription messageDescription = messageDescriptions[msgType];
                             if (messageDescription == null) {
                                 buffer.reset();
                                 throw new RuntimeException("Unknown message type: " + msgType);
@@ -379,6 +1528,34 @@ public class PX4LogReader extends BinaryLogReader {
         }
     }
 
+    private void addMessageDescription(PX4LogMessageDescription msgDescr) {
+        messageDescriptions[msgDescr.type] = msgDescr;
+        if ("TIME".equals(msgDescr.name)) {
+            formatPX4 = true;
+        }
+        if (!hideMsgs.contains(msgDescr.name)) {
+            for (int i = 0; i < msgDescr.fields.length; i++) {
+                String field = msgDescr.fields[i];
+                String format = formatNames.get(Character.toString(msgDescr.format.charAt(i)));
+                if (i != 0 || !"TimeMS".equals(field)) {
+                    fieldsList.put(msgDescr.name + "." + field, format);
+                }
+            }
+        }
+    }
+
+    /**
+     * Register description from FMT message in the middle of the log if it's not known yet, buffer must be positioned
+     * at the body of FMT message and is not moved.
+     */
+    private void registerFormat() {
+        int p = buffer.position();
+        if (messageDescriptions[buffer.get(p) & 0xFF] == null) {
+            addMessageDescription(new PX4LogMessageDescription(buffer));
+            buffer.position(p);
+        }
+    }
+
     private int readHeader() throws IOException, FormatErrorException {
         if (buffer.get() != HEADER_HEAD1 || buffer.get() != HEADER_HEAD2) {
             throw new FormatErrorException(String.format("Invalid header at %s (0x%X)", position(), position()));
@@ -412,7 +1589,7 @@ public class PX4LogReader extends BinaryLogReader {
      */
     public PX4LogMessage readMessage() throws IOException, FormatErrorException {
         int msgType = readHeaderFillBuffer();
-        PX4LogMessageDescription messageDescription = messageDescriptions.get(msgType);
+        PX4LogMessageDescription messageDescription = messageDescriptions[msgType];
         if (messageDescription == null) {
             throw new FormatErrorException("Unknown message type: " + msgType);
         }
@@ -422,9 +1599,38 @@ public class PX4LogReader extends BinaryLogReader {
                 throw new FormatErrorException("Unexpected end of file");
             }
         }
+        if (msgType == PX4LogMessageDescription.FORMAT.type) {
+            registerFormat();
+        }
         return messageDescription.parseMessage(buffer);
     }
 
+    /**
+     * Read next message from log into reusable record without allocation.
+     *
+     * @param record record to fill
+     * @throws IOException  on IO error
+     * @throws EOFException on end of stream
+     */
+    public void readMessage(PX4LogMessageRecord record) throws IOException, FormatErrorException {
+        int msgType = readHeaderFillBuffer();
+        PX4LogMessageDescription messageDescription = messageDescriptions[msgType];
+        if (messageDescription == null) {
+            throw new FormatErrorException("Unknown message type: " + msgType);
+        }
+        int bodyLen = messageDescription.length - HEADER_LEN;
+        if (buffer.remaining() < bodyLen) {
+            fillBuffer();
+            if (buffer.remaining() < bodyLen) {
+                throw new FormatErrorException("Unexpected end of file");
+            }
+        }
+        if (msgType == PX4LogMessageDescription.FORMAT.type) {
+            registerFormat();
+        }
+        record.set(messageDescription, buffer, bodyLen);
+    }
+
     public static void main(String[] args) throws Exception {
         PX4LogReader reader = new PX4LogReader("test.bin");
         long tStart = System.currentTimeMillis();
@@ -0,0 +1,127 @@
+package me.drton.jmavlib.log;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writer of PX4/APM binary logs readable by {@link PX4LogReader}. Messages are encoded in the caller thread and
+ * written asynchronously by {@link AsyncLogWriter}, so writing never blocks. Formats are written before the first
+ * message of each type and are never dropped.
+ * <p/>
+ * User: ton Date: 18.10.26 Time: 12:10
+ */
+public class PX4LogWriter {
+    private static final int HEADER_LEN = 3;
+    private static final byte HEADER_HEAD1 = (byte) 0xA3;
+    private static final byte HEADER_HEAD2 = (byte) 0x95;
+
+    private final AsyncLogWriter writer;
+    private final PX4LogMessageDescription[] messageDescriptions = new PX4LogMessageDescription[256];
+    private final Map<String, PX4LogMessageDescription> descriptionsByName =
+            new HashMap<String, PX4LogMessageDescription>();
+    private int nextType = 1;
+
+    public PX4LogWriter(String fileName) throws IOException {
+        this(fileName, AsyncLogWriter.DEFAULT_MAX_QUEUED_BYTES);
+    }
+
+    /**
+     * Create log file and write format of "FMT" message.
+     *
+     * @param fileName       log file name, existing file is overwritten
+     * @param maxQueuedBytes max size of messages waiting for writing, see {@link AsyncLogWriter}
+     * @throws IOException on IO error
+     */
+    public PX4LogWriter(String fileName, long maxQueuedBytes) throws IOException {
+        writer = new AsyncLogWriter(new FileOutputStream(fileName).getChannel(), maxQueuedBytes);
+        messageDescriptions[PX4LogMessageDescription.FORMAT.type] = PX4LogMessageDescription.FORMAT;
+        writeFormat(PX4LogMessageDescription.FORMAT);
+    }
+
+    /**
+     * Add message format and write it to the log, message type is assigned automatically.
+     *
+     * @param name   message name, up to 4 chars
+     * @param format format chars, see {@link PX4LogMessageDescription}
+     * @param fields names of fields
+     * @return message description to use in {@link #write(PX4LogMessageDescription, Object...)}
+     */
+    public synchronized PX4LogMessageDescription addFormat(String name, String format, String[] fields) {
+        if (descriptionsByName.containsKey(name)) {
+            throw new IllegalArgumentException("Format already added: " + name);
+        }
+        if (fields.length != format.length()) {
+            throw new IllegalArgumentException(String.format("Labels count != format length: name = \"%s\"", name));
+        }
+        while (nextType < messageDescriptions.length && messageDescriptions[nextType] != null) {
+            nextType++;
+        }
+        if (nextType == messageDescriptions.length) {
+            throw new IllegalStateException("Too many message formats");
+        }
+        // Calculate length using description compiled with dummy length
+        int bodySize = new PX4LogMessageDescription(nextType, 0, name, format, fields).getBodySize();
+        if (bodySize < 0 || bodySize + HEADER_LEN > 255) {
+            throw new IllegalArgumentException(String.format("Invalid format: name = \"%s\", format = \"%s\"",
+                    name, format));
+        }
+        PX4LogMessageDescription description =
+                new PX4LogMessageDescription(nextType, bodySize + HEADER_LEN, name, format, fields);
+        messageDescriptions[description.type] = description;
+        descriptionsByName.put(name, description);
+        writeFormat(description);
+        return description;
+    }
+
+    public synchronized PX4LogMessageDescription getFormat(String name) {
+        return descriptionsByName.get(name);
+    }
+
+    private void writeFormat(PX4LogMessageDescription description) {
+        ByteBuffer buffer = allocateMessage(PX4LogMessageDescription.FORMAT);
+        description.putFormat(buffer);
+        buffer.flip();
+        writer.write(buffer, true);
+    }
+
+    private static ByteBuffer allocateMessage(PX4LogMessageDescription description) {
+        ByteBuffer buffer = ByteBuffer.allocate(description.length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(HEADER_HEAD1);
+        buffer.put(HEADER_HEAD2);
+        buffer.put((byte) description.type);
+        return buffer;
+    }
+
+    /**
+     * Write message, never blocks. Message is dropped if too many messages are waiting for writing.
+     *
+     * @param description message description returned by {@link #addFormat(String, String, String[])}
+     * @param values      values of all fields
+     * @return true if message queued or false if it was dropped
+     */
+    public boolean write(PX4LogMessageDescription description, Object... values) {
+        ByteBuffer buffer = allocateMessage(description);
+        description.putMessage(buffer, values);
+        buffer.flip();
+        return writer.write(buffer, false);
+    }
+
+    /**
+     * Get number of messages dropped because of queue overflow or write error.
+     */
+    public long getDroppedMessages() {
+        return writer.getDroppedMessages();
+    }
+
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    public void close() throws IOException {
+        writer.close();
+    }
+}
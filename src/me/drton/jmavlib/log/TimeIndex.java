@@ -0,0 +1,71 @@
+package me.drton.jmavlib.log;
+
+import java.util.Arrays;
+
+/**
+ * Sparse index of timestamp - file offset pairs for fast seek. Timestamps must be added in non-decreasing order.
+ * Timestamp of entry is the max timestamp of all messages before the offset, so scanning from the offset finds the
+ * same message as scanning from the start of the log.
+ * <p/>
+ * User: ton Date: 17.10.26 Time: 18:25
+ */
+public class TimeIndex {
+    private long[] times = new long[256];
+    private long[] offsets = new long[256];
+    private int size = 0;
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getTime(int idx) {
+        return times[idx];
+    }
+
+    public long getOffset(int idx) {
+        return offsets[idx];
+    }
+
+    public long getLastOffset() {
+        return size > 0 ? offsets[size - 1] : -1;
+    }
+
+    public void add(long time, long offset) {
+        if (size > 0 && time < times[size - 1]) {
+            throw new IllegalArgumentException("Time index must be non-decreasing: " + time + " < " + times[size - 1]);
+        }
+        if (size == times.length) {
+            times = Arrays.copyOf(times, size * 2);
+            offsets = Arrays.copyOf(offsets, size * 2);
+        }
+        times[size] = time;
+        offsets[size] = offset;
+        size++;
+    }
+
+    /**
+     * Find last entry with timestamp not greater than specified.
+     *
+     * @param time timestamp
+     * @return entry index or -1 if all entries are later
+     */
+    public int find(long time) {
+        int lo = 0;
+        int hi = size - 1;
+        int res = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times[mid] <= time) {
+                res = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return res;
+    }
+}
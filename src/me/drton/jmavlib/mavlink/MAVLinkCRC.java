@@ -1,11 +1,31 @@
 package me.drton.jmavlib.mavlink;
 
+import java.nio.ByteBuffer;
+
 /**
  * User: ton Date: 03.06.14 Time: 15:35
  */
 public class MAVLinkCRC {
     public final static int X25_INIT_CRC = 0xffff;
 
+    /**
+     * Slicing-by-4 tables, TABLE[0] is the classic byte table, TABLE[k][i] is the CRC of byte i followed by k zero
+     * bytes, so 4 bytes can be processed with 4 independent lookups.
+     */
+    private final static int[][] TABLE = new int[4][256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            TABLE[0][i] = accumulateCRCBitwise((byte) i, 0);
+        }
+        for (int k = 1; k < TABLE.length; k++) {
+            for (int i = 0; i < 256; i++) {
+                int c = TABLE[k - 1][i];
+                TABLE[k][i] = (c >>> 8) ^ TABLE[0][c & 0xff];
+            }
+        }
+    }
+
     /**
      * Accumulate the X.25 CRC by adding one char at a time. The checksum function adds the hash of one char at a time
      * to the 16 bit checksum
@@ -15,16 +35,121 @@ public class MAVLinkCRC {
      * @return the new accumulated checksum
      */
     public static int accumulateCRC(byte data, int crc) {
+        return (crc >>> 8) ^ TABLE[0][(crc ^ data) & 0xff];
+    }
+
+    /**
+     * Reference bit-level implementation of {@link #accumulateCRC(byte, int)}, used to build lookup tables.
+     */
+    static int accumulateCRCBitwise(byte data, int crc) {
         int tmp = (data ^ crc) & 0xff;
         tmp ^= (tmp << 4) & 0xff;
         return ((crc >> 8) ^ (tmp << 8) ^ (tmp << 3) ^ (tmp >> 4)) & 0xffff;
     }
 
-    public static int calculateCRC(byte[] data) {
-        int crc = X25_INIT_CRC;
-        for (byte b : data) {
-            crc = accumulateCRC(b, crc);
+    /**
+     * Accumulate the X.25 CRC over range of byte array.
+     *
+     * @param data   data array
+     * @param offset offset of the first byte
+     * @param length number of bytes
+     * @param crc    the already accumulated checksum
+     * @return the new accumulated checksum
+     */
+    public static int accumulateCRC(byte[] data, int offset, int length, int crc) {
+        int i = offset;
+        int end = offset + length;
+        int[] t0 = TABLE[0];
+        int[] t1 = TABLE[1];
+        int[] t2 = TABLE[2];
+        int[] t3 = TABLE[3];
+        for (int end4 = end - 3; i < end4; i += 4) {
+            crc = t3[(data[i] ^ crc) & 0xff] ^ t2[(data[i + 1] ^ (crc >>> 8)) & 0xff] ^
+                    t1[data[i + 2] & 0xff] ^ t0[data[i + 3] & 0xff];
+        }
+        for (; i < end; i++) {
+            crc = (crc >>> 8) ^ t0[(crc ^ data[i]) & 0xff];
         }
         return crc;
     }
+
+    /**
+     * Accumulate the X.25 CRC over range of heap or direct buffer, buffer position is not changed.
+     *
+     * @param buffer data buffer
+     * @param offset absolute position of the first byte
+     * @param length number of bytes
+     * @param crc    the already accumulated checksum
+     * @return the new accumulated checksum
+     */
+    public static int accumulateCRC(ByteBuffer buffer, int offset, int length, int crc) {
+        if (buffer.hasArray()) {
+            return accumulateCRC(buffer.array(), buffer.arrayOffset() + offset, length, crc);
+        }
+        int i = offset;
+        int end = offset + length;
+        int[] t0 = TABLE[0];
+        int[] t1 = TABLE[1];
+        int[] t2 = TABLE[2];
+        int[] t3 = TABLE[3];
+        for (int end4 = end - 3; i < end4; i += 4) {
+            crc = t3[(buffer.get(i) ^ crc) & 0xff] ^ t2[(buffer.get(i + 1) ^ (crc >>> 8)) & 0xff] ^
+                    t1[buffer.get(i + 2) & 0xff] ^ t0[buffer.get(i + 3) & 0xff];
+        }
+        for (; i < end; i++) {
+            crc = (crc >>> 8) ^ t0[(crc ^ buffer.get(i)) & 0xff];
+        }
+        return crc;
+    }
+
+    public static int calculateCRC(byte[] data) {
+        return accumulateCRC(data, 0, data.length, X25_INIT_CRC);
+    }
+
+    /**
+     * Compare table-driven implementation with the bit-level one.
+     */
+    public static void main(String[] args) {
+        byte[] data = new byte[64 * 1024];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31 + (i >> 7));
+        }
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data);
+        direct.clear();
+        int rounds = 2000;
+        for (int pass = 0; pass < 3; pass++) {
+            int crc = 0;
+            long t0 = System.nanoTime();
+            for (int r = 0; r < rounds; r++) {
+                int c = X25_INIT_CRC;
+                for (byte b : data) {
+                    c = accumulateCRCBitwise(b, c);
+                }
+                crc += c;
+            }
+            long t1 = System.nanoTime();
+            for (int r = 0; r < rounds; r++) {
+                int c = X25_INIT_CRC;
+                for (byte b : data) {
+                    c = accumulateCRC(b, c);
+                }
+                crc += c;
+            }
+            long t2 = System.nanoTime();
+            for (int r = 0; r < rounds; r++) {
+                crc += accumulateCRC(data, 0, data.length, X25_INIT_CRC);
+            }
+            long t3 = System.nanoTime();
+            for (int r = 0; r < rounds; r++) {
+                crc += accumulateCRC(direct, 0, data.length, X25_INIT_CRC);
+            }
+            long t4 = System.nanoTime();
+            double mb = (double) data.length * rounds / 1e6;
+            System.out.println(String.format(
+                    "bitwise: %.0f MB/s, table: %.0f MB/s, slicing array: %.0f MB/s, slicing direct: %.0f MB/s (%04x)",
+                    mb / ((t1 - t0) * 1e-9), mb / ((t2 - t1) * 1e-9), mb / ((t3 - t2) * 1e-9),
+                    mb / ((t4 - t3) * 1e-9), crc & 0xffff));
+        }
+    }
 }
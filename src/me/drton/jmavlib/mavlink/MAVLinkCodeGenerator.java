@@ -0,0 +1,293 @@
+package me.drton.jmavlib.mavlink;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Generator of typed message classes. Messages are taken from {@link MAVLinkSchema}, so field order, offsets and
+ * extra CRCs are the same as used for parsing. Generated class is a flyweight over payload of {@link MAVLinkMessage}
+ * with accessors reading payload at constant offsets, e.g. <code>new Attitude().wrap(msg).roll()</code>.
+ * <p/>
+ * Usage: MAVLinkCodeGenerator &lt;xml file&gt; &lt;output dir&gt; &lt;package&gt;
+ * <p/>
+ * User: ton Date: 17.10.26 Time: 14:05
+ */
+public class MAVLinkCodeGenerator {
+    private static final Set<String> reservedNames = new HashSet<String>(Arrays.asList(
+            "abstract", "assert", "boolean", "break", "byte", "case", "catch", "char", "class", "const", "continue",
+            "default", "do", "double", "else", "enum", "extends", "final", "finally", "float", "for", "goto", "if",
+            "implements", "import", "instanceof", "int", "interface", "long", "native", "new", "package", "private",
+            "protected", "public", "return", "short", "static", "strictfp", "super", "switch", "synchronized", "this",
+            "throw", "throws", "transient", "try", "void", "volatile", "while", "true", "false", "null",
+            "wrap", "matches", "getClass", "hashCode", "toString", "equals", "notify", "notifyAll", "wait"));
+
+    private final MAVLinkSchema schema;
+    private final String packageName;
+    private final String sourceName;
+
+    public MAVLinkCodeGenerator(MAVLinkSchema schema, String packageName, String sourceName) {
+        this.schema = schema;
+        this.packageName = packageName;
+        this.sourceName = sourceName;
+    }
+
+    /**
+     * Generate classes for all messages of the schema.
+     *
+     * @param outputDir root source directory, package subdirectories will be created
+     * @return number of generated classes
+     * @throws IOException on IO error
+     */
+    public int generate(File outputDir) throws IOException {
+        File packageDir = new File(outputDir, packageName.replace('.', File.separatorChar));
+        if (!packageDir.isDirectory() && !packageDir.mkdirs()) {
+            throw new IOException("Can't create directory: " + packageDir);
+        }
+        int n = 0;
+        for (MAVLinkMessageDefinition definition : schema.getMessageDefinitions().values()) {
+            String className = className(definition.name);
+            Writer writer = new OutputStreamWriter(new FileOutputStream(new File(packageDir, className + ".java")),
+                    Charset.forName("UTF-8"));
+            try {
+                writer.write(generateClass(definition));
+            } finally {
+                writer.close();
+            }
+            n++;
+        }
+        return n;
+    }
+
+    public String generateClass(MAVLinkMessageDefinition definition) {
+        String className = className(definition.name);
+        StringBuilder sb = new StringBuilder();
+        sb.append("package ").append(packageName).append(";\n\n");
+        sb.append("import me.drton.jmavlib.mavlink.MAVLinkMessage;\n\n");
+        sb.append("import java.nio.ByteBuffer;\n\n");
+        sb.append("/**\n");
+        sb.append(" * ").append(definition.name).append(" message.\n");
+        sb.append(" * <p/>\n");
+        sb.append(" * Generated by MAVLinkCodeGenerator from ").append(sourceName).append(", do not edit.\n");
+        sb.append(" */\n");
+        sb.append("public final class ").append(className).append(" {\n");
+        sb.append("    public static final int MSG_ID = ").append(definition.id).append(";\n");
+        sb.append("    public static final String NAME = \"").append(definition.name).append("\";\n");
+        sb.append("    public static final int PAYLOAD_LENGTH = ").append(definition.payloadLength).append(";\n");
+        sb.append("    public static final byte EXTRA_CRC = (byte) ").append(definition.extraCRC & 0xFF).append(";\n");
+        for (MAVLinkField field : definition.fields) {
+            sb.append("    public static final int ").append(field.name.toUpperCase()).append("_OFFSET = ")
+                    .append(field.offset).append(";\n");
+        }
+        sb.append("\n");
+        sb.append("    private ByteBuffer buf;\n");
+        sb.append("    private int base;\n\n");
+
+        sb.append("    /**\n");
+        sb.append("     * Check if message has this type and the same definition as used for generation.\n");
+        sb.append("     */\n");
+        sb.append("    public static boolean matches(MAVLinkMessage msg) {\n");
+        sb.append("        return msg.getMsgID() == MSG_ID && msg.getDefinition().extraCRC == EXTRA_CRC;\n");
+        sb.append("    }\n\n");
+
+        sb.append("    /**\n");
+        sb.append("     * Point to payload of the message, accessors are valid while the message is valid.\n");
+        sb.append("     */\n");
+        sb.append("    public ").append(className).append(" wrap(MAVLinkMessage msg) {\n");
+        sb.append("        if (!matches(msg)) {\n");
+        sb.append("            throw new IllegalArgumentException(\"Not a \" + NAME + \" message: \" + msg.getMsgName());\n");
+        sb.append("        }\n");
+        sb.append("        buf = msg.getPayloadBuffer();\n");
+        sb.append("        base = msg.getPayloadOffset();\n");
+        sb.append("        return this;\n");
+        sb.append("    }\n");
+
+        for (MAVLinkField field : definition.fields) {
+            appendAccessors(sb, field);
+        }
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    private void appendAccessors(StringBuilder sb, MAVLinkField field) {
+        String name = memberName(field.name);
+        String setter = "set" + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        String offset = field.name.toUpperCase() + "_OFFSET";
+        String javaType = javaType(field.type);
+        sb.append("\n");
+        if (field.type == MAVLinkDataType.CHAR && field.isArray()) {
+            sb.append("    public String ").append(name).append("() {\n");
+            sb.append("        StringBuilder sb = new StringBuilder();\n");
+            sb.append("        for (int i = 0; i < ").append(field.arraySize).append("; i++) {\n");
+            sb.append("            byte c = buf.get(base + ").append(offset).append(" + i);\n");
+            sb.append("            if (c == 0) {\n");
+            sb.append("                break;\n");
+            sb.append("            }\n");
+            sb.append("            sb.append((char) c);\n");
+            sb.append("        }\n");
+            sb.append("        return sb.toString();\n");
+            sb.append("    }\n\n");
+            sb.append("    public void ").append(setter).append("(String value) {\n");
+            sb.append("        for (int i = 0; i < ").append(field.arraySize).append("; i++) {\n");
+            sb.append("            buf.put(base + ").append(offset)
+                    .append(" + i, i < value.length() ? (byte) value.charAt(i) : 0);\n");
+            sb.append("        }\n");
+            sb.append("    }\n");
+        } else if (field.isArray()) {
+            String pos = "base + " + offset + " + i * " + field.type.size;
+            sb.append("    public ").append(javaType).append(" ").append(name).append("(int i) {\n");
+            sb.append("        return ").append(readExpr(field.type, pos)).append(";\n");
+            sb.append("    }\n\n");
+            sb.append("    public void ").append(name).append("(").append(javaType).append("[] dst) {\n");
+            sb.append("        for (int i = 0; i < ").append(field.arraySize).append("; i++) {\n");
+            sb.append("            dst[i] = ").append(readExpr(field.type, pos)).append(";\n");
+            sb.append("        }\n");
+            sb.append("    }\n\n");
+            sb.append("    public void ").append(setter).append("(int i, ").append(javaType).append(" value) {\n");
+            sb.append("        ").append(writeStmt(field.type, pos)).append(";\n");
+            sb.append("    }\n");
+        } else {
+            String pos = "base + " + offset;
+            sb.append("    public ").append(javaType).append(" ").append(name).append("() {\n");
+            sb.append("        return ").append(readExpr(field.type, pos)).append(";\n");
+            sb.append("    }\n\n");
+            sb.append("    public void ").append(setter).append("(").append(javaType).append(" value) {\n");
+            sb.append("        ").append(writeStmt(field.type, pos)).append(";\n");
+            sb.append("    }\n");
+        }
+    }
+
+    private static String javaType(MAVLinkDataType type) {
+        switch (type) {
+            case CHAR:
+                return "byte";
+            case UINT8:
+            case INT8:
+            case UINT16:
+            case INT16:
+            case INT32:
+                return "int";
+            case UINT32:
+            case UINT64:
+            case INT64:
+                return "long";
+            case FLOAT:
+                return "float";
+            case DOUBLE:
+                return "double";
+            default:
+                throw new RuntimeException("Unknown type: " + type);
+        }
+    }
+
+    private static String readExpr(MAVLinkDataType type, String pos) {
+        switch (type) {
+            case CHAR:
+            case INT8:
+                return "buf.get(" + pos + ")";
+            case UINT8:
+                return "buf.get(" + pos + ") & 0xFF";
+            case UINT16:
+                return "buf.getShort(" + pos + ") & 0xFFFF";
+            case INT16:
+                return "buf.getShort(" + pos + ")";
+            case UINT32:
+                return "buf.getInt(" + pos + ") & 0xFFFFFFFFL";
+            case INT32:
+                return "buf.getInt(" + pos + ")";
+            case UINT64:
+            case INT64:
+                return "buf.getLong(" + pos + ")";
+            case FLOAT:
+                return "buf.getFloat(" + pos + ")";
+            case DOUBLE:
+                return "buf.getDouble(" + pos + ")";
+            default:
+                throw new RuntimeException("Unknown type: " + type);
+        }
+    }
+
+    private static String writeStmt(MAVLinkDataType type, String pos) {
+        switch (type) {
+            case CHAR:
+                return "buf.put(" + pos + ", value)";
+            case UINT8:
+            case INT8:
+                return "buf.put(" + pos + ", (byte) value)";
+            case UINT16:
+            case INT16:
+                return "buf.putShort(" + pos + ", (short) value)";
+            case UINT32:
+                return "buf.putInt(" + pos + ", (int) value)";
+            case INT32:
+                return "buf.putInt(" + pos + ", value)";
+            case UINT64:
+            case INT64:
+                return "buf.putLong(" + pos + ", value)";
+            case FLOAT:
+                return "buf.putFloat(" + pos + ", value)";
+            case DOUBLE:
+                return "buf.putDouble(" + pos + ", value)";
+            default:
+                throw new RuntimeException("Unknown type: " + type);
+        }
+    }
+
+    /**
+     * Convert message name to class name, e.g. ATTITUDE_QUATERNION -> AttitudeQuaternion.
+     */
+    static String className(String msgName) {
+        StringBuilder sb = new StringBuilder();
+        for (String part : msgName.toLowerCase().split("_")) {
+            if (part.length() > 0) {
+                sb.append(Character.toUpperCase(part.charAt(0)));
+                sb.append(part.substring(1));
+            }
+        }
+        if (sb.length() == 0 || !Character.isJavaIdentifierStart(sb.charAt(0))) {
+            sb.insert(0, "Msg");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Convert field name to accessor name, e.g. time_boot_ms -> timeBootMs.
+     */
+    static String memberName(String fieldName) {
+        StringBuilder sb = new StringBuilder();
+        boolean upper = false;
+        for (char c : fieldName.toCharArray()) {
+            if (c == '_') {
+                upper = sb.length() > 0;
+            } else {
+                sb.append(upper ? Character.toUpperCase(c) : c);
+                upper = false;
+            }
+        }
+        String name = sb.toString();
+        if (name.length() == 0 || !Character.isJavaIdentifierStart(name.charAt(0))) {
+            name = "f" + name;
+        }
+        if (reservedNames.contains(name)) {
+            name += "_";
+        }
+        return name;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: MAVLinkCodeGenerator <xml file> <output dir> <package>");
+            System.exit(1);
+        }
+        MAVLinkSchema schema = new MAVLinkSchema(args[0]);
+        MAVLinkCodeGenerator generator = new MAVLinkCodeGenerator(schema, args[2], new File(args[0]).getName());
+        int n = generator.generate(new File(args[1]));
+        System.out.println("Generated " + n + " classes");
+    }
+}
@@ -0,0 +1,33 @@
+package me.drton.jmavlib.mavlink;
+
+/**
+ * Result of frame parsing.
+ * <p/>
+ * User: ton Date: 17.10.26 Time: 11:20
+ */
+public enum MAVLinkFrameStatus {
+    /**
+     * Frame parsed successfully
+     */
+    OK,
+    /**
+     * Not enough data in buffer, buffer position is not changed
+     */
+    INCOMPLETE,
+    /**
+     * No start sign at buffer position, one byte skipped
+     */
+    INVALID_START,
+    /**
+     * Message ID is not in schema, frame skipped
+     */
+    UNKNOWN_MESSAGE,
+    /**
+     * Payload length doesn't match schema, frame skipped
+     */
+    INVALID_LENGTH,
+    /**
+     * CRC mismatch, frame skipped
+     */
+    CRC_ERROR
+}
@@ -1,5 +1,6 @@
 package me.drton.jmavlib.mavlink;
 
+import java.nio.BufferOverflowException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
@@ -11,14 +12,28 @@ public class MAVLinkMessage {
     private final static int MSG_ID_OFFSET = 5;
     public final static int DATA_OFFSET = 6;
     private final MAVLinkSchema schema;
+    /**
+     * Message definition, ID, system ID and component ID of the owned message, null and -1 for the view, use getters
+     * for both owned messages and views.
+     */
     public final MAVLinkMessageDefinition definition;
     public final int msgID;
-    private final byte[] payload;
-    private final ByteBuffer payloadBB;
-    private byte sequence = 0;
     public final int systemID;
     public final int componentID;
+    // Current frame of the view or the same as public fields for owned message
+    private MAVLinkMessageDefinition messageDefinition;
+    private int messageID;
+    private int messageSystemID;
+    private int messageComponentID;
+    private byte[] payload;
+    private ByteBuffer payloadBB;
+    private int payloadOffset = 0;
+    private ByteBuffer sourceBuffer = null;
+    private byte sequence = 0;
     private int crc = -1;
+    private byte rxStartSign;
+    private int rxPayloadLength;
+    private int rxCRCCalc;
     private Charset charset = Charset.forName("latin1");
 
     /**
@@ -39,6 +54,7 @@ public class MAVLinkMessage {
         this.systemID = systemID;
         this.componentID = componentID;
         this.msgID = msgID;
+        setOwnedFields();
     }
 
     /**
@@ -59,6 +75,7 @@ public class MAVLinkMessage {
         this.systemID = systemID;
         this.componentID = componentID;
         this.msgID = definition.id;
+        setOwnedFields();
     }
 
     /**
@@ -68,101 +85,305 @@ public class MAVLinkMessage {
      */
     public MAVLinkMessage(MAVLinkSchema schema, ByteBuffer buffer)
             throws MAVLinkProtocolException, MAVLinkUnknownMessage, BufferUnderflowException {
+        this.schema = schema;
+        checkFrameStatus(parseFrame(buffer));
+        this.definition = messageDefinition;
+        this.msgID = messageID;
+        this.systemID = messageSystemID;
+        this.componentID = messageComponentID;
+        this.payload = new byte[definition.payloadLength];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = buffer.get(payloadOffset + i);
+        }
+        this.payloadOffset = 0;
+        this.payloadBB = ByteBuffer.wrap(payload);
+        payloadBB.order(schema.getByteOrder());
+    }
+
+    /**
+     * Create unbound message view (for parsing without copying).
+     * The view doesn't own payload, it should be pointed to a frame with {@link #wrap(ByteBuffer)} before use.
+     * Public fields of the view are not set, use getters.
+     *
+     * @param schema
+     */
+    public MAVLinkMessage(MAVLinkSchema schema) {
+        this.schema = schema;
+        this.definition = null;
+        this.msgID = -1;
+        this.systemID = -1;
+        this.componentID = -1;
+    }
+
+    /**
+     * Create owned copy of the current frame of the message.
+     */
+    private MAVLinkMessage(MAVLinkMessage src) {
+        this.schema = src.schema;
+        this.definition = src.messageDefinition;
+        this.msgID = src.messageID;
+        this.systemID = src.messageSystemID;
+        this.componentID = src.messageComponentID;
+        setOwnedFields();
+        this.sequence = src.sequence;
+        this.crc = src.crc;
+        this.payload = new byte[definition.payloadLength];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = src.payloadBB.get(src.payloadOffset + i);
+        }
+        this.payloadBB = ByteBuffer.wrap(payload);
+        payloadBB.order(schema.getByteOrder());
+    }
+
+    private void setOwnedFields() {
+        messageDefinition = definition;
+        messageID = msgID;
+        messageSystemID = systemID;
+        messageComponentID = componentID;
+    }
+
+    /**
+     * Point this message to the frame at current position of the buffer without copying the payload, buffer position
+     * is moved to the end of the frame. The message can be reused for the next frame, previous content is discarded.
+     * Message is valid only until the buffer content is modified, use {@link #copy()} to keep it longer.
+     *
+     * @param buffer buffer containing the frame
+     */
+    public void wrap(ByteBuffer buffer)
+            throws MAVLinkProtocolException, MAVLinkUnknownMessage, BufferUnderflowException {
+        checkFrameStatus(tryWrap(buffer));
+    }
+
+    /**
+     * Same as {@link #wrap(ByteBuffer)} but reports errors via status instead of exceptions. On any status except
+     * OK the message content is undefined, buffer position is changed as described in {@link MAVLinkFrameStatus}.
+     *
+     * @param buffer buffer containing the frame
+     * @return frame status
+     */
+    public MAVLinkFrameStatus tryWrap(ByteBuffer buffer) {
+        MAVLinkFrameStatus status = parseFrame(buffer);
+        if (status == MAVLinkFrameStatus.OK) {
+            if (buffer != sourceBuffer) {
+                // Keep own duplicate to use schema byte order without touching the caller's buffer
+                sourceBuffer = buffer;
+                payloadBB = buffer.duplicate();
+                payloadBB.order(schema.getByteOrder());
+            } else {
+                // Limit of the buffer changes when it's refilled, duplicate has own limit
+                payloadBB.limit(buffer.limit());
+            }
+            payload = null;
+        }
+        return status;
+    }
+
+    /**
+     * Check if the message is a view pointing to external buffer.
+     *
+     * @return true if the message doesn't own its payload
+     */
+    public boolean isView() {
+        return payload == null;
+    }
+
+    /**
+     * Create detached copy of the message with own payload.
+     *
+     * @return new message
+     */
+    public MAVLinkMessage copy() {
+        return new MAVLinkMessage(this);
+    }
+
+    /**
+     * Parse frame header and check CRC, buffer position should be set to start of the frame. On success payloadOffset
+     * is set to absolute position of the payload in the buffer.
+     *
+     * @param buffer
+     * @return frame status
+     */
+    private MAVLinkFrameStatus parseFrame(ByteBuffer buffer) {
         if (buffer.remaining() < 8) {
-            throw new BufferUnderflowException();
+            return MAVLinkFrameStatus.INCOMPLETE;
         }
         int startPos = buffer.position();
-        byte startSign = buffer.get();
-        if (startSign != schema.getStartSign()) {
-            throw new MAVLinkProtocolException(
-                    String.format("Invalid start sign: %02x, should be %02x", startSign, schema.getStartSign()));
-        }
-        int payloadLen = buffer.get() & 0xff;
-        if (buffer.remaining() < payloadLen + 6) {
-            buffer.position(startPos);
-            throw new BufferUnderflowException();
-        }
-        sequence = buffer.get();
-        systemID = buffer.get() & 0xff;
-        componentID = buffer.get() & 0xff;
-        msgID = buffer.get() & 0xff;
-        this.schema = schema;
-        this.definition = schema.getMessageDefinition(msgID);
-        if (definition == null) {
+        rxStartSign = buffer.get(startPos);
+        if (rxStartSign != schema.getStartSign()) {
+            buffer.position(startPos + 1);
+            return MAVLinkFrameStatus.INVALID_START;
+        }
+        rxPayloadLength = buffer.get(startPos + 1) & 0xff;
+        if (buffer.remaining() < rxPayloadLength + 8) {
+            return MAVLinkFrameStatus.INCOMPLETE;
+        }
+        int frameEnd = startPos + rxPayloadLength + 8;
+        sequence = buffer.get(startPos + 2);
+        messageSystemID = buffer.get(startPos + 3) & 0xff;
+        messageComponentID = buffer.get(startPos + 4) & 0xff;
+        messageID = buffer.get(startPos + MSG_ID_OFFSET) & 0xff;
+        this.messageDefinition = schema.getMessageDefinition(messageID);
+        buffer.position(frameEnd);
+        if (messageDefinition == null) {
             // Unknown message skip it
-            buffer.position(buffer.position() + payloadLen + 2);
-            throw new MAVLinkUnknownMessage(String.format("Unknown message: %s", msgID));
+            return MAVLinkFrameStatus.UNKNOWN_MESSAGE;
         }
-        if (payloadLen != definition.payloadLength) {
-            buffer.position(buffer.position() + payloadLen + 2);
-            throw new MAVLinkUnknownMessage(
-                    String.format("Invalid payload len for msg %s (%s): %s, should be %s", definition.name, msgID,
-                            payloadLen, definition.payloadLength));
+        if (rxPayloadLength != messageDefinition.payloadLength) {
+            return MAVLinkFrameStatus.INVALID_LENGTH;
         }
-        this.payload = new byte[definition.payloadLength];
-        buffer.get(payload);
-        crc = Short.reverseBytes(buffer.getShort()) & 0xffff;
-        int endPos = buffer.position();
-        buffer.position(startPos);
-        int crcCalc = calculateCRC(buffer);
-        buffer.position(endPos);
-        if (crc != crcCalc) {
-            throw new MAVLinkUnknownMessage(
-                    String.format("CRC error for msg %s (%s): %02x, should be %02x", definition.name, msgID, crc,
-                            crcCalc));
+        crc = (buffer.get(frameEnd - 2) & 0xff) | (buffer.get(frameEnd - 1) & 0xff) << 8;
+        rxCRCCalc = calculateCRC(buffer, startPos);
+        if (crc != rxCRCCalc) {
+            return MAVLinkFrameStatus.CRC_ERROR;
+        }
+        payloadOffset = startPos + DATA_OFFSET;
+        return MAVLinkFrameStatus.OK;
+    }
+
+    private void checkFrameStatus(MAVLinkFrameStatus status)
+            throws MAVLinkProtocolException, MAVLinkUnknownMessage, BufferUnderflowException {
+        switch (status) {
+            case OK:
+                return;
+            case INCOMPLETE:
+                throw new BufferUnderflowException();
+            case INVALID_START:
+                throw new MAVLinkProtocolException(
+                        String.format("Invalid start sign: %02x, should be %02x", rxStartSign, schema.getStartSign()));
+            case UNKNOWN_MESSAGE:
+                throw new MAVLinkUnknownMessage(String.format("Unknown message: %s", messageID));
+            case INVALID_LENGTH:
+                throw new MAVLinkUnknownMessage(
+                        String.format("Invalid payload len for msg %s (%s): %s, should be %s", messageDefinition.name, messageID,
+                                rxPayloadLength, messageDefinition.payloadLength));
+            case CRC_ERROR:
+                throw new MAVLinkUnknownMessage(
+                        String.format("CRC error for msg %s (%s): %02x, should be %02x", messageDefinition.name, messageID, crc,
+                                rxCRCCalc));
+            default:
+                throw new RuntimeException("Unknown frame status: " + status);
         }
-        this.payloadBB = ByteBuffer.wrap(payload);
-        payloadBB.order(schema.getByteOrder());
     }
 
     public ByteBuffer encode(byte sequence) {
-        this.sequence = sequence;
-        ByteBuffer buf = ByteBuffer.allocate(payload.length + 8);
+        ByteBuffer buf = ByteBuffer.allocate(getFrameLength());
         buf.order(schema.getByteOrder());
+        encode(buf, sequence);
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Encode message into buffer at its current position, buffer position is moved to the end of the frame.
+     * Allows to put many messages back-to-back into one (possibly direct) buffer.
+     *
+     * @param buf      destination buffer, should have at least {@link #getFrameLength()} bytes remaining
+     * @param sequence sequence number
+     * @throws BufferOverflowException if not enough space in buffer, buffer is not changed in this case
+     */
+    public void encode(ByteBuffer buf, byte sequence) throws BufferOverflowException {
+        if (buf.remaining() < getFrameLength()) {
+            throw new BufferOverflowException();
+        }
+        this.sequence = sequence;
+        int startPos = buf.position();
         buf.put(schema.getStartSign());
-        buf.put((byte) definition.payloadLength);
+        buf.put((byte) messageDefinition.payloadLength);
         buf.put(sequence);
-        buf.put((byte) systemID);
-        buf.put((byte) componentID);
-        buf.put((byte) msgID);
-        buf.put(payload);
-        buf.flip();
-        crc = calculateCRC(buf);
-        buf.limit(buf.capacity());
+        buf.put((byte) messageSystemID);
+        buf.put((byte) messageComponentID);
+        buf.put((byte) messageID);
+        if (payload != null) {
+            buf.put(payload);
+        } else {
+            for (int i = 0; i < messageDefinition.payloadLength; i++) {
+                buf.put(payloadBB.get(payloadOffset + i));
+            }
+        }
+        crc = calculateCRC(buf, startPos);
         buf.put((byte) crc);
         buf.put((byte) (crc >> 8));
-        buf.flip();
-        return buf;
     }
 
     /**
-     * Calculate CRC of the message, buffer position should be set to start of the message.
+     * Get length of encoded message.
+     *
+     * @return frame length in bytes including header and CRC
+     */
+    public int getFrameLength() {
+        return messageDefinition.payloadLength + 8;
+    }
+
+    /**
+     * Calculate CRC of the message, buffer position is not changed.
      *
      * @param buf
+     * @param startPos absolute position of the start of the message in the buffer
      * @return CRC
      */
-    private int calculateCRC(ByteBuffer buf) {
-        buf.get();  // Skip start sign
-        int c = 0xFFFF;
-        for (int i = 0; i < definition.payloadLength + 5; i++) {
-            c = MAVLinkCRC.accumulateCRC(buf.get(), c);
-        }
-        c = MAVLinkCRC.accumulateCRC(definition.extraCRC, c);
+    private int calculateCRC(ByteBuffer buf, int startPos) {
+        // Skip start sign
+        int c = MAVLinkCRC.accumulateCRC(buf, startPos + 1, messageDefinition.payloadLength + 5, MAVLinkCRC.X25_INIT_CRC);
+        c = MAVLinkCRC.accumulateCRC(messageDefinition.extraCRC, c);
         return c;
     }
 
+    /**
+     * Get buffer containing the payload, buffer uses schema byte order and should be accessed with absolute
+     * get/put methods only.
+     *
+     * @return payload buffer
+     */
+    public ByteBuffer getPayloadBuffer() {
+        return payloadBB;
+    }
+
+    /**
+     * Get offset of the payload in payload buffer.
+     *
+     * @return absolute position of the first payload byte
+     */
+    public int getPayloadOffset() {
+        return payloadOffset;
+    }
+
     public int getMsgType() {
-        return definition.id;
+        return messageDefinition.id;
+    }
+
+    public MAVLinkMessageDefinition getDefinition() {
+        return messageDefinition;
+    }
+
+    public int getMsgID() {
+        return messageID;
+    }
+
+    public int getSystemID() {
+        return messageSystemID;
+    }
+
+    public int getComponentID() {
+        return messageComponentID;
+    }
+
+    /**
+     * Get sequence number of received or last encoded frame.
+     *
+     * @return sequence number
+     */
+    public byte getSequence() {
+        return sequence;
     }
 
     public String getMsgName() {
-        return definition.name;
+        return messageDefinition.name;
     }
 
     public Object get(MAVLinkField field) {
         if (field.arraySize > 1) {
             Object[] res = new Object[field.arraySize];
-            int offs = field.offset;
+            int offs = payloadOffset + field.offset;
             for (int i = 0; i < field.arraySize; i++) {
                 res[i] = getValue(field.type, offs);
                 offs += field.type.size;
@@ -181,7 +402,7 @@ public class MAVLinkMessage {
                 return res;
             }
         } else {
-            return getValue(field.type, field.offset);
+            return getValue(field.type, payloadOffset + field.offset);
         }
     }
 
@@ -226,13 +447,13 @@ public class MAVLinkMessage {
             } else {
                 valueArray = (Object[]) value;
             }
-            int offset = field.offset;
+            int offset = payloadOffset + field.offset;
             for (int i = 0; i < field.arraySize; i++) {
                 setValue(field.type, offset, valueArray[i]);
                 offset += field.type.size;
             }
         } else {
-            setValue(field.type, field.offset, value);
+            setValue(field.type, payloadOffset + field.offset, value);
         }
     }
 
@@ -267,51 +488,300 @@ public class MAVLinkMessage {
     }
 
     public Object get(String fieldName) {
-        return get(definition.fieldsByName.get(fieldName));
+        return get(messageDefinition.fieldsByName.get(fieldName));
     }
 
     public void set(String fieldName, Object value) {
-        set(definition.fieldsByName.get(fieldName), value);
+        set(messageDefinition.fieldsByName.get(fieldName), value);
     }
 
     public Object get(int fieldID) {
-        return get(definition.fields[fieldID]);
+        return get(messageDefinition.fields[fieldID]);
     }
 
     public void set(int fieldID, Object value) {
-        set(definition.fields[fieldID], value);
+        set(messageDefinition.fields[fieldID], value);
+    }
+
+    private long getLongValue(MAVLinkDataType type, int offset) {
+        switch (type) {
+            case CHAR:
+            case INT8:
+                return payloadBB.get(offset);
+            case UINT8:
+                return payloadBB.get(offset) & 0xFF;
+            case UINT16:
+                return payloadBB.getShort(offset) & 0xFFFF;
+            case INT16:
+                return payloadBB.getShort(offset);
+            case UINT32:
+                return payloadBB.getInt(offset) & 0xFFFFFFFFl;
+            case INT32:
+                return payloadBB.getInt(offset);
+            case UINT64:
+            case INT64:
+                return payloadBB.getLong(offset);
+            case FLOAT:
+                return (long) payloadBB.getFloat(offset);
+            case DOUBLE:
+                return (long) payloadBB.getDouble(offset);
+            default:
+                throw new RuntimeException("Unknown type: " + type);
+        }
+    }
+
+    private double getDoubleValue(MAVLinkDataType type, int offset) {
+        switch (type) {
+            case FLOAT:
+                return payloadBB.getFloat(offset);
+            case DOUBLE:
+                return payloadBB.getDouble(offset);
+            default:
+                return getLongValue(type, offset);
+        }
+    }
+
+    private void setLongValue(MAVLinkDataType type, int offset, long value) {
+        switch (type) {
+            case CHAR:
+            case UINT8:
+            case INT8:
+                payloadBB.put(offset, (byte) value);
+                break;
+            case UINT16:
+            case INT16:
+                payloadBB.putShort(offset, (short) value);
+                break;
+            case UINT32:
+            case INT32:
+                payloadBB.putInt(offset, (int) value);
+                break;
+            case UINT64:
+            case INT64:
+                payloadBB.putLong(offset, value);
+                break;
+            case FLOAT:
+                payloadBB.putFloat(offset, (float) value);
+                break;
+            case DOUBLE:
+                payloadBB.putDouble(offset, (double) value);
+                break;
+            default:
+                throw new RuntimeException("Unknown type: " + type);
+        }
+    }
+
+    private void setDoubleValue(MAVLinkDataType type, int offset, double value) {
+        switch (type) {
+            case FLOAT:
+                payloadBB.putFloat(offset, (float) value);
+                break;
+            case DOUBLE:
+                payloadBB.putDouble(offset, value);
+                break;
+            default:
+                setLongValue(type, offset, (long) value);
+                break;
+        }
+    }
+
+    private int elementOffset(MAVLinkField field, int idx) {
+        if (idx < 0 || idx >= field.arraySize) {
+            throw new IndexOutOfBoundsException("Index " + idx + " out of bounds for field " + field.name);
+        }
+        return payloadOffset + field.offset + idx * field.type.size;
+    }
+
+    /**
+     * Get field value without boxing. Field can be resolved once via getDefinition().fieldsByName and reused for all
+     * messages of the same type.
+     *
+     * @param field field of this message type
+     * @return field value converted to int
+     */
+    public int getInt(MAVLinkField field) {
+        return (int) getLongValue(field.type, payloadOffset + field.offset);
+    }
+
+    public int getInt(MAVLinkField field, int idx) {
+        return (int) getLongValue(field.type, elementOffset(field, idx));
+    }
+
+    public long getLong(MAVLinkField field) {
+        return getLongValue(field.type, payloadOffset + field.offset);
+    }
+
+    public long getLong(MAVLinkField field, int idx) {
+        return getLongValue(field.type, elementOffset(field, idx));
+    }
+
+    public float getFloat(MAVLinkField field) {
+        return (float) getDoubleValue(field.type, payloadOffset + field.offset);
+    }
+
+    public float getFloat(MAVLinkField field, int idx) {
+        return (float) getDoubleValue(field.type, elementOffset(field, idx));
+    }
+
+    public double getDouble(MAVLinkField field) {
+        return getDoubleValue(field.type, payloadOffset + field.offset);
+    }
+
+    public double getDouble(MAVLinkField field, int idx) {
+        return getDoubleValue(field.type, elementOffset(field, idx));
+    }
+
+    /**
+     * Read array field into caller-supplied array.
+     *
+     * @param field array field
+     * @param dst   destination array
+     * @return number of elements copied, min(field.arraySize, dst.length)
+     */
+    public int getInts(MAVLinkField field, int[] dst) {
+        int n = Math.min(field.arraySize, dst.length);
+        int offset = payloadOffset + field.offset;
+        for (int i = 0; i < n; i++) {
+            dst[i] = (int) getLongValue(field.type, offset);
+            offset += field.type.size;
+        }
+        return n;
+    }
+
+    public int getLongs(MAVLinkField field, long[] dst) {
+        int n = Math.min(field.arraySize, dst.length);
+        int offset = payloadOffset + field.offset;
+        for (int i = 0; i < n; i++) {
+            dst[i] = getLongValue(field.type, offset);
+            offset += field.type.size;
+        }
+        return n;
+    }
+
+    public int getFloats(MAVLinkField field, float[] dst) {
+        int n = Math.min(field.arraySize, dst.length);
+        int offset = payloadOffset + field.offset;
+        for (int i = 0; i < n; i++) {
+            dst[i] = (float) getDoubleValue(field.type, offset);
+            offset += field.type.size;
+        }
+        return n;
+    }
+
+    public int getDoubles(MAVLinkField field, double[] dst) {
+        int n = Math.min(field.arraySize, dst.length);
+        int offset = payloadOffset + field.offset;
+        for (int i = 0; i < n; i++) {
+            dst[i] = getDoubleValue(field.type, offset);
+            offset += field.type.size;
+        }
+        return n;
+    }
+
+    public void setInt(MAVLinkField field, int value) {
+        setLongValue(field.type, payloadOffset + field.offset, value);
+    }
+
+    public void setInt(MAVLinkField field, int idx, int value) {
+        setLongValue(field.type, elementOffset(field, idx), value);
+    }
+
+    public void setLong(MAVLinkField field, long value) {
+        setLongValue(field.type, payloadOffset + field.offset, value);
+    }
+
+    public void setLong(MAVLinkField field, int idx, long value) {
+        setLongValue(field.type, elementOffset(field, idx), value);
+    }
+
+    public void setFloat(MAVLinkField field, float value) {
+        setDoubleValue(field.type, payloadOffset + field.offset, value);
+    }
+
+    public void setFloat(MAVLinkField field, int idx, float value) {
+        setDoubleValue(field.type, elementOffset(field, idx), value);
+    }
+
+    public void setDouble(MAVLinkField field, double value) {
+        setDoubleValue(field.type, payloadOffset + field.offset, value);
+    }
+
+    public void setDouble(MAVLinkField field, int idx, double value) {
+        setDoubleValue(field.type, elementOffset(field, idx), value);
+    }
+
+    /**
+     * Write array field from caller-supplied array, elements not covered by src are not changed.
+     *
+     * @param field array field
+     * @param src   source array
+     */
+    public void setInts(MAVLinkField field, int[] src) {
+        int n = Math.min(field.arraySize, src.length);
+        int offset = payloadOffset + field.offset;
+        for (int i = 0; i < n; i++) {
+            setLongValue(field.type, offset, src[i]);
+            offset += field.type.size;
+        }
+    }
+
+    public void setLongs(MAVLinkField field, long[] src) {
+        int n = Math.min(field.arraySize, src.length);
+        int offset = payloadOffset + field.offset;
+        for (int i = 0; i < n; i++) {
+            setLongValue(field.type, offset, src[i]);
+            offset += field.type.size;
+        }
+    }
+
+    public void setFloats(MAVLinkField field, float[] src) {
+        int n = Math.min(field.arraySize, src.length);
+        int offset = payloadOffset + field.offset;
+        for (int i = 0; i < n; i++) {
+            setDoubleValue(field.type, offset, src[i]);
+            offset += field.type.size;
+        }
+    }
+
+    public void setDoubles(MAVLinkField field, double[] src) {
+        int n = Math.min(field.arraySize, src.length);
+        int offset = payloadOffset + field.offset;
+        for (int i = 0; i < n; i++) {
+            setDoubleValue(field.type, offset, src[i]);
+            offset += field.type.size;
+        }
     }
 
     public int getInt(String fieldName) {
-        return ((Number) get(fieldName)).intValue();
+        return getInt(messageDefinition.fieldsByName.get(fieldName));
     }
 
     public int getInt(int fieldID) {
-        return ((Number) get(fieldID)).intValue();
+        return getInt(messageDefinition.fields[fieldID]);
     }
 
     public long getLong(String fieldName) {
-        return ((Number) get(fieldName)).longValue();
+        return getLong(messageDefinition.fieldsByName.get(fieldName));
     }
 
     public long getLong(int fieldID) {
-        return ((Number) get(fieldID)).longValue();
+        return getLong(messageDefinition.fields[fieldID]);
     }
 
     public float getFloat(String fieldName) {
-        return ((Number) get(fieldName)).floatValue();
+        return getFloat(messageDefinition.fieldsByName.get(fieldName));
     }
 
     public float getFloat(int fieldID) {
-        return ((Number) get(fieldID)).floatValue();
+        return getFloat(messageDefinition.fields[fieldID]);
     }
 
     public double getDouble(String fieldName) {
-        return ((Number) get(fieldName)).doubleValue();
+        return getDouble(messageDefinition.fieldsByName.get(fieldName));
     }
 
     public double getDouble(int fieldID) {
-        return ((Number) get(fieldID)).doubleValue();
+        return getDouble(messageDefinition.fields[fieldID]);
     }
 
     public String getString(int fieldID) {
@@ -325,13 +795,13 @@ public class MAVLinkMessage {
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        for (MAVLinkField field : definition.fields) {
+        for (MAVLinkField field : messageDefinition.fields) {
             sb.append(field.name);
             sb.append("=");
             sb.append(get(field));
             sb.append(" ");
         }
-        return String.format("<MAVLinkMessage %s seq=%s sysID=%s compID=%s ID=%s CRC=%04x %s/>", definition.name,
-                sequence & 0xff, systemID, componentID, msgID, crc, sb.toString());
+        return String.format("<MAVLinkMessage %s seq=%s sysID=%s compID=%s ID=%s CRC=%04x %s/>", messageDefinition.name,
+                sequence & 0xff, messageSystemID, messageComponentID, messageID, crc, sb.toString());
     }
 }
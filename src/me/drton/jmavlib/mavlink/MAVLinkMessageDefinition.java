@@ -1,6 +1,5 @@
 package me.drton.jmavlib.mavlink;
 
-import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -18,6 +17,15 @@ public class MAVLinkMessageDefinition {
     public final int payloadLength;
 
     public MAVLinkMessageDefinition(int id, String name, MAVLinkField[] fields) {
+        this(id, name, fields, null);
+    }
+
+    /**
+     * Create definition with known extra CRC, e.g. loaded from schema cache.
+     *
+     * @param extraCRC extra CRC or null to calculate it from fields
+     */
+    public MAVLinkMessageDefinition(int id, String name, MAVLinkField[] fields, Byte extraCRC) {
         this.id = id;
         this.name = name;
         this.fields = fields;
@@ -29,18 +37,30 @@ public class MAVLinkMessageDefinition {
             len += field.size;
         }
         this.payloadLength = len;
-        this.extraCRC = calculateExtraCRC();
+        this.extraCRC = extraCRC != null ? extraCRC : calculateExtraCRC();
     }
 
     private byte calculateExtraCRC() {
-        String extraCRCStr = name + " ";
+        // CRC of string "<name> <ctype> <name> ... " with array sizes as chars, accumulated without building it
+        int crc = accumulateCRC(name, MAVLinkCRC.X25_INIT_CRC);
+        crc = MAVLinkCRC.accumulateCRC((byte) ' ', crc);
         for (MAVLinkField field : fields) {
-            extraCRCStr += field.type.ctype + " " + field.name + " ";
+            crc = accumulateCRC(field.type.ctype, crc);
+            crc = MAVLinkCRC.accumulateCRC((byte) ' ', crc);
+            crc = accumulateCRC(field.name, crc);
+            crc = MAVLinkCRC.accumulateCRC((byte) ' ', crc);
             if (field.isArray()) {
-                extraCRCStr += (char) field.arraySize;
+                crc = MAVLinkCRC.accumulateCRC((byte) field.arraySize, crc);
             }
         }
-        int extraCRCRaw = MAVLinkCRC.calculateCRC(extraCRCStr.getBytes(Charset.forName("latin1")));
-        return (byte) ((extraCRCRaw & 0x00FF) ^ ((extraCRCRaw >> 8 & 0x00FF)));
+        return (byte) ((crc & 0x00FF) ^ ((crc >> 8 & 0x00FF)));
+    }
+
+    private static int accumulateCRC(String s, int crc) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            crc = MAVLinkCRC.accumulateCRC(c < 256 ? (byte) c : (byte) '?', crc);
+        }
+        return crc;
     }
 }
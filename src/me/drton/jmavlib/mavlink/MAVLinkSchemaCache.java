@@ -0,0 +1,215 @@
+package me.drton.jmavlib.mavlink;
+
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact binary snapshot of {@link MAVLinkSchema}. Snapshot contains list of source XML files and their hash and is
+ * used only if the source files are not changed, otherwise XML is parsed again and snapshot is regenerated.
+ * <p/>
+ * User: ton Date: 17.10.26 Time: 15:10
+ */
+public class MAVLinkSchemaCache {
+    private static final int MAGIC = 0x4D534348;    // "MSCH"
+    private static final int VERSION = 1;
+
+    /**
+     * Load schema from cache file placed near XML file ("common.xml" -> "common.xml.cache").
+     *
+     * @param xmlFileName main XML file
+     * @return schema
+     */
+    public static MAVLinkSchema load(String xmlFileName)
+            throws ParserConfigurationException, IOException, SAXException {
+        return load(xmlFileName, xmlFileName + ".cache");
+    }
+
+    /**
+     * Load schema from cache file if it's up to date, otherwise parse XML and write the cache. Errors on writing the
+     * cache are ignored, so read-only locations work but without caching.
+     *
+     * @param xmlFileName   main XML file
+     * @param cacheFileName cache file
+     * @return schema
+     */
+    public static MAVLinkSchema load(String xmlFileName, String cacheFileName)
+            throws ParserConfigurationException, IOException, SAXException {
+        File cacheFile = new File(cacheFileName);
+        if (cacheFile.isFile()) {
+            try {
+                MAVLinkSchema schema = read(cacheFile);
+                List<File> sources = schema.getSourceFiles();
+                if (!sources.isEmpty() && sources.get(0).getCanonicalFile().equals(
+                        new File(xmlFileName).getCanonicalFile())) {
+                    return schema;
+                }
+            } catch (IOException ignored) {
+                // Outdated or corrupted cache, regenerate
+            }
+        }
+        MAVLinkSchema schema = new MAVLinkSchema(xmlFileName);
+        try {
+            write(schema, cacheFile);
+        } catch (IOException ignored) {
+        }
+        return schema;
+    }
+
+    /**
+     * Write schema snapshot.
+     *
+     * @param schema schema loaded from XML
+     * @param file   cache file
+     * @throws IOException on IO error
+     */
+    public static void write(MAVLinkSchema schema, File file) throws IOException {
+        List<File> sources = new ArrayList<File>();
+        for (File source : schema.getSourceFiles()) {
+            sources.add(source.getCanonicalFile());
+        }
+        byte[] hash = hashSources(sources);
+        // Unique temporary file in the same directory, so concurrent writers don't overwrite each other and rename is
+        // not across file systems
+        File tmpFile = File.createTempFile("." + file.getName() + "-", ".tmp", file.getAbsoluteFile().getParentFile());
+        boolean written = false;
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sources.size());
+            for (File source : sources) {
+                out.writeUTF(source.getPath());
+            }
+            out.writeShort(hash.length);
+            out.write(hash);
+            out.writeByte(schema.getStartSign());
+            out.writeBoolean(schema.getByteOrder() == ByteOrder.LITTLE_ENDIAN);
+            out.writeInt(schema.getMessageDefinitions().size());
+            for (MAVLinkMessageDefinition definition : schema.getMessageDefinitions().values()) {
+                out.writeShort(definition.id);
+                out.writeUTF(definition.name);
+                out.writeByte(definition.extraCRC);
+                out.writeShort(definition.fields.length);
+                for (MAVLinkField field : definition.fields) {
+                    out.writeByte(field.type.id);
+                    out.writeShort(field.arraySize);
+                    out.writeUTF(field.name);
+                }
+            }
+            out.close();
+            written = true;
+        } finally {
+            if (!written) {
+                if (out != null) {
+                    out.close();
+                }
+                tmpFile.delete();
+            }
+        }
+        // Replace atomically to not leave partially written cache for concurrent readers
+        if (!tmpFile.renameTo(file)) {
+            file.delete();
+            if (!tmpFile.renameTo(file)) {
+                tmpFile.delete();
+                throw new IOException("Can't write schema cache: " + file);
+            }
+        }
+    }
+
+    /**
+     * Read schema snapshot.
+     *
+     * @param file cache file
+     * @return schema
+     * @throws IOException if cache is corrupted or source files are changed
+     */
+    public static MAVLinkSchema read(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Invalid schema cache format: " + file);
+            }
+            int sourcesNum = in.readInt();
+            List<File> sources = new ArrayList<File>(sourcesNum);
+            for (int i = 0; i < sourcesNum; i++) {
+                sources.add(new File(in.readUTF()));
+            }
+            byte[] hash = new byte[in.readUnsignedShort()];
+            in.readFully(hash);
+            if (!Arrays.equals(hash, hashSources(sources))) {
+                throw new IOException("Schema cache is outdated: " + file);
+            }
+            byte startSign = in.readByte();
+            ByteOrder byteOrder = in.readBoolean() ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+            MAVLinkSchema schema = new MAVLinkSchema(startSign, byteOrder, sources);
+            MAVLinkDataType[] types = MAVLinkDataType.values();
+            int definitionsNum = in.readInt();
+            for (int i = 0; i < definitionsNum; i++) {
+                int id = in.readUnsignedShort();
+                String name = in.readUTF();
+                byte extraCRC = in.readByte();
+                MAVLinkField[] fields = new MAVLinkField[in.readUnsignedShort()];
+                for (int j = 0; j < fields.length; j++) {
+                    int typeID = in.readUnsignedByte();
+                    if (typeID >= types.length) {
+                        throw new IOException("Invalid field type in schema cache: " + typeID);
+                    }
+                    int arraySize = in.readUnsignedShort();
+                    fields[j] = new MAVLinkField(types[typeID], arraySize, in.readUTF());
+                }
+                schema.addMessageDefinition(new MAVLinkMessageDefinition(id, name, fields, extraCRC));
+            }
+            return schema;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Calculate hash of content of all source files.
+     *
+     * @throws IOException if any of the files can't be read
+     */
+    private static byte[] hashSources(List<File> sources) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        byte[] buf = new byte[65536];
+        for (File source : sources) {
+            digest.update(source.getPath().getBytes("UTF-8"));
+            InputStream in = new FileInputStream(source);
+            try {
+                while (true) {
+                    int n = in.read(buf);
+                    if (n < 0) {
+                        break;
+                    }
+                    digest.update(buf, 0, n);
+                }
+            } finally {
+                in.close();
+            }
+        }
+        return digest.digest();
+    }
+}
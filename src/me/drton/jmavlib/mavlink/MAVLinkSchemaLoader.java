@@ -0,0 +1,230 @@
+package me.drton.jmavlib.mavlink;
+
+import org.xml.sax.SAXException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Streaming (StAX) loader of MAVLink XML definitions. Each XML file is parsed once per loader, includes are
+ * de-duplicated by canonical path, so dialects sharing common.xml can be loaded together (also in parallel) without
+ * parsing it again.
+ * <p/>
+ * User: ton Date: 17.10.26 Time: 16:40
+ */
+public class MAVLinkSchemaLoader {
+    private final XMLInputFactory xmlFactory;
+    private final ConcurrentMap<File, FutureTask<XMLFile>> files = new ConcurrentHashMap<File, FutureTask<XMLFile>>();
+
+    private static final Comparator<MAVLinkField> fieldsComparator = new Comparator<MAVLinkField>() {
+        @Override
+        public int compare(MAVLinkField field2, MAVLinkField field1) {
+            // Sort on type size
+            if (field1.type.size > field2.type.size) {
+                return 1;
+            } else if (field1.type.size < field2.type.size) {
+                return -1;
+            }
+            return 0;
+        }
+    };
+
+    /**
+     * Parsed XML file: includes and messages defined in the file itself.
+     */
+    private static class XMLFile {
+        final List<File> includes = new ArrayList<File>();
+        final List<MAVLinkMessageDefinition> definitions = new ArrayList<MAVLinkMessageDefinition>();
+    }
+
+    public MAVLinkSchemaLoader() {
+        xmlFactory = XMLInputFactory.newInstance();
+        xmlFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        xmlFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    /**
+     * Load schema from XML file with all includes.
+     *
+     * @param xmlFileName main XML file
+     * @return schema
+     */
+    public MAVLinkSchema load(String xmlFileName) throws IOException, SAXException {
+        MAVLinkSchema schema = new MAVLinkSchema(MAVLinkSchema.DEFAULT_START_SIGN, MAVLinkSchema.DEFAULT_BYTE_ORDER,
+                new ArrayList<File>());
+        load(schema, xmlFileName);
+        return schema;
+    }
+
+    /**
+     * Load several dialects in parallel, files included by several dialects are parsed once.
+     *
+     * @param xmlFileNames main XML files of dialects
+     * @param threads      number of threads to use
+     * @return map of XML file name - schema, in the same order as files
+     */
+    public Map<String, MAVLinkSchema> loadAll(List<String> xmlFileNames, int threads)
+            throws IOException, SAXException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, xmlFileNames.size())));
+        try {
+            Map<String, Future<MAVLinkSchema>> futures = new LinkedHashMap<String, Future<MAVLinkSchema>>();
+            for (final String xmlFileName : xmlFileNames) {
+                futures.put(xmlFileName, executor.submit(new Callable<MAVLinkSchema>() {
+                    @Override
+                    public MAVLinkSchema call() throws Exception {
+                        return load(xmlFileName);
+                    }
+                }));
+            }
+            Map<String, MAVLinkSchema> schemas = new LinkedHashMap<String, MAVLinkSchema>();
+            for (Map.Entry<String, Future<MAVLinkSchema>> entry : futures.entrySet()) {
+                schemas.put(entry.getKey(), getResult(entry.getValue()));
+            }
+            return schemas;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    void load(MAVLinkSchema schema, String xmlFileName) throws IOException, SAXException {
+        processFile(schema, new File(xmlFileName).getCanonicalFile(), new HashSet<File>());
+    }
+
+    private void processFile(MAVLinkSchema schema, File file, Set<File> processed) throws IOException, SAXException {
+        if (!processed.add(file)) {
+            return;
+        }
+        schema.getSourceFiles().add(file);
+        XMLFile xmlFile = getFile(file);
+        for (File include : xmlFile.includes) {
+            processFile(schema, include, processed);
+        }
+        for (MAVLinkMessageDefinition definition : xmlFile.definitions) {
+            schema.addMessageDefinition(definition);
+        }
+    }
+
+    /**
+     * Get parsed file, parse it if it was not parsed yet or wait if it's being parsed by another thread.
+     */
+    private XMLFile getFile(final File file) throws IOException, SAXException {
+        FutureTask<XMLFile> task = files.get(file);
+        if (task == null) {
+            FutureTask<XMLFile> newTask = new FutureTask<XMLFile>(new Callable<XMLFile>() {
+                @Override
+                public XMLFile call() throws Exception {
+                    return parseFile(file);
+                }
+            });
+            task = files.putIfAbsent(file, newTask);
+            if (task == null) {
+                task = newTask;
+                task.run();
+            }
+        }
+        return getResult(task);
+    }
+
+    private static <T> T getResult(Future<T> future) throws IOException, SAXException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof SAXException) {
+                throw (SAXException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private XMLFile parseFile(File file) throws IOException, SAXException {
+        XMLFile xmlFile = new XMLFile();
+        InputStream in = new BufferedInputStream(new FileInputStream(file), 65536);
+        try {
+            XMLStreamReader reader = xmlFactory.createXMLStreamReader(in);
+            try {
+                boolean root = true;
+                boolean inMessages = false;
+                int msgID = -1;
+                String msgName = null;
+                List<MAVLinkField> fields = null;
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        String element = reader.getLocalName();
+                        if (root) {
+                            if (!"mavlink".equals(element)) {
+                                throw new RuntimeException("Root element is not <mavlink>");
+                            }
+                            root = false;
+                        } else if ("include".equals(element)) {
+                            String includeFile = reader.getElementText().trim();
+                            xmlFile.includes.add(new File(file.getParentFile(), includeFile).getCanonicalFile());
+                        } else if ("messages".equals(element)) {
+                            inMessages = true;
+                        } else if (inMessages && "message".equals(element)) {
+                            msgID = Integer.parseInt(reader.getAttributeValue(null, "id"));
+                            msgName = reader.getAttributeValue(null, "name");
+                            fields = new ArrayList<MAVLinkField>();
+                        } else if (fields != null && "field".equals(element)) {
+                            String[] typeStr = reader.getAttributeValue(null, "type").split("\\[");
+                            MAVLinkDataType fieldType = MAVLinkDataType.fromCType(typeStr[0]);
+                            int arraySize = 1;
+                            if (typeStr.length > 1) {
+                                arraySize = Integer.parseInt(typeStr[1].split("\\]")[0]);
+                            }
+                            fields.add(new MAVLinkField(fieldType, arraySize, reader.getAttributeValue(null, "name")));
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        String element = reader.getLocalName();
+                        if ("messages".equals(element)) {
+                            inMessages = false;
+                        } else if (fields != null && "message".equals(element)) {
+                            MAVLinkField[] fieldsArray = fields.toArray(new MAVLinkField[fields.size()]);
+                            Arrays.sort(fieldsArray, fieldsComparator);
+                            xmlFile.definitions.add(new MAVLinkMessageDefinition(msgID, msgName, fieldsArray));
+                            fields = null;
+                        }
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new SAXException("Error parsing " + file + ": " + e.getMessage(), e);
+        } finally {
+            in.close();
+        }
+        return xmlFile;
+    }
+}
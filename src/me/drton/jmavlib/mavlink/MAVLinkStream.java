@@ -1,12 +1,20 @@
 package me.drton.jmavlib.mavlink;
 
+import java.io.File;
 import java.io.IOException;
-import java.nio.BufferUnderflowException;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.ByteChannel;
 import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
+ * Writing methods are synchronized and may be called from several threads, e.g. sending of heartbeats and commands,
+ * frames are encoded into shared buffer with sequence numbers of the stream. Reading must be done from one thread.
+ * <p/>
  * User: ton Date: 03.06.14 Time: 12:31
  */
 public class MAVLinkStream {
@@ -14,11 +22,18 @@ public class MAVLinkStream {
     private final ByteChannel channel;
     private byte txSeq = 0;
     private ByteBuffer buffer = ByteBuffer.allocate(8192);
+    private ByteBuffer txBuffer = ByteBuffer.allocateDirect(8192);
     private boolean debug = false;
+    private final MAVLinkMessage rxMessage;
+    private long receivedMessages = 0;
+    private long skippedBytes = 0;
+    private long unknownMessages = 0;
+    private long crcErrors = 0;
 
     public MAVLinkStream(MAVLinkSchema schema, ByteChannel channel) {
         this.schema = schema;
         this.channel = channel;
+        this.rxMessage = new MAVLinkMessage(schema);
         buffer.flip();
     }
 
@@ -32,8 +47,75 @@ public class MAVLinkStream {
      * @param msg Message
      * @throws IOException on IO error
      */
-    public void write(MAVLinkMessage msg) throws IOException {
-        channel.write(msg.encode(txSeq++));
+    public synchronized void write(MAVLinkMessage msg) throws IOException {
+        txBuffer.clear();
+        encode(msg, txBuffer);
+        txBuffer.flip();
+        writeFully(txBuffer);
+    }
+
+    /**
+     * Encode message into caller-supplied buffer using sequence numbers of this stream, many messages can be put
+     * back-to-back into one buffer and written later with {@link #write(ByteBuffer[])}.
+     *
+     * @param msg Message
+     * @param dst destination buffer
+     * @throws java.nio.BufferOverflowException if not enough space in buffer
+     */
+    public synchronized void encode(MAVLinkMessage msg, ByteBuffer dst) {
+        msg.encode(dst, txSeq);
+        txSeq++;
+    }
+
+    /**
+     * Write many messages, messages are encoded back-to-back into internal buffer that is written when full,
+     * so one write is issued per buffer instead of one write per message.
+     *
+     * @param msgs Messages
+     * @throws IOException on IO error
+     */
+    public synchronized void writeBatch(List<MAVLinkMessage> msgs) throws IOException {
+        txBuffer.clear();
+        for (MAVLinkMessage msg : msgs) {
+            if (txBuffer.remaining() < msg.getFrameLength()) {
+                txBuffer.flip();
+                writeFully(txBuffer);
+                txBuffer.clear();
+            }
+            encode(msg, txBuffer);
+        }
+        txBuffer.flip();
+        writeFully(txBuffer);
+    }
+
+    /**
+     * Write buffers with encoded messages, gathering write is used if supported by channel.
+     *
+     * @param buffers buffers to write, all remaining bytes are written
+     * @throws IOException on IO error
+     */
+    public synchronized void write(ByteBuffer[] buffers) throws IOException {
+        if (channel instanceof GatheringByteChannel) {
+            GatheringByteChannel gatheringChannel = (GatheringByteChannel) channel;
+            int first = 0;
+            while (first < buffers.length) {
+                if (!buffers[first].hasRemaining()) {
+                    first++;
+                    continue;
+                }
+                gatheringChannel.write(buffers, first, buffers.length - first);
+            }
+        } else {
+            for (ByteBuffer buf : buffers) {
+                writeFully(buf);
+            }
+        }
+    }
+
+    private void writeFully(ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
     }
 
     /**
@@ -43,43 +125,284 @@ public class MAVLinkStream {
      * @throws java.io.IOException on IO error
      */
     public MAVLinkMessage read() throws IOException {
+        return read(rxMessage) ? rxMessage.copy() : null;
+    }
+
+    /**
+     * Read message into reusable message view without allocation, the view points to the internal buffer of the
+     * stream and is valid only until the next read, use {@link MAVLinkMessage#copy()} to keep it.
+     * Corrupted data and frames of unknown messages are skipped and counted.
+     *
+     * @param msg message view to fill
+     * @return true if message was read or false if no more messages available at the moment
+     * @throws java.io.IOException on IO error
+     */
+    public boolean read(MAVLinkMessage msg) throws IOException {
+        byte startSign = schema.getStartSign();
         while (true) {
-            try {
-                return new MAVLinkMessage(schema, buffer);
-            } catch (MAVLinkProtocolException e) {
-                // Message is completely corrupted, try to sync on the next byte
-            } catch (MAVLinkUnknownMessage mavLinkUnknownMessage) {
-                // Message looks ok but with another protocol, skip it
-                if (debug) {
-                    mavLinkUnknownMessage.printStackTrace();
-                }
-            } catch (BufferUnderflowException bufferUnderflowException) {
-                // Try to refill buffer
-                buffer.compact();
-                int n = channel.read(buffer);
-                buffer.flip();
-                if (n <= 0) {
-                    return null;
+            // Scan for the start sign
+            int pos = buffer.position();
+            int limit = buffer.limit();
+            int p = pos;
+            while (p < limit && buffer.get(p) != startSign) {
+                p++;
+            }
+            if (p > pos) {
+                skippedBytes += p - pos;
+                buffer.position(p);
+            }
+            if (p < limit) {
+                MAVLinkFrameStatus status = msg.tryWrap(buffer);
+                switch (status) {
+                    case OK:
+                        receivedMessages++;
+                        return true;
+                    case INCOMPLETE:
+                        break;
+                    case CRC_ERROR:
+                        // Frame is corrupted or false start sign found, try to sync on the next byte
+                        crcErrors++;
+                        skippedBytes++;
+                        buffer.position(p + 1);
+                        continue;
+                    default:
+                        int next = buffer.position();
+                        if (next == limit) {
+                            // Next start sign is not in the buffer yet, read more data to make decision
+                            // independent of buffer boundaries
+                            buffer.position(p);
+                            break;
+                        }
+                        if (buffer.get(next) != startSign) {
+                            // No start sign after the frame, looks like garbage, try to sync on the next byte
+                            skippedBytes++;
+                            buffer.position(p + 1);
+                            continue;
+                        }
+                        // Message looks ok but with another protocol, it's already skipped
+                        unknownMessages++;
+                        if (debug) {
+                            System.err.println(
+                                    String.format("Skipped MAVLink frame: %s, msg ID %s", status, msg.getMsgID()));
+                        }
+                        continue;
                 }
             }
+            // Try to refill buffer
+            if (!refill()) {
+                return false;
+            }
         }
     }
 
+    /**
+     * Get number of messages successfully read.
+     */
+    public long getReceivedMessages() {
+        return receivedMessages;
+    }
+
+    /**
+     * Get number of bytes skipped while searching for start sign.
+     */
+    public long getSkippedBytes() {
+        return skippedBytes;
+    }
+
+    /**
+     * Get number of frames skipped because of unknown message ID or payload length.
+     */
+    public long getUnknownMessages() {
+        return unknownMessages;
+    }
+
+    /**
+     * Get number of frames with CRC errors.
+     */
+    public long getCRCErrors() {
+        return crcErrors;
+    }
+
+    public void resetCounters() {
+        receivedMessages = 0;
+        skippedBytes = 0;
+        unknownMessages = 0;
+        crcErrors = 0;
+    }
+
+    private boolean refill() throws IOException {
+        buffer.compact();
+        int n = channel.read(buffer);
+        buffer.flip();
+        return n > 0;
+    }
+
     public long position() throws IOException {
-        if (channel instanceof FileChannel) {
-            return ((FileChannel) channel).position() + buffer.position() - buffer.limit();
+        if (channel instanceof SeekableByteChannel) {
+            return ((SeekableByteChannel) channel).position() + buffer.position() - buffer.limit();
         } else {
             throw new UnsupportedOperationException();
         }
     }
 
     public void position(long pos) throws IOException {
-        if (channel instanceof FileChannel) {
-            ((FileChannel) channel).position(pos);
+        if (channel instanceof SeekableByteChannel) {
+            ((SeekableByteChannel) channel).position(pos);
             buffer.clear();
             buffer.flip();
         } else {
             throw new UnsupportedOperationException();
         }
     }
+
+    /**
+     * Check reading of message views on short reads of the channel and after seeking back from the end of the file.
+     *
+     * @param args schema file name
+     */
+    public static void main(String[] args) throws Exception {
+        MAVLinkSchema schema = new MAVLinkSchema(args[0]);
+        List<MAVLinkMessage> msgs = new ArrayList<MAVLinkMessage>();
+        int size = 0;
+        for (int i = 0; i < 20; i++) {
+            for (MAVLinkMessageDefinition definition : schema.getMessageDefinitions().values()) {
+                MAVLinkMessage msg = new MAVLinkMessage(schema, definition.id, i + 1, 1);
+                msgs.add(msg);
+                size += msg.getFrameLength();
+            }
+        }
+        final ByteBuffer data = ByteBuffer.allocate(size);
+        MAVLinkStream encoder = new MAVLinkStream(schema, null);
+        for (MAVLinkMessage msg : msgs) {
+            encoder.encode(msg, data);
+        }
+        data.flip();
+
+        // Short reads as on serial or UDP link
+        checkRead(new MAVLinkStream(schema, shortReadChannel(data)), msgs, 0);
+        // Allocating read uses the same view internally
+        data.rewind();
+        MAVLinkStream readStream = new MAVLinkStream(schema, shortReadChannel(data));
+        for (MAVLinkMessage expected : msgs) {
+            MAVLinkMessage msg = readStream.read();
+            if (msg == null || msg.msgID != expected.msgID || msg.systemID != expected.systemID) {
+                throw new RuntimeException("Wrong message: " + msg + ", expected: " + expected);
+            }
+        }
+
+        // Seek back to the start after reading the end of the file
+        File file = File.createTempFile("mavlink", ".bin");
+        FileChannel fileChannel = new RandomAccessFile(file, "rw").getChannel();
+        try {
+            data.rewind();
+            fileChannel.write(data);
+            MAVLinkStream stream = new MAVLinkStream(schema, fileChannel);
+            MAVLinkMessage last = msgs.get(msgs.size() - 1);
+            stream.position(size - last.getFrameLength());
+            checkRead(stream, msgs, msgs.size() - 1);
+            stream.position(0);
+            checkRead(stream, msgs, 0);
+
+            // Concurrent writing from several threads must not mix frames
+            fileChannel.truncate(0);
+            final MAVLinkStream writeStream = new MAVLinkStream(schema, fileChannel);
+            final List<MAVLinkMessage> writeMsgs = msgs;
+            final IOException[] errors = new IOException[1];
+            Thread[] writers = new Thread[4];
+            for (int i = 0; i < writers.length; i++) {
+                writers[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int j = 0; j < 10; j++) {
+                                writeStream.writeBatch(writeMsgs);
+                                for (MAVLinkMessage msg : writeMsgs) {
+                                    writeStream.write(msg);
+                                }
+                            }
+                        } catch (IOException e) {
+                            errors[0] = e;
+                        }
+                    }
+                });
+                writers[i].start();
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            if (errors[0] != null) {
+                throw errors[0];
+            }
+            stream.position(0);
+            MAVLinkMessage view = new MAVLinkMessage(schema);
+            int n = 0;
+            while (stream.read(view)) {
+                n++;
+            }
+            if (n != writers.length * 20 * msgs.size() || stream.getCRCErrors() != 0 || stream.getSkippedBytes() != 0) {
+                throw new RuntimeException("Concurrent writes corrupted, messages: " + n + ", CRC errors: " +
+                        stream.getCRCErrors());
+            }
+        } finally {
+            fileChannel.close();
+            file.delete();
+        }
+        System.out.println("OK");
+    }
+
+    /**
+     * Channel returning data by short reads, 40 bytes on the first read.
+     */
+    private static ByteChannel shortReadChannel(final ByteBuffer data) {
+        return new ByteChannel() {
+            private int reads = 0;
+
+            @Override
+            public int read(ByteBuffer dst) {
+                if (!data.hasRemaining()) {
+                    return -1;
+                }
+                int n = Math.min(dst.remaining(), data.remaining());
+                n = Math.min(n, reads++ == 0 ? 40 : 1 + reads * 37 % 300);
+                ByteBuffer src = data.duplicate();
+                src.limit(src.position() + n);
+                dst.put(src);
+                data.position(data.position() + n);
+                return n;
+            }
+
+            @Override
+            public int write(ByteBuffer src) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    private static void checkRead(MAVLinkStream stream, List<MAVLinkMessage> msgs, int first) throws IOException {
+        MAVLinkMessage view = new MAVLinkMessage(stream.schema);
+        int i = first;
+        while (stream.read(view)) {
+            MAVLinkMessage expected = msgs.get(i++);
+            MAVLinkMessage copy = view.copy();
+            for (MAVLinkField field : view.getDefinition().fields) {
+                view.get(field);
+            }
+            if (view.getMsgID() != expected.msgID || view.getSystemID() != expected.systemID ||
+                    copy.msgID != expected.msgID || copy.systemID != expected.systemID) {
+                throw new RuntimeException("Wrong message: " + view + ", expected: " + expected);
+            }
+        }
+        if (i != msgs.size()) {
+            throw new RuntimeException(String.format("Read %s messages of %s", i - first, msgs.size() - first));
+        }
+    }
 }